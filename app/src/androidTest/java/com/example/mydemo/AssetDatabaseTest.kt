@@ -0,0 +1,48 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * A fresh install opens the shipped asset through the app's own database setup: Room must
+ * accept its schema, and the search index must be complete so startup has nothing to index.
+ */
+@RunWith(AndroidJUnit4::class)
+class AssetDatabaseTest {
+
+    @Test
+    fun freshInstallOpensAsset() = runBlocking {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        context.deleteDatabase(DB_NAME)
+        val noteDatabase = NoteDatabase.getInstance(context)
+
+        assertEquals(100L, count(noteDatabase, "SELECT COUNT(*) FROM note WHERE deleted_at IS NULL"))
+        assertEquals(0L, count(noteDatabase, "SELECT COUNT(*) FROM note WHERE title IS NULL OR is_favorite IS NULL"))
+        assertEquals(2L, count(noteDatabase, "SELECT COUNT(*) FROM pragma_foreign_key_list('note_tag_ref')"))
+        assertEquals(
+            count(noteDatabase, "SELECT COUNT(*) FROM note_search"),
+            count(noteDatabase, "SELECT COUNT(*) FROM note_fts_docsize")
+        )
+        assertTrue(noteDatabase.getNoteContentSearchDao().getUnindexedNoteIds().isEmpty())
+        assertEquals(1L, count(noteDatabase, "SELECT COUNT(*) FROM note_fts WHERE note_fts MATCH '\"XUE XI JI LU\"'"))
+
+        // Cascades and triggers work on the copied file.
+        noteDatabase.getNoteEntityDao().deleteById(setOf(1L))
+        assertEquals(0L, count(noteDatabase, "SELECT COUNT(*) FROM note_tag_ref WHERE note_id = 1"))
+        assertEquals(0L, count(noteDatabase, "SELECT COUNT(*) FROM note_search WHERE note_id = 1"))
+    }
+
+    private fun count(noteDatabase: NoteDatabase, sql: String): Long =
+        noteDatabase.openHelper.readableDatabase.query(sql).use { it.moveToFirst(); it.getLong(0) }
+
+    companion object {
+        private const val DB_NAME = "note_database"
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.room.withTransaction
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.annotation.UPDATE_TIME_DESC
+import com.easynote.data.database.DatabaseProfile
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Save and page latency of every [DatabaseProfile] on a file database, each measured while
+ * the other runs concurrently.
+ *
+ * The pages are plain reads on the WAL read connections, which keep the framework defaults
+ * rather than the profile's mmap_size and cache_size, so for them only the journal mode and
+ * the executors make a difference.
+ */
+@RunWith(AndroidJUnit4::class)
+class DatabaseProfileBenchmark {
+
+    @Test
+    fun compareProfiles() = runBlocking {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        for (profile in DatabaseProfile.entries) {
+            val name = "profile_benchmark_${profile.name}"
+            context.deleteDatabase(name)
+            val noteDatabase = profile.configure(
+                Room.databaseBuilder(context, NoteDatabase::class.java, name)
+            ).build()
+            try {
+                seed(noteDatabase)
+                val tagDictionary = TagDictionary(noteDatabase)
+                val saves = async(Dispatchers.IO) { measureSaves(noteDatabase) }
+                val pages = async(Dispatchers.IO) { measurePages(noteDatabase, tagDictionary) }
+                Log.d(
+                    TAG,
+                    "$profile save=${saves.await() / 1000}us page=${pages.await() / 1000}us"
+                )
+            } finally {
+                noteDatabase.close()
+                context.deleteDatabase(name)
+            }
+        }
+    }
+
+    private fun seed(noteDatabase: NoteDatabase) {
+        val db = noteDatabase.openHelper.writableDatabase
+        db.beginTransaction()
+        try {
+            for (id in 1..NOTE_COUNT) {
+                db.execSQL(
+                    "INSERT INTO note(id, title, summary, create_time, update_time, favorite_time, is_favorite) " +
+                            "VALUES(?, ?, ?, ?, ?, 0, 0)",
+                    arrayOf<Any>(id, "note $id", "summary $id", id, id)
+                )
+                db.execSQL("INSERT INTO note_search(note_id) VALUES(?)", arrayOf<Any>(id))
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * A save as the detail screen does it: title, summary and the search row, committed together.
+     */
+    private suspend fun measureSaves(noteDatabase: NoteDatabase): Long {
+        val noteDao = noteDatabase.getNoteEntityDao()
+        val ftsDao = noteDatabase.getNoteContentSearchDao()
+        val start = System.nanoTime()
+        for (i in 1..SAVES) {
+            val noteId = (i % NOTE_COUNT + 1).toLong()
+            noteDatabase.withTransaction {
+                noteDao.updateTitleOrSummary(noteId, "title $i", "summary $i", System.currentTimeMillis())
+                ftsDao.upsert(noteId, null, "TITLE $i", "SUMMARY $i", null, null)
+            }
+        }
+        return (System.nanoTime() - start) / SAVES
+    }
+
+    private suspend fun measurePages(noteDatabase: NoteDatabase, tagDictionary: TagDictionary): Long {
+        var loads = 0
+        val start = System.nanoTime()
+        repeat(PAGE_WALKS) {
+            val source = NoteKeysetPagingSource(noteDatabase, null, null, null, UPDATE_TIME_DESC, tagDictionary)
+            var page = source.load(
+                PagingSource.LoadParams.Refresh(null, PAGE_SIZE, false)
+            ) as PagingSource.LoadResult.Page
+            loads++
+            while (page.nextKey != null && loads % PAGES_PER_WALK != 0) {
+                page = source.load(
+                    PagingSource.LoadParams.Append(page.nextKey!!, PAGE_SIZE, false)
+                ) as PagingSource.LoadResult.Page
+                loads++
+            }
+        }
+        return (System.nanoTime() - start) / loads
+    }
+
+    companion object {
+        private const val TAG = "DatabaseProfile"
+        private const val NOTE_COUNT = 5_000
+        private const val SAVES = 300
+        private const val PAGE_SIZE = 20
+        private const val PAGE_WALKS = 10
+        private const val PAGES_PER_WALK = 30
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.common.utils.ToPinyin
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Compares the legacy self-contained FTS4 note_fts table, a self-contained table with the
+ * current columns and prefixes, and the external content note_fts index over note_search,
+ * on a 50k page dataset.
+ */
+@RunWith(AndroidJUnit4::class)
+class FtsIndexBenchmark {
+    private lateinit var legacyFile: File
+    private lateinit var containedFile: File
+    private lateinit var externalFile: File
+
+    private val syllables = listOf(
+        "BEI", "JING", "DA", "XUE", "SHANG", "HAI", "BI", "JI", "XUE", "XI",
+        "RI", "CHENG", "HUI", "YI", "JI", "YAO", "SHU", "JU", "KU", "SOU", "SUO"
+    )
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        legacyFile = context.getDatabasePath("bench_fts_legacy.db")
+        containedFile = context.getDatabasePath("bench_fts_contained.db")
+        externalFile = context.getDatabasePath("bench_fts_external.db")
+        legacyFile.parentFile?.mkdirs()
+        SQLiteDatabase.deleteDatabase(legacyFile)
+        SQLiteDatabase.deleteDatabase(containedFile)
+        SQLiteDatabase.deleteDatabase(externalFile)
+    }
+
+    @After
+    fun tearDown() {
+        SQLiteDatabase.deleteDatabase(legacyFile)
+        SQLiteDatabase.deleteDatabase(containedFile)
+        SQLiteDatabase.deleteDatabase(externalFile)
+    }
+
+    @Test
+    fun compareIndexSizeAndQueryLatency() {
+        val legacy = SQLiteDatabase.openOrCreateDatabase(legacyFile, null)
+        legacy.execSQL("CREATE VIRTUAL TABLE note_fts USING FTS4(id, page_index, title, summary, content)")
+        fill(legacy) { noteId, pageIndex, content ->
+            legacy.execSQL(
+                "INSERT INTO note_fts(id, page_index, content) VALUES(?, ?, ?)",
+                arrayOf(noteId, pageIndex, content)
+            )
+        }
+
+        val contained = SQLiteDatabase.openOrCreateDatabase(containedFile, null)
+        contained.execSQL("CREATE VIRTUAL TABLE note_fts USING FTS4(note_id, page_id, title, summary, content, initials, prefix=`2,3,4,5,6,7,8`)")
+        fill(contained) { noteId, pageId, content ->
+            contained.execSQL(
+                "INSERT INTO note_fts(note_id, page_id, content, initials) VALUES(?, ?, ?, ?)",
+                arrayOf(noteId, pageId, content, ToPinyin.convertPinyinToInitials(content))
+            )
+        }
+
+        val external = SQLiteDatabase.openOrCreateDatabase(externalFile, null)
+        external.execSQL("CREATE TABLE note_search (id INTEGER PRIMARY KEY AUTOINCREMENT, note_id INTEGER NOT NULL, page_id INTEGER, title TEXT, summary TEXT, content TEXT, initials TEXT)")
+        external.execSQL("CREATE UNIQUE INDEX index_note_search_note_id_page_id ON note_search (note_id, page_id)")
+        external.execSQL("CREATE VIRTUAL TABLE note_fts USING FTS4(title, summary, content, initials, content=`note_search`, prefix=`2,3,4,5,6,7,8`)")
+        external.execSQL("CREATE TRIGGER note_search_ai AFTER INSERT ON note_search BEGIN INSERT INTO note_fts(docid, title, summary, content, initials) VALUES (NEW.rowid, NEW.title, NEW.summary, NEW.content, NEW.initials); END")
+        fill(external) { noteId, pageId, content ->
+            external.execSQL(
+                "INSERT INTO note_search(note_id, page_id, content, initials) VALUES(?, ?, ?, ?)",
+                arrayOf(noteId, pageId, content, ToPinyin.convertPinyinToInitials(content))
+            )
+        }
+
+        legacy.execSQL("VACUUM")
+        contained.execSQL("VACUUM")
+        external.execSQL("VACUUM")
+
+        val legacyQuery = measureQuery(legacy, "SELECT DISTINCT id FROM note_fts WHERE note_fts MATCH ?")
+        val containedQuery = measureQuery(contained, "SELECT DISTINCT note_id FROM note_fts WHERE note_fts MATCH ?")
+        val externalQuery = measureQuery(
+            external,
+            "SELECT DISTINCT s.note_id FROM note_fts JOIN note_search AS s ON s.id = note_fts.rowid WHERE note_fts MATCH ?"
+        )
+        legacy.close()
+        contained.close()
+        external.close()
+
+        Log.d(TAG, "legacy FTS4: size=${legacyFile.length()}B, query=${legacyQuery / 1000}us")
+        Log.d(TAG, "contained FTS4: size=${containedFile.length()}B, query=${containedQuery / 1000}us")
+        Log.d(TAG, "external FTS4: size=${externalFile.length()}B, query=${externalQuery / 1000}us")
+    }
+
+    private fun fill(db: SQLiteDatabase, insert: (Long, Int, String) -> Unit) {
+        val random = Random(42)
+        db.beginTransaction()
+        try {
+            for (page in 0 until PAGE_COUNT) {
+                val content = (0 until 200).joinToString(" ") { syllables[random.nextInt(syllables.size)] }
+                insert((page / PAGES_PER_NOTE).toLong(), page % PAGES_PER_NOTE + 1, content)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun measureQuery(db: SQLiteDatabase, sql: String): Long {
+        val queries = listOf("BEI JING", "SHU JU KU", "\"DA XUE\"", "SOU SUO")
+        val start = System.nanoTime()
+        repeat(ROUNDS) {
+            queries.forEach { query ->
+                db.rawQuery(sql, arrayOf(query)).use { cursor ->
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0)
+                    }
+                }
+            }
+        }
+        return (System.nanoTime() - start) / (ROUNDS * queries.size)
+    }
+
+    companion object {
+        private const val TAG = "FtsIndexBenchmark"
+        private const val PAGE_COUNT = 50_000
+        private const val PAGES_PER_NOTE = 10
+        private const val ROUNDS = 5
+    }
+}
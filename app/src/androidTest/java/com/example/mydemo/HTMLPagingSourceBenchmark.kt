@@ -0,0 +1,84 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.paging.PagingSource
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.pagingsource.HTMLPagingSource
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * Chunk load throughput over a 10 MB page: a file open, a fresh buffer and a fixed offset cut
+ * per load against [HTMLPagingSource] decoding from one mapping.
+ */
+@RunWith(AndroidJUnit4::class)
+class HTMLPagingSourceBenchmark {
+
+    @Test
+    fun compareChunkLoads() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val file = File(context.cacheDir, "html_paging_benchmark.html")
+        val paragraph = "<p dir=\"ltr\">中文笔记内容 note content <b>加粗</b> &#20013;<br></p>\n"
+        file.bufferedWriter().use { writer ->
+            var written = 0L
+            while (written < FILE_SIZE) {
+                writer.write(paragraph)
+                written += paragraph.toByteArray().size
+            }
+        }
+        try {
+            val fileLength = file.length()
+            val perLoad = measure(fileLength) {
+                var offset = 0L
+                while (offset < fileLength) {
+                    val buffer = ByteArray(minOf(PAGE_SIZE.toLong(), fileLength - offset).toInt())
+                    RandomAccessFile(file, "r").use { raf ->
+                        raf.seek(offset)
+                        raf.read(buffer)
+                    }
+                    String(buffer, Charsets.UTF_8)
+                    offset += buffer.size
+                }
+            }
+            val mapped = measure(fileLength) {
+                val source = HTMLPagingSource(file, PAGE_SIZE)
+                runBlocking {
+                    var key: Int? = null
+                    do {
+                        val params = if (key == null) {
+                            PagingSource.LoadParams.Refresh(null, 1, false)
+                        } else {
+                            PagingSource.LoadParams.Append(key, 1, false)
+                        }
+                        key = (source.load(params) as PagingSource.LoadResult.Page).nextKey
+                    } while (key != null)
+                }
+            }
+            Log.d(TAG, "open per load=${perLoad}MB/s mapped=${mapped}MB/s")
+        } finally {
+            file.delete()
+        }
+    }
+
+    /**
+     * The mean throughput in MB/s of [action] reading the whole file, over [ROUNDS] rounds.
+     */
+    private inline fun measure(fileLength: Long, action: () -> Unit): Long {
+        val start = System.nanoTime()
+        repeat(ROUNDS) { action() }
+        val seconds = (System.nanoTime() - start) / 1e9
+        return (fileLength * ROUNDS / (1024 * 1024) / seconds).toLong()
+    }
+
+    companion object {
+        private const val TAG = "HTMLPagingSourceBenchmark"
+        private const val FILE_SIZE = 10L * 1024 * 1024
+        private const val PAGE_SIZE = 4096
+        private const val ROUNDS = 5
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.paging.PagingSource
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.pagingsource.HTMLPagingSource
+import com.easynote.data.storage.PageStore
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Chunks of CJK heavy HTML must join back to the file or stored page and never split a
+ * character, a tag or an entity, whatever the page size.
+ */
+@RunWith(AndroidJUnit4::class)
+class HTMLPagingSourceTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val file = File(context.cacheDir, "html_paging_test.html")
+
+    @After
+    fun deleteFile() {
+        file.delete()
+    }
+
+    @Test
+    fun cjkChunksKeepCharactersAndTags() {
+        val html = (1..300).joinToString("") {
+            "<p dir=\"ltr\">第 $it 段：中文笔记<b>加粗</b>😀 emoji &#20013;&amp;<br></p>\n"
+        }
+        file.writeText(html)
+
+        for (pageSize in listOf(7, 64, 333, 4096)) {
+            val chunks = loadAll(HTMLPagingSource(file, pageSize))
+            assertEquals(html, chunks.joinToString(""))
+            for (chunk in chunks) {
+                assertFalse(chunk.contains('\uFFFD'))
+                assertEquals(chunk.count { it == '<' }, chunk.count { it == '>' })
+                assertTrue(chunk.indexOf('>') >= chunk.indexOf('<'))
+                assertEquals(chunk.count { it == '&' }, chunk.count { it == ';' })
+            }
+        }
+    }
+
+    @Test
+    fun tagLongerThanPageIsKept() {
+        val html = "<p>前文</p><a href=\"${"很长的链接".repeat(50)}\">链接</a><p>后文</p>"
+        file.writeText(html)
+
+        val chunks = loadAll(HTMLPagingSource(file, 16))
+        assertEquals(html, chunks.joinToString(""))
+        assertTrue(chunks.any { it.startsWith("<a href=") && it.endsWith("\">") })
+    }
+
+    @Test
+    fun pageStorePagesLoadInChunks() {
+        val html = (1..300).joinToString("") { "<p dir=\"ltr\">第 $it 段：中文笔记<b>加粗</b>&amp;</p>\n" }
+        val root = File(context.cacheDir, "html_paging_test_pages").apply { deleteRecursively() }
+        try {
+            for (compress in listOf(true, false)) {
+                val pageStore = PageStore(root, compress = compress)
+                pageStore.put(1, 1, html, "")
+                assertEquals(html, loadAll(HTMLPagingSource(pageStore, 1, 1, 333)).joinToString(""))
+                assertTrue(loadAll(HTMLPagingSource(pageStore, 1, 2)).isEmpty())
+                pageStore.close()
+                root.deleteRecursively()
+            }
+        } finally {
+            root.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun emptyFileHasNoChunks() {
+        file.writeText("")
+
+        val page = runBlocking {
+            HTMLPagingSource(file).load(PagingSource.LoadParams.Refresh(null, 1, false))
+        } as PagingSource.LoadResult.Page
+        assertTrue(page.data.isEmpty())
+        assertNull(page.nextKey)
+    }
+
+    private fun loadAll(source: HTMLPagingSource): List<String> = runBlocking {
+        val chunks = mutableListOf<String>()
+        var key: Int? = null
+        do {
+            val params = if (key == null) {
+                PagingSource.LoadParams.Refresh(null, 1, false)
+            } else {
+                PagingSource.LoadParams.Append(key, 1, false)
+            }
+            val page = source.load(params) as PagingSource.LoadResult.Page
+            chunks += page.data
+            key = page.nextKey
+        } while (key != null)
+        chunks
+    }
+}
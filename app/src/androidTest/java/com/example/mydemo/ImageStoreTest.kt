@@ -0,0 +1,113 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.storage.ImageStore
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * The same image inserted into several pages is stored once, and deleted only when the last
+ * page or note using it is.
+ */
+@RunWith(AndroidJUnit4::class)
+class ImageStoreTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var filesDir: File
+    private lateinit var imageStore: ImageStore
+
+    @Before
+    fun createDb() {
+        noteDatabase = Room.inMemoryDatabaseBuilder(context, NoteDatabase::class.java)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    NoteDatabase.CREATE_IMAGE_REF_COUNT_TRIGGERS.forEach { db.execSQL(it) }
+                }
+            })
+            .build()
+        val db = noteDatabase.openHelper.writableDatabase
+        for (id in 1..NOTE_COUNT) {
+            db.execSQL("INSERT INTO note(id, title) VALUES(?, ?)", arrayOf<Any>(id, "笔记 $id"))
+        }
+        filesDir = File(context.cacheDir, "image_store_test_files").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+        imageStore = ImageStore(noteDatabase, filesDir)
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+        filesDir.deleteRecursively()
+    }
+
+    @Test
+    fun sameImageIsStoredOnce() = runBlocking {
+        val image = ByteArray(200_000) { (it * 31).toByte() }
+        val files = (1L..NOTE_COUNT).map { noteId -> imageStore.save(noteId, 1, image.inputStream()) }
+
+        assertEquals(1, files.toSet().size)
+        assertTrue(image.contentEquals(files[0].readBytes()))
+        assertEquals(1, storedFiles().size)
+        val hash = files[0].nameWithoutExtension
+        assertEquals(files[0], imageStore.file(hash))
+        assertEquals(NOTE_COUNT, imageStore.refCount(hash))
+
+        // A page inserting the image twice still holds one ref.
+        imageStore.save(1, 1, image.inputStream())
+        assertEquals(NOTE_COUNT, imageStore.refCount(hash))
+
+        val other = imageStore.save(1, 2, byteArrayOf(1, 2, 3).inputStream())
+        assertEquals(2, storedFiles().size)
+        assertEquals(1, imageStore.refCount(other.nameWithoutExtension))
+    }
+
+    @Test
+    fun imageGoesWithItsLastRef() = runBlocking {
+        val image = byteArrayOf(9, 8, 7)
+        val file = imageStore.save(1, 1, image.inputStream())
+        imageStore.save(1, 2, image.inputStream())
+        imageStore.save(2, 1, image.inputStream())
+        val hash = file.nameWithoutExtension
+
+        imageStore.releasePage(1, 1)
+        assertEquals(2, imageStore.refCount(hash))
+        assertTrue(file.exists())
+
+        // Deleting the note drops its refs through the foreign key.
+        noteDatabase.getNoteEntityDao().deleteById(setOf(1L))
+        assertEquals(1, imageStore.refCount(hash))
+        assertEquals(0, imageStore.sweep())
+        assertTrue(file.exists())
+
+        imageStore.releasePage(2, 1)
+        assertEquals(0, imageStore.refCount(hash))
+        assertFalse(file.exists())
+
+        // Stored again once swept.
+        assertEquals(file, imageStore.save(3, 1, image.inputStream()))
+        assertTrue(file.exists())
+        assertEquals(1, imageStore.refCount(hash))
+    }
+
+    private fun storedFiles(): List<File> =
+        File(filesDir, ImageStore.IMAGE_DIR).walkTopDown().filter { it.isFile }.toList()
+
+    companion object {
+        private const val NOTE_COUNT = 10
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.backup.ChangeJournal
+import com.easynote.data.backup.NoteBackup
+import com.easynote.data.common.exception.DataException
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.database.DatabaseProfile
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.entity.TagEntity
+import com.easynote.data.indexer.SearchIndexer
+import com.easynote.data.storage.ImageStore
+import com.easynote.data.storage.PageStore
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * Full and incremental backup round trips, and rejection of a damaged archive or a broken
+ * chain without touching the library.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteBackupTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var filesDir: File
+    private lateinit var pageStore: PageStore
+    private lateinit var imageStore: ImageStore
+    private lateinit var archive: File
+    private lateinit var incrementals: List<File>
+    private lateinit var noteBackup: NoteBackup
+    private lateinit var changeJournal: ChangeJournal
+
+    @Before
+    fun createDb() = runBlocking {
+        context.deleteDatabase(DB_NAME)
+        noteDatabase = DatabaseProfile.BALANCED.configure(
+            Room.databaseBuilder(context, NoteDatabase::class.java, DB_NAME)
+        ).addCallback(object : RoomDatabase.Callback() {
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                db.execSQL(NoteDatabase.CREATE_NOTE_SEARCH_CLEANUP_TRIGGER)
+                NoteDatabase.CREATE_IMAGE_REF_COUNT_TRIGGERS.forEach { db.execSQL(it) }
+            }
+        }).build()
+        filesDir = File(context.cacheDir, "backup_test_files").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+        pageStore = PageStore(File(context.cacheDir, "backup_test_pages").apply { deleteRecursively() })
+        archive = File(context.cacheDir, "backup_test.enbk")
+        incrementals = listOf(
+            File(context.cacheDir, "backup_test_1.enbk"),
+            File(context.cacheDir, "backup_test_2.enbk")
+        )
+        val searchIndexer = SearchIndexer(noteDatabase, ToPinyin(context))
+        imageStore = ImageStore(noteDatabase, filesDir)
+        noteBackup = NoteBackup(noteDatabase, searchIndexer, pageStore, imageStore, filesDir)
+        changeJournal = ChangeJournal(noteDatabase, filesDir)
+
+        val tagId = noteDatabase.getTagEntityDao().insert(TagEntity(name = "工作"))
+        for (i in 1..20) {
+            val noteId = noteDatabase.getNoteEntityDao().insert(
+                NoteEntity(title = "笔记 $i", summary = "摘要 $i", createTime = i.toLong(),
+                    updateTime = i.toLong(), favoriteTime = 0, isFavorite = false)
+            )
+            if (i % 2 == 0) {
+                noteDatabase.getNoteTagCrossRefDao().insertNoteWithTags(noteId, listOf(tagId))
+            }
+            searchIndexer.enqueue(noteId)
+            pageStore.put(noteId, 1, "<p>内容 $i</p>", "内容 $i")
+            File(filesDir, "$noteId/1/img").mkdirs()
+        }
+        // A large file, so the checksum runs over several buffers.
+        File(filesDir, "1/1/img/img_large.jpg").writeBytes(ByteArray(1_000_000) { it.toByte() })
+        // One image of the image store, shared by two notes.
+        for (noteId in 1L..2L) {
+            imageStore.save(noteId, 1, byteArrayOf(1, 2, 3).inputStream())
+        }
+        searchIndexer.flush()
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+        context.deleteDatabase(DB_NAME)
+        filesDir.deleteRecursively()
+        pageStore.close()
+        File(context.cacheDir, "backup_test_pages").deleteRecursively()
+        archive.delete()
+        incrementals.forEach { it.delete() }
+    }
+
+    @Test
+    fun backupAndRestore() = runBlocking {
+        val before = snapshot()
+        noteBackup.backup(archive)
+
+        noteDatabase.getNoteEntityDao().deleteById(setOf(1L, 2L, 3L))
+        noteDatabase.getTagEntityDao().deleteAll()
+        File(filesDir, "4").deleteRecursively()
+        pageStore.deleteNotes(listOf(4L))
+        pageStore.put(5, 1, "changed", "changed")
+        File(filesDir, "99/1").mkdirs()
+
+        noteBackup.restore(archive)
+
+        assertEquals(before, snapshot())
+        assertEquals(20, noteDatabase.getNoteContentSearchDao()
+            .searchNotesByContent(ToPinyin(context).convertToMatchQuery("笔记")!!).size)
+    }
+
+    @Test
+    fun corruptArchiveIsRejected() = runBlocking {
+        noteBackup.backup(archive)
+        RandomAccessFile(archive, "rw").use { file ->
+            file.seek(file.length() / 2)
+            val byte = file.read()
+            file.seek(file.length() / 2)
+            file.write(byte xor 0xFF)
+        }
+        noteDatabase.getNoteEntityDao().deleteById(setOf(1L))
+        val before = snapshot()
+        try {
+            noteBackup.restore(archive)
+            fail()
+        } catch (e: DataException) {
+            // Expected: nothing may have been restored.
+        }
+        assertEquals(before, snapshot())
+    }
+
+    @Test
+    fun incrementalChain() = runBlocking {
+        val noteDao = noteDatabase.getNoteEntityDao()
+        noteBackup.backup(archive)
+
+        noteDao.updateTitleOrSummary(1, "新标题", null, 100)
+        changeJournal.noteChanged(listOf(1L))
+        pageStore.put(2, 1, "<p>第二页改过</p>", "第二页改过")
+        changeJournal.pageChanged(2, 1)
+        val image = File(filesDir, "3/1/img/img_new.jpg").apply { writeBytes(byteArrayOf(7, 7, 7)) }
+        changeJournal.imageSaved(3, 1, image.absolutePath)
+        val stored = imageStore.save(3, 1, byteArrayOf(4, 5, 6).inputStream())
+        changeJournal.imageSaved(3, 1, stored.absolutePath)
+        noteDao.deleteById(4)
+        File(filesDir, "4").deleteRecursively()
+        pageStore.deleteNotes(listOf(4L))
+        changeJournal.notesDeleted(listOf(4L))
+        val newId = noteDao.insert(NoteEntity(title = "新笔记", createTime = 50, updateTime = 50,
+            favoriteTime = 0, isFavorite = false))
+        pageStore.put(newId, 1, "<p>新内容</p>", "新内容")
+        changeJournal.filesChanged(newId)
+        noteDatabase.getTagEntityDao().insert(TagEntity(name = "生活"))
+        noteBackup.backupIncremental(archive, incrementals[0])
+
+        noteDao.updateTitleOrSummary(5, "再改", "摘要", 200)
+        changeJournal.noteChanged(listOf(5L))
+        noteBackup.backupIncremental(incrementals[0], incrementals[1])
+        val expected = snapshot()
+
+        noteDao.deleteById((1L..newId).toSet())
+        noteDatabase.getTagEntityDao().deleteAll()
+        filesDir.listFiles()?.forEach { it.deleteRecursively() }
+        pageStore.clear()
+
+        noteBackup.restore(archive, incrementals[0], incrementals[1])
+        assertEquals(expected, snapshot())
+
+        try {
+            noteBackup.restore(archive, incrementals[1])
+            fail()
+        } catch (e: DataException) {
+            // Expected: the chain skips a link.
+        }
+        assertEquals(expected, snapshot())
+    }
+
+    @Test
+    fun fullBackupStartsNewChain() = runBlocking {
+        noteBackup.backup(archive)
+        noteBackup.backupIncremental(archive, incrementals[0])
+        noteBackup.backup(archive)
+        try {
+            noteBackup.backupIncremental(incrementals[0], incrementals[1])
+            fail()
+        } catch (e: DataException) {
+            // Expected: the journal before the new full backup is gone.
+        }
+    }
+
+    private fun snapshot(): Triple<List<String>, Map<String, String>, List<String>> {
+        val db = noteDatabase.openHelper.readableDatabase
+        val rows = listOf(
+            "SELECT id, title, summary, update_time FROM note ORDER BY id",
+            "SELECT note_id, tag_id FROM note_tag_ref ORDER BY note_id, tag_id",
+            "SELECT id, name FROM tag ORDER BY id",
+            "SELECT note_id, page_id, title FROM note_search ORDER BY note_id, page_id",
+            "SELECT note_id, page_id, hash FROM image_ref ORDER BY note_id, page_id, hash",
+            "SELECT hash, ref_count FROM image WHERE ref_count > 0 ORDER BY hash"
+        ).flatMap { sql ->
+            db.query(sql).use { cursor ->
+                generateSequence {
+                    if (cursor.moveToNext()) {
+                        (0 until cursor.columnCount).joinToString("|") { cursor.getString(it) ?: "null" }
+                    } else {
+                        null
+                    }
+                }.toList()
+            }
+        }
+        val files = filesDir.walkTopDown().filter { it.isFile }.associate { file ->
+            file.relativeTo(filesDir).path to file.readBytes().contentHashCode().toString()
+        }
+        val pages = pageStore.noteIds().sorted().flatMap { noteId ->
+            pageStore.pageIndexes(noteId).map { pageIndex ->
+                "$noteId/$pageIndex|${pageStore.readHtml(noteId, pageIndex)}|${pageStore.readText(noteId, pageIndex)}"
+            }
+        }
+        return Triple(rows, files, pages)
+    }
+
+    companion object {
+        private const val DB_NAME = "backup_test"
+    }
+}
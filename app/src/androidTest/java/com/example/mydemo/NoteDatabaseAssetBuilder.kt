@@ -0,0 +1,88 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.indexer.SearchIndexer
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Asset build step for assets/note_database.db.
+ *
+ * [buildAsset] opens the shipped seed through Room, indexes every note with the app's own
+ * pinyin conversion and writes a compacted, fully indexed copy at the current schema
+ * version. Room then only copies the file on first launch. Run it alone with
+ * `-Pandroid.testInstrumentationRunnerArguments.class=com.example.mydemo.NoteDatabaseAssetBuilder`
+ * and pull the logged file into app/src/main/assets.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteDatabaseAssetBuilder {
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    @Test
+    fun buildAsset() = runBlocking {
+        context.deleteDatabase(BUILD_NAME)
+        val noteDatabase = Room.databaseBuilder(context, NoteDatabase::class.java, BUILD_NAME)
+            .createFromAsset("note_database.db")
+            .setJournalMode(RoomDatabase.JournalMode.TRUNCATE)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    db.execSQL(NoteDatabase.NORMALIZE_NOTE_SORT_COLUMNS)
+                }
+            })
+            .build()
+        val indexer = SearchIndexer(noteDatabase, ToPinyin(context))
+        indexer.verify()
+        indexer.flush()
+        assertIndexed(noteDatabase)
+        noteDatabase.openHelper.writableDatabase.execSQL("VACUUM")
+        noteDatabase.close()
+
+        val asset = File(context.getExternalFilesDir(null), "note_database.db")
+        context.getDatabasePath(BUILD_NAME).copyTo(asset, overwrite = true)
+        context.deleteDatabase(BUILD_NAME)
+        Log.i(TAG, "adb pull ${asset.absolutePath} app/src/main/assets/note_database.db")
+    }
+
+    @Test
+    fun verifyIndexesUnindexedNotes() = runBlocking {
+        val noteDatabase = Room.inMemoryDatabaseBuilder(context, NoteDatabase::class.java).build()
+        try {
+            noteDatabase.getNoteEntityDao().insert(NoteEntity(title = "北京大学", updateTime = 1L))
+            noteDatabase.getNoteEntityDao().insert(NoteEntity(title = "学习记录", updateTime = 2L))
+            val indexer = SearchIndexer(noteDatabase, ToPinyin(context))
+            indexer.verify()
+            indexer.flush()
+            assertIndexed(noteDatabase)
+            val hits = noteDatabase.getNoteContentSearchDao().searchNotesByContent("\"XUE\"")
+            assertEquals(2, hits.size)
+        } finally {
+            noteDatabase.close()
+        }
+    }
+
+    private suspend fun assertIndexed(noteDatabase: NoteDatabase) {
+        assertTrue(noteDatabase.getNoteContentSearchDao().getUnindexedNoteIds().isEmpty())
+        val db = noteDatabase.openHelper.readableDatabase
+        val rows = db.query("SELECT COUNT(*) FROM note_search").use { it.moveToFirst(); it.getLong(0) }
+        val indexed = db.query("SELECT COUNT(*) FROM note_fts_docsize").use { it.moveToFirst(); it.getLong(0) }
+        assertEquals(rows, indexed)
+    }
+
+    companion object {
+        private const val TAG = "NoteDatabaseAsset"
+        private const val BUILD_NAME = "note_database_asset_build"
+    }
+}
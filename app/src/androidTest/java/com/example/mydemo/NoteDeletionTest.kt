@@ -0,0 +1,111 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.storage.FileReclaimer
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Deleting a note removes its tag refs and search rows in the same statement, and its
+ * directory leaves at once while the files are reclaimed in the background.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteDeletionTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var filesDir: File
+
+    @Before
+    fun createDb() {
+        noteDatabase = Room.inMemoryDatabaseBuilder(context, NoteDatabase::class.java)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    db.execSQL(NoteDatabase.CREATE_NOTE_SEARCH_CLEANUP_TRIGGER)
+                }
+            })
+            .build()
+        val db = noteDatabase.openHelper.writableDatabase
+        db.execSQL("INSERT INTO tag(id, name) VALUES(1, '工作'), (2, '生活')")
+        for (id in 1..NOTE_COUNT) {
+            db.execSQL("INSERT INTO note(id, title) VALUES(?, ?)", arrayOf<Any>(id, "笔记 $id"))
+            db.execSQL("INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, 1), (?, 2)", arrayOf<Any>(id, id))
+            db.execSQL(
+                "INSERT INTO note_search(note_id, page_id, content) VALUES(?, NULL, ?), (?, 1, ?)",
+                arrayOf<Any>(id, "beijing $id", id, "shanghai $id")
+            )
+        }
+        filesDir = File(context.cacheDir, "deletion_test_files").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+        filesDir.deleteRecursively()
+    }
+
+    @Test
+    fun deleteCascades() = runBlocking {
+        noteDatabase.getNoteEntityDao().deleteById((1L..NOTE_COUNT / 2).toSet())
+
+        assertEquals(NOTE_COUNT / 2, count("SELECT COUNT(DISTINCT note_id) FROM note_tag_ref"))
+        assertEquals(NOTE_COUNT / 2, count("SELECT COUNT(DISTINCT note_id) FROM note_search"))
+        assertEquals(NOTE_COUNT / 2, count("SELECT COUNT(*) FROM note_fts WHERE note_fts MATCH 'shanghai'"))
+
+        noteDatabase.getTagEntityDao().deleteById(1)
+        assertEquals(0, count("SELECT COUNT(*) FROM note_tag_ref WHERE tag_id = 1"))
+        assertEquals(NOTE_COUNT / 2, count("SELECT COUNT(*) FROM note_tag_ref WHERE tag_id = 2"))
+    }
+
+    @Test
+    fun buriedDirectoriesAreReclaimed() = runBlocking {
+        val dirs = (1..NOTE_COUNT).map { id ->
+            File(filesDir, "$id").also { dir ->
+                for (page in 1..3) {
+                    File(dir, "$page/H5.html").apply {
+                        parentFile?.mkdirs()
+                        writeText("<p>$id</p>")
+                    }
+                    File(dir, "$page/img").mkdirs()
+                }
+            }
+        }
+        // A tombstone left behind by an earlier process.
+        File(filesDir, ".tombstones/0-old/1/H5.html").apply {
+            parentFile?.mkdirs()
+            writeText("old")
+        }
+        val reclaimer = FileReclaimer(filesDir, batchSize = 7, batchDelayMs = 1)
+
+        dirs.forEach { dir -> assertTrue(reclaimer.bury(dir)) }
+        dirs.forEach { dir -> assertFalse(dir.exists()) }
+
+        reclaimer.flush()
+        assertEquals(0, File(filesDir, ".tombstones").listFiles()?.size ?: 0)
+    }
+
+    private fun count(sql: String): Int =
+        noteDatabase.openHelper.readableDatabase.query(sql).use { cursor ->
+            cursor.moveToFirst()
+            cursor.getInt(0)
+        }
+
+    companion object {
+        private const val NOTE_COUNT = 20
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.mydemo
+
+import android.app.Application
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.repository.impl.RepositoryImpl
+import com.easynote.data.storage.PageContent
+import com.easynote.detail.data.model.NotePage
+import com.easynote.detail.viewmodel.NoteDetailViewModel
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * An image inserted after a queued page delete is filed under the page it is shown on, so
+ * the save applying the delete keeps it.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteDetailSaveTest {
+    private val application = ApplicationProvider.getApplicationContext<Application>()
+    private val repository = RepositoryImpl(application)
+    private var noteId = -1L
+    private lateinit var source: File
+
+    @Before
+    fun createNote() = runBlocking {
+        noteId = repository.createNewNote()
+        repository.updateNoteContents(
+            noteId,
+            listOf(PageContent(1, "一", "<p>一</p>"), PageContent(2, "二", "<p>二</p>"))
+        )
+        source = File(application.cacheDir, "note_detail_save_test.png").apply {
+            writeBytes(ByteArray(1024) { (it * 7).toByte() })
+        }
+    }
+
+    @After
+    fun deleteNote() = runBlocking {
+        repository.deleteNoteById(noteId)
+        source.delete()
+    }
+
+    @Test
+    fun imageAfterQueuedDeleteSurvivesSave() = runBlocking {
+        val viewModel = NoteDetailViewModel(application)
+        val unremoved = mutableListOf<Int>()
+        val saved = CompletableDeferred<Uri>()
+
+        // The editor deleted page 1, so the old page 2 is now shown as page 1.
+        viewModel.saveImage(noteId, 1, Uri.fromFile(source), listOf(1), { unremoved += it }) {
+            saved.complete(it)
+        }.join()
+        val image = File(withTimeout(TIMEOUT_MS) { saved.await() }.path!!)
+        val html = "<p>二</p><img src=\"${Uri.fromFile(image)}\">"
+        viewModel.saveNote(noteId, listOf(NotePage(1, 1, html, true)), emptyList(), emptyList()) {
+            unremoved += it
+        }.join()
+
+        assertTrue(unremoved.isEmpty())
+        assertTrue(image.exists())
+        assertEquals(html, repository.getNoteContentByIdAndPageIndex(noteId, 1))
+        assertNull(repository.getNoteContentByIdAndPageIndex(noteId, 2))
+    }
+
+    companion object {
+        private const val TIMEOUT_MS = 10_000L
+    }
+}
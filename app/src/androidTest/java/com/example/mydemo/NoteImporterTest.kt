@@ -0,0 +1,117 @@
+package com.example.mydemo
+
+import android.app.Application
+import androidx.room.InvalidationTracker
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.importer.ImportProgress
+import com.easynote.data.importer.NoteImporter
+import com.easynote.data.repository.impl.FileRepositoryImpl
+import com.easynote.data.storage.PageStore
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Bulk import: every file becomes a searchable, tagged note with its page file, and Room
+ * observers hear of it once at the end instead of per chunk.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteImporterTest {
+    private val application = ApplicationProvider.getApplicationContext<Application>()
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var source: File
+    private val importedIds = mutableListOf<Long>()
+
+    @Before
+    fun createDb() {
+        noteDatabase = Room.inMemoryDatabaseBuilder(application, NoteDatabase::class.java).build()
+        source = File(application.cacheDir, "import_test").apply {
+            deleteRecursively()
+            mkdirs()
+        }
+        File(source, "工作").mkdirs()
+        File(source, "生活").mkdirs()
+        File(source, "工作/周报.md").writeText("# 本周进展\n\n完成北京项目\n继续测试")
+        File(source, "工作/会议.txt").writeText("会议纪要 <重要>")
+        File(source, "生活/旅行.html").writeText("<p>去<b>上海</b>旅行</p>")
+        for (i in 1..5) {
+            File(source, "草稿$i.txt").writeText("草稿内容 $i")
+        }
+        File(source, "image.png").writeBytes(byteArrayOf(1, 2, 3))
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+        source.deleteRecursively()
+        importedIds.forEach { File(application.filesDir, it.toString()).deleteRecursively() }
+        PageStore.getInstance(application).deleteNotes(importedIds)
+    }
+
+    @Test
+    fun importDirectory() = runBlocking {
+        val invalidations = AtomicInteger()
+        val observer = object : InvalidationTracker.Observer(arrayOf("note")) {
+            override fun onInvalidated(tables: Set<String>) {
+                invalidations.incrementAndGet()
+            }
+        }
+        noteDatabase.invalidationTracker.addObserver(observer)
+        val pinYinConverter = ToPinyin(application)
+        val importer = NoteImporter(
+            noteDatabase,
+            FileRepositoryImpl(application),
+            pinYinConverter,
+            chunkSize = 3
+        )
+
+        val progress = mutableListOf<ImportProgress>()
+        importer.import(source).collect { step ->
+            progress.add(step)
+            assertEquals(0, invalidations.get())
+        }
+
+        assertEquals(listOf(0, 3, 6, 8), progress.map { it.imported })
+        assertTrue(progress.all { it.total == 8 && it.failed == 0 })
+        assertTrue(progress.last().finished)
+        withTimeout(5_000) {
+            while (invalidations.get() == 0) {
+                delay(10)
+            }
+        }
+
+        val notes = noteDatabase.getNoteEntityDao().getAll()
+        importedIds.addAll(notes.mapNotNull { it.id })
+        assertEquals(8, notes.size)
+        val report = notes.first { it.title == "周报" }
+        assertTrue(report.summary!!.startsWith("本周进展"))
+        val html = PageStore.getInstance(application).readHtml(report.id!!, 1)
+        assertEquals("<h1>本周进展</h1><p>完成北京项目<br>继续测试</p>", html)
+        val meeting = notes.first { it.title == "会议" }
+        assertTrue(
+            PageStore.getInstance(application).readHtml(meeting.id!!, 1)!!.contains("&lt;重要&gt;")
+        )
+
+        val tags = noteDatabase.getTagEntityDao().getAll()
+        assertEquals(setOf("工作", "生活"), tags.mapNotNull { it.name }.toSet())
+        val work = tags.first { it.name == "工作" }
+        assertEquals(2, noteDatabase.getNoteEntityDao().getCountByTagIds(setOf(work.id!!)))
+
+        val ftsDao = noteDatabase.getNoteContentSearchDao()
+        assertTrue(ftsDao.getUnindexedNoteIds().isEmpty())
+        assertEquals(listOf(report.id), ftsDao.searchNotesByContent(pinYinConverter.convertToMatchQuery("北京")!!))
+        assertEquals(1, ftsDao.searchNotesByContent(pinYinConverter.convertToMatchQuery("上海")!!).size)
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.annotation.TITLE_ASC
+import com.easynote.data.annotation.UPDATE_TIME_DESC
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.pagingsource.NoteCursor
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import com.easynote.data.relation.NoteWithTags
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Home list page loads deep into a large library, LIMIT / OFFSET against the keyset source.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteKeysetPagingBenchmark {
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var tagDictionary: TagDictionary
+
+    @Before
+    fun createDb() {
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java).build()
+        tagDictionary = TagDictionary(noteDatabase)
+        val db = noteDatabase.openHelper.writableDatabase
+        val random = Random(NOTE_COUNT)
+        db.beginTransaction()
+        try {
+            for (id in 1..NOTE_COUNT) {
+                val favorite = random.nextInt(50) == 0
+                db.execSQL(
+                    "INSERT INTO note(id, title, summary, create_time, update_time, favorite_time, is_favorite) " +
+                            "VALUES(?, ?, ?, ?, ?, ?, ?)",
+                    arrayOf<Any>(
+                        id,
+                        "note ${random.nextInt(1000)}",
+                        "summary $id",
+                        id.toLong(),
+                        random.nextLong(1_000_000_000L),
+                        if (favorite) random.nextLong(1_000_000L) else 0L,
+                        if (favorite) 1 else 0
+                    )
+                )
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun compareDeepPageLoads() = runBlocking {
+        for (offset in OFFSETS) {
+            val offsetSource = noteDatabase.getNoteEntityDao()
+                .getAllWithTagsPaging(null, null, null, UPDATE_TIME_DESC)
+            var start = System.nanoTime()
+            val offsetPage = offsetSource.load(
+                PagingSource.LoadParams.Refresh(offset, PAGE_SIZE, false)
+            ) as PagingSource.LoadResult.Page
+            val offsetNanos = System.nanoTime() - start
+
+            val cursor = cursorAt(offset - 1)
+            val keysetSource = NoteKeysetPagingSource(noteDatabase, null, null, null, UPDATE_TIME_DESC, tagDictionary)
+            start = System.nanoTime()
+            val keysetPage = keysetSource.load(
+                PagingSource.LoadParams.Append(cursor, PAGE_SIZE, false)
+            ) as PagingSource.LoadResult.Page
+            val keysetNanos = System.nanoTime() - start
+
+            assertEquals(offsetPage.data.map { it.noteEntity?.id }, keysetPage.data.map { it.noteEntity?.id })
+            Log.d(TAG, "offset=$offset limitOffset=${offsetNanos / 1000}us keyset=${keysetNanos / 1000}us")
+        }
+    }
+
+    @Test
+    fun keysetPagesCoverEveryNoteOnce() = runBlocking {
+        val source = NoteKeysetPagingSource(noteDatabase, null, null, null, TITLE_ASC, tagDictionary)
+        val ids = mutableListOf<Long?>()
+        var page = source.load(
+            PagingSource.LoadParams.Refresh(null, PAGE_SIZE * 10, false)
+        ) as PagingSource.LoadResult.Page
+        ids += page.data.map { it.noteEntity?.id }
+        while (page.nextKey != null) {
+            page = source.load(
+                PagingSource.LoadParams.Append(page.nextKey!!, PAGE_SIZE * 10, false)
+            ) as PagingSource.LoadResult.Page
+            ids += page.data.map { it.noteEntity?.id }
+        }
+        assertEquals(NOTE_COUNT, ids.size)
+        assertEquals(NOTE_COUNT, ids.toSet().size)
+    }
+
+    @Test
+    fun noteWriteInvalidatesSource() = runBlocking {
+        val source = NoteKeysetPagingSource(noteDatabase, null, null, null, UPDATE_TIME_DESC, tagDictionary)
+        source.load(PagingSource.LoadParams.Refresh(null, PAGE_SIZE, false))
+        noteDatabase.getNoteEntityDao().insert(NoteEntity(title = "new", updateTime = 1L))
+        repeat(50) {
+            if (source.invalid) return@runBlocking
+            delay(20)
+        }
+        assertTrue(source.invalid)
+    }
+
+    private suspend fun cursorAt(position: Int): NoteCursor {
+        val page = noteDatabase.getNoteEntityDao()
+            .getAllWithTagsPaging(null, null, null, UPDATE_TIME_DESC)
+            .load(PagingSource.LoadParams.Refresh(position, 1, false))
+                as PagingSource.LoadResult.Page<Int, NoteWithTags>
+        return NoteCursor.of(page.data.single().noteEntity!!)
+    }
+
+    companion object {
+        private const val TAG = "NoteKeysetPaging"
+        private const val NOTE_COUNT = 20_000
+        private const val PAGE_SIZE = 20
+        private val OFFSETS = listOf(20, 1_000, 10_000, 19_000)
+    }
+}
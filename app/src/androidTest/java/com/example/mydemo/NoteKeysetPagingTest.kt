@@ -0,0 +1,87 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.annotation.TITLE_ASC
+import com.easynote.data.annotation.TITLE_DESC
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.pagingsource.NoteCursor
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * A note whose title was updated to NULL is still listed when the home list is walked page
+ * by page, as the sort column triggers turn the NULL into an empty title.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteKeysetPagingTest {
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var tagDictionary: TagDictionary
+
+    @Before
+    fun createDb() = runBlocking {
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    NoteDatabase.CREATE_NOTE_SORT_COLUMN_TRIGGERS.forEach { db.execSQL(it) }
+                }
+            })
+            .build()
+        tagDictionary = TagDictionary(noteDatabase)
+        for (i in 1..NOTE_COUNT) {
+            noteDatabase.getNoteEntityDao().insert(
+                NoteEntity(title = "note $i", createTime = i.toLong(), updateTime = i.toLong())
+            )
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun nullTitleStaysInWalk() = runBlocking {
+        val dao = noteDatabase.getNoteEntityDao()
+        val note = dao.getById(NULL_TITLE_ID)!!
+        dao.update(note.copy(title = null))
+        assertEquals("", dao.getById(NULL_TITLE_ID)!!.title)
+
+        for (orderWay in listOf(TITLE_ASC, TITLE_DESC)) {
+            val source = NoteKeysetPagingSource(noteDatabase, null, null, null, orderWay, tagDictionary)
+            val ids = mutableListOf<Long>()
+            var key: NoteCursor? = null
+            do {
+                val params = if (key == null) {
+                    PagingSource.LoadParams.Refresh(null, PAGE_SIZE, false)
+                } else {
+                    PagingSource.LoadParams.Append(key, PAGE_SIZE, false)
+                }
+                val page = source.load(params) as PagingSource.LoadResult.Page
+                page.data.forEach { ids += it.noteEntity!!.id!! }
+                key = page.nextKey
+            } while (key != null)
+            assertEquals((1L..NOTE_COUNT).toSet(), ids.toSet())
+            assertEquals(NOTE_COUNT, ids.size)
+        }
+    }
+
+    companion object {
+        private const val NOTE_COUNT = 50
+        private const val PAGE_SIZE = 10
+        private const val NULL_TITLE_ID = 37L
+    }
+}
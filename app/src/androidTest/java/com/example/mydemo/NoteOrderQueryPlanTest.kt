@@ -0,0 +1,148 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.annotation.CREATE_TIME_ASC
+import com.easynote.data.annotation.CREATE_TIME_DESC
+import com.easynote.data.annotation.TITLE_ASC
+import com.easynote.data.annotation.TITLE_DESC
+import com.easynote.data.annotation.UPDATE_TIME_ASC
+import com.easynote.data.annotation.UPDATE_TIME_DESC
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.indexer.TagIndex
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Collections
+
+/**
+ * Every home list and calendar order must be read from a composite index on note, never
+ * sorted in a temp B-tree, with notes in the trash skipped by the index range, also when a
+ * tag filter is answered from the tag index.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteOrderQueryPlanTest {
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var tagDictionary: TagDictionary
+    private val executedQueries = Collections.synchronizedList(mutableListOf<Pair<String, List<Any?>>>())
+
+    @Before
+    fun createDb() = runBlocking {
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java)
+            .setQueryCallback({ sql, args -> executedQueries.add(sql to args) }, { it.run() })
+            .build()
+        tagDictionary = TagDictionary(noteDatabase)
+        for (i in 1..200) {
+            noteDatabase.getNoteEntityDao().insert(
+                NoteEntity(
+                    title = "note ${i % 17}",
+                    createTime = i.toLong(),
+                    updateTime = (i * 7919 % 200).toLong(),
+                    favoriteTime = if (i % 20 == 0) i.toLong() else 0L,
+                    isFavorite = i % 20 == 0,
+                    deletedAt = if (i % 3 == 0) i.toLong() else null
+                )
+            )
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun keysetPagesUseIndex() = runBlocking {
+        for (orderWay in ORDER_WAYS) {
+            val source = NoteKeysetPagingSource(noteDatabase, null, null, null, orderWay, tagDictionary)
+            val first = source.load(PagingSource.LoadParams.Refresh(null, 20, false))
+                    as PagingSource.LoadResult.Page
+            source.load(PagingSource.LoadParams.Append(first.nextKey!!, 20, false))
+            source.load(PagingSource.LoadParams.Prepend(first.nextKey!!, 20, false))
+        }
+        assertOrderedByIndex()
+    }
+
+    @Test
+    fun taggedKeysetPagesUseIndex() = runBlocking {
+        val db = noteDatabase.openHelper.writableDatabase
+        db.execSQL("INSERT INTO tag(id, name) VALUES(1, 'tag')")
+        for (id in 1..200 step 2) {
+            db.execSQL("INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, 1)", arrayOf<Any>(id))
+        }
+        val tagIndex = TagIndex(noteDatabase)
+        for (orderWay in ORDER_WAYS) {
+            val source = NoteKeysetPagingSource(noteDatabase, setOf(1L), null, null, orderWay, tagDictionary, tagIndex)
+            val first = source.load(PagingSource.LoadParams.Refresh(null, 20, false))
+                    as PagingSource.LoadResult.Page
+            assertTrue(first.data.all { it.noteEntity!!.id!! % 2 == 1L })
+            source.load(PagingSource.LoadParams.Append(first.nextKey!!, 20, false))
+            source.load(PagingSource.LoadParams.Prepend(first.nextKey!!, 20, false))
+        }
+        // The ids are bound as one blob, never inlined into the statement.
+        assertTrue(executedQueries.any { (sql, args) ->
+            sql.contains("WITH RECURSIVE tagged_note") && args.any { it is ByteArray }
+        })
+        assertOrderedByIndex()
+    }
+
+    @Test
+    fun offsetPagesUseIndex() = runBlocking {
+        for (orderWay in ORDER_WAYS) {
+            noteDatabase.getNoteEntityDao()
+                .getAllWithTagsPaging(null, null, null, orderWay)
+                .load(PagingSource.LoadParams.Refresh(null, 20, false))
+        }
+        assertOrderedByIndex()
+    }
+
+    @Test
+    fun calendarUsesIndex() = runBlocking {
+        for (orderWay in listOf(CREATE_TIME_DESC, CREATE_TIME_ASC)) {
+            noteDatabase.getNoteEntityDao()
+                .getAllWithTags(null, 0L, Long.MAX_VALUE, 0, orderWay)
+                .first()
+        }
+        assertOrderedByIndex()
+    }
+
+    private fun assertOrderedByIndex() {
+        val noteQueries = executedQueries.filter { (sql, _) ->
+            sql.contains("FROM note AS n") && !sql.trimStart().startsWith("SELECT COUNT(*)")
+        }
+        assertTrue(noteQueries.isNotEmpty())
+        val db = noteDatabase.openHelper.readableDatabase
+        noteQueries.forEach { (sql, args) ->
+            val plan = db.query(SimpleSQLiteQuery("EXPLAIN QUERY PLAN $sql", args.toTypedArray())).use { cursor ->
+                val detailIndex = cursor.getColumnIndexOrThrow("detail")
+                generateSequence { if (cursor.moveToNext()) cursor.getString(detailIndex) else null }.toList()
+            }
+            assertTrue("$plan\n$sql", plan.any { it.contains("USING INDEX index_note_favorite_") })
+            assertFalse("$plan\n$sql", plan.any { it.contains("USE TEMP B-TREE FOR ORDER BY") })
+        }
+    }
+
+    companion object {
+        private val ORDER_WAYS = listOf(
+            UPDATE_TIME_DESC,
+            UPDATE_TIME_ASC,
+            TITLE_ASC,
+            TITLE_DESC,
+            CREATE_TIME_DESC,
+            CREATE_TIME_ASC
+        )
+    }
+}
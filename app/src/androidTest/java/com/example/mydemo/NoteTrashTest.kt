@@ -0,0 +1,112 @@
+package com.example.mydemo
+
+import android.app.Application
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.backup.ChangeJournal
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.indexer.SearchIndexer
+import com.easynote.data.indexer.TagIndex
+import com.easynote.data.repository.impl.FileRepositoryImpl
+import com.easynote.data.trash.TrashPurger
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Notes in the trash leave every list and count, come back with a single update, and are
+ * purged once their retention ran out.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteTrashTest {
+    private val application = ApplicationProvider.getApplicationContext<Application>()
+    private lateinit var noteDatabase: NoteDatabase
+
+    @Before
+    fun createDb() {
+        noteDatabase = Room.inMemoryDatabaseBuilder(application, NoteDatabase::class.java)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    db.execSQL(NoteDatabase.CREATE_NOTE_SEARCH_CLEANUP_TRIGGER)
+                }
+            })
+            .build()
+        val db = noteDatabase.openHelper.writableDatabase
+        db.execSQL("INSERT INTO tag(id, name) VALUES(1, '工作')")
+        for (id in 1..NOTE_COUNT) {
+            db.execSQL(
+                "INSERT INTO note(id, title, create_time, update_time, favorite_time, is_favorite) " +
+                        "VALUES(?, ?, ?, ?, 0, 0)",
+                arrayOf<Any>(id, "笔记 $id", id, id)
+            )
+            db.execSQL("INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, 1)", arrayOf<Any>(id))
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun trashedNotesLeaveListsUntilRestored() = runBlocking {
+        val noteDao = noteDatabase.getNoteEntityDao()
+        val tagIndex = TagIndex(noteDatabase)
+        val trashed = (1L..10L).toSet()
+
+        noteDao.moveToTrash(trashed, 1_000)
+        tagIndex.invalidate()
+        assertEquals(NOTE_COUNT - 10, noteDao.getAllWithTags(null, null, null).first().size)
+        assertEquals(NOTE_COUNT - 10, noteDao.getCountByTagIds(setOf(1L)))
+        assertEquals(NOTE_COUNT - 10, tagIndex.countWithAnyTag(setOf(1L)))
+        val trash = noteDao.getTrashPaging().load(PagingSource.LoadParams.Refresh(null, 50, false))
+                as PagingSource.LoadResult.Page
+        assertEquals(trashed, trash.data.map { it.noteEntity!!.id!! }.toSet())
+
+        noteDao.restoreFromTrash(trashed)
+        tagIndex.invalidate()
+        assertEquals(NOTE_COUNT, noteDao.getAllWithTags(null, null, null).first().size)
+        assertEquals(NOTE_COUNT, tagIndex.countWithAnyTag(setOf(1L)))
+    }
+
+    @Test
+    fun purgeRemovesExpiredNotesOnly() = runBlocking {
+        val noteDao = noteDatabase.getNoteEntityDao()
+        val now = System.currentTimeMillis()
+        noteDao.moveToTrash((1L..5L).toSet(), now - TrashPurger.RETENTION_MS - 1)
+        noteDao.moveToTrash((6L..10L).toSet(), now)
+        val purger = TrashPurger(
+            noteDatabase,
+            FileRepositoryImpl(application),
+            SearchIndexer(noteDatabase, ToPinyin(application)),
+            TagIndex(noteDatabase),
+            ChangeJournal(noteDatabase, File(application.cacheDir, "trash_test_files")),
+            batchSize = 2,
+            batchDelayMs = 0
+        )
+
+        assertEquals(5, purger.purgeExpired(now))
+        assertEquals(NOTE_COUNT - 5, noteDao.getAll().size)
+        val refs = noteDatabase.openHelper.readableDatabase.query("SELECT COUNT(*) FROM note_tag_ref")
+            .use { it.moveToFirst(); it.getInt(0) }
+        assertEquals(NOTE_COUNT - 5, refs)
+        assertEquals(0, noteDao.getAll().count { it.id!! <= 5 })
+
+        assertEquals(5, purger.purgeAll())
+        assertEquals(NOTE_COUNT - 10, noteDao.getAll().size)
+    }
+
+    companion object {
+        private const val NOTE_COUNT = 30
+    }
+}
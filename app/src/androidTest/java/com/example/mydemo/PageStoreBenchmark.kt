@@ -0,0 +1,182 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.storage.PageContent
+import com.easynote.data.storage.PageStore
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * Page save and load throughput of [PageStore] against the file per page layout it replaces
+ * (<noteId>/<page>/content.txt, H5.html and an img directory).
+ */
+@RunWith(AndroidJUnit4::class)
+class PageStoreBenchmark {
+
+    @Test
+    fun compareLayouts() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val html = "<p>${"笔记内容 note content ".repeat(PAGE_REPEAT)}</p>"
+        val text = "笔记内容 note content ".repeat(PAGE_REPEAT)
+
+        val filesDir = File(context.cacheDir, "page_benchmark_files").apply { deleteRecursively() }
+        try {
+            val save = measure { noteId, page ->
+                File(filesDir, "$noteId/$page/content.txt").apply {
+                    parentFile?.mkdirs()
+                    writeText(text)
+                }
+                File(filesDir, "$noteId/$page/H5.html").writeText(html)
+                File(filesDir, "$noteId/$page/img").mkdirs()
+            }
+            val resave = measure { noteId, page ->
+                File(filesDir, "$noteId/$page/content.txt").writeText(text)
+                File(filesDir, "$noteId/$page/H5.html").writeText(html)
+            }
+            val load = measure { noteId, page -> File(filesDir, "$noteId/$page/H5.html").readText() }
+            Log.d(TAG, "files save=${save}us resave=${resave}us load=${load}us")
+        } finally {
+            filesDir.deleteRecursively()
+        }
+
+        val root = File(context.cacheDir, "page_benchmark_store").apply { deleteRecursively() }
+        val pageStore = PageStore(root)
+        try {
+            val save = measure { noteId, page -> pageStore.put(noteId, page, html, text) }
+            val resave = measure { noteId, page -> pageStore.put(noteId, page, html, text) }
+            val load = measure { noteId, page -> pageStore.readHtml(noteId, page) }
+            val start = System.nanoTime()
+            pageStore.compact()
+            val compact = (System.nanoTime() - start) / 1_000_000
+            Log.d(TAG, "store save=${save}us resave=${resave}us load=${load}us compact=${compact}ms")
+        } finally {
+            pageStore.close()
+            root.deleteRecursively()
+        }
+    }
+
+    /**
+     * What crash safety costs per saved note: unsynced in place writes, temp file plus rename
+     * and fsync per page file, a synced store record per page and one synced group per note.
+     */
+    @Test
+    fun compareDurableSaves() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val html = "<p>${"笔记内容 note content ".repeat(PAGE_REPEAT)}</p>"
+        val text = "笔记内容 note content ".repeat(PAGE_REPEAT)
+
+        val filesDir = File(context.cacheDir, "page_benchmark_files").apply { deleteRecursively() }
+        try {
+            val unsafe = measureNotes { noteId ->
+                for (page in 1..PAGES_PER_NOTE) {
+                    File(filesDir, "$noteId/$page/content.txt").apply {
+                        parentFile?.mkdirs()
+                        writeText(text)
+                    }
+                    File(filesDir, "$noteId/$page/H5.html").writeText(html)
+                }
+            }
+            val renamed = measureNotes { noteId ->
+                for (page in 1..PAGES_PER_NOTE) {
+                    writeAtomically(File(filesDir, "$noteId/$page/content.txt"), text)
+                    writeAtomically(File(filesDir, "$noteId/$page/H5.html"), html)
+                }
+            }
+            Log.d(TAG, "files unsafe=${unsafe}us rename+fsync=${renamed}us per note")
+        } finally {
+            filesDir.deleteRecursively()
+        }
+
+        val root = File(context.cacheDir, "page_benchmark_store").apply { deleteRecursively() }
+        val pageStore = PageStore(root)
+        try {
+            val single = measureNotes { noteId ->
+                for (page in 1..PAGES_PER_NOTE) {
+                    pageStore.put(noteId, page, html, text)
+                }
+            }
+            val grouped = measureNotes { noteId ->
+                pageStore.putAll(noteId, (1..PAGES_PER_NOTE).map { PageContent(it, text, html) })
+            }
+            Log.d(TAG, "store per page=${single}us grouped=${grouped}us per note")
+        } finally {
+            pageStore.close()
+            root.deleteRecursively()
+        }
+    }
+
+    /**
+     * Disk space and save / load time of compressed against raw records, for pages shaped
+     * like the editor's output: paragraphs of mixed Chinese and English with inline markup.
+     */
+    @Test
+    fun compareCompression() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val text = (1..PARAGRAPHS).joinToString("\n") { "第 $it 段：今天的会议记录 meeting notes, item $it 需要跟进。" }
+        val html = (1..PARAGRAPHS).joinToString("") {
+            "<p dir=\"ltr\">第 $it 段：<b>今天的会议记录</b> meeting notes, <i>item $it</i> 需要跟进。<br></p>\n"
+        }
+
+        for (compress in listOf(false, true)) {
+            val root = File(context.cacheDir, "page_benchmark_store").apply { deleteRecursively() }
+            val pageStore = PageStore(root, compress = compress)
+            try {
+                val save = measure { noteId, page -> pageStore.put(noteId, page, html, text) }
+                val load = measure { noteId, page -> pageStore.readHtml(noteId, page) }
+                val bytes = root.listFiles { file -> file.name.endsWith(".seg") }!!.sumOf { it.length() }
+                Log.d(TAG, "compress=$compress save=${save}us load=${load}us segments=${bytes / 1024}KB")
+            } finally {
+                pageStore.close()
+                root.deleteRecursively()
+            }
+        }
+    }
+
+    private fun writeAtomically(file: File, content: String) {
+        file.parentFile?.mkdirs()
+        val temp = File(file.path + ".tmp")
+        FileOutputStream(temp).use { output ->
+            output.write(content.toByteArray())
+            output.fd.sync()
+        }
+        temp.renameTo(file)
+    }
+
+    /**
+     * The mean time in microseconds of [action] over every note.
+     */
+    private inline fun measureNotes(action: (Long) -> Unit): Long {
+        val start = System.nanoTime()
+        for (noteId in 1L..DURABLE_NOTE_COUNT) {
+            action(noteId)
+        }
+        return (System.nanoTime() - start) / DURABLE_NOTE_COUNT / 1000
+    }
+
+    /**
+     * The mean time in microseconds of [action] over every page.
+     */
+    private inline fun measure(action: (Long, Int) -> Unit): Long {
+        val start = System.nanoTime()
+        for (noteId in 1L..NOTE_COUNT) {
+            for (page in 1..PAGES_PER_NOTE) {
+                action(noteId, page)
+            }
+        }
+        return (System.nanoTime() - start) / (NOTE_COUNT * PAGES_PER_NOTE) / 1000
+    }
+
+    companion object {
+        private const val TAG = "PageStoreBenchmark"
+        private const val NOTE_COUNT = 1_000
+        private const val PAGES_PER_NOTE = 5
+        private const val PAGE_REPEAT = 100
+        private const val DURABLE_NOTE_COUNT = 200
+        private const val PARAGRAPHS = 40
+    }
+}
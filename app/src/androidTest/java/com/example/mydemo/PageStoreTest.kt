@@ -0,0 +1,324 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.storage.PageContent
+import com.easynote.data.storage.PageStore
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+
+/**
+ * The page store must give back the latest page after a reopen, drop a torn last record or
+ * a group without its commit record, skip pages saved unchanged, keep its content through
+ * compaction, read compressed and uncompressed records alike, map large pages rather than
+ * inflate them, stream a page while compaction moves it, keep page ids when pages are removed or moved, keep the id of a reserved page
+ * and take over pages of the old file layout.
+ */
+@RunWith(AndroidJUnit4::class)
+class PageStoreTest {
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private lateinit var root: File
+    private lateinit var legacyDir: File
+    private lateinit var pageStore: PageStore
+
+    @Before
+    fun createStore() {
+        root = File(context.cacheDir, "page_store_test").apply { deleteRecursively() }
+        legacyDir = File(context.cacheDir, "page_store_legacy").apply { deleteRecursively() }
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE)
+    }
+
+    @After
+    fun deleteStore() {
+        pageStore.close()
+        root.deleteRecursively()
+        legacyDir.deleteRecursively()
+    }
+
+    @Test
+    fun reopenKeepsLatestPages() {
+        for (noteId in 1L..3L) {
+            for (page in 1..3) {
+                pageStore.put(noteId, page, "<p>$noteId-$page</p>", "$noteId-$page")
+            }
+        }
+        pageStore.put(1, 1, "<p>改过</p>", "改过")
+        pageStore.removePage(2, 1)
+        pageStore.removePage(1, 3)
+        pageStore.deleteNotes(listOf(3L))
+        val expected = snapshot()
+        assertEquals(listOf(1, 2), pageStore.pageIndexes(2))
+        assertEquals("<p>2-2</p>", pageStore.readHtml(2, 1))
+
+        reopen()
+        assertEquals(expected, snapshot())
+        assertNull(pageStore.readHtml(3, 1))
+    }
+
+    @Test
+    fun tornRecordIsDropped() {
+        pageStore.put(1, 1, "<p>一</p>", "一")
+        pageStore.put(1, 2, "<p>二</p>", "二")
+        pageStore.put(1, 2, "<p>二改</p>", "二改")
+        pageStore.close()
+        val segment = root.listFiles { file -> file.name.endsWith(".seg") }!!.maxBy { it.name }
+        RandomAccessFile(segment, "rw").use { it.setLength(it.length() - 3) }
+
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE)
+        assertEquals("<p>一</p>", pageStore.readHtml(1, 1))
+        assertEquals("<p>二</p>", pageStore.readHtml(1, 2))
+        pageStore.put(1, 3, "<p>三</p>", "三")
+        reopen()
+        assertEquals("三", pageStore.readText(1, 3))
+    }
+
+    @Test
+    fun unfinishedGroupIsDropped() {
+        pageStore.putAll(1, (1..3).map { PageContent(it, "旧 $it", "<p>旧 $it</p>") })
+        pageStore.putAll(1, (1..3).map { PageContent(it, "新 $it", "<p>新 $it</p>") })
+        pageStore.close()
+        val segment = root.listFiles { file -> file.name.endsWith(".seg") }!!.maxBy { it.name }
+        // Cut off the commit record only, every page record of the group is intact.
+        RandomAccessFile(segment, "rw").use { it.setLength(it.length() - 1) }
+
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE)
+        for (page in 1..3) {
+            assertEquals("旧 $page", pageStore.readText(1, page))
+        }
+        pageStore.removePage(1, 1)
+        reopen()
+        assertEquals(listOf(1, 2), pageStore.pageIndexes(1))
+        assertEquals("<p>旧 2</p>", pageStore.readHtml(1, 1))
+    }
+
+    @Test
+    fun unchangedPagesAreNotWritten() {
+        pageStore.putAll(1, (1..3).map { PageContent(it, "第 $it 页", "<p>第 $it 页</p>") })
+        val html = (1..3).associateWith { "<p>第 $it 页</p>" } + (2 to "<p>改过</p>") + (4 to "<p>新页</p>")
+        assertEquals(setOf(2, 4), pageStore.changedPages(1, html))
+
+        reopen()
+        assertEquals(setOf(2, 4), pageStore.changedPages(1, html))
+        val before = segmentBytes()
+        pageStore.putAll(1, (1..3).map { PageContent(it, "第 $it 页", "<p>第 $it 页</p>") })
+        assertEquals(before, segmentBytes())
+        pageStore.put(1, 2, "<p>改过</p>", "改过")
+        assertTrue(segmentBytes() > before)
+        assertEquals(setOf(4), pageStore.changedPages(1, html))
+    }
+
+    @Test
+    fun compactionKeepsContent() {
+        val body = "内容".repeat(200)
+        repeat(20) { round ->
+            for (noteId in 1L..10L) {
+                pageStore.put(noteId, 1, "<p>$round $body</p>", "$round $body")
+            }
+        }
+        pageStore.deleteNotes(listOf(1L, 2L))
+        val expected = snapshot()
+        val before = segmentBytes()
+
+        pageStore.compact()
+        assertTrue(segmentBytes() < before / 2)
+        assertEquals(expected, snapshot())
+        reopen()
+        assertEquals(expected, snapshot())
+        assertNull(pageStore.readHtml(1, 1))
+    }
+
+    @Test
+    fun compressedAndRawRecordsReadBack() {
+        pageStore.close()
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE, compress = false)
+        val body = "压缩内容 compressed ".repeat(100)
+        pageStore.put(1, 1, "<p>$body</p>", body)
+        pageStore.put(1, 2, "<p>短</p>", "短")
+        val raw = segmentBytes()
+
+        pageStore.close()
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE)
+        assertEquals("<p>$body</p>", pageStore.readHtml(1, 1))
+        pageStore.put(2, 1, "<p>$body</p>", body)
+        assertTrue(segmentBytes() - raw < raw / 4)
+        // Moves the raw page 2 of note 1 forward, compressing it.
+        pageStore.removePage(1, 1)
+        val expected = snapshot()
+        assertEquals("<p>短</p>|短", expected["1/1"])
+        assertEquals("<p>$body</p>", pageStore.openHtml(2, 1)!!.use { it.readBytes().decodeToString() })
+
+        pageStore.compact()
+        reopen()
+        assertEquals(expected, snapshot())
+        assertTrue(pageStore.changedPages(2, mapOf(1 to "<p>$body</p>")).isEmpty())
+    }
+
+    @Test
+    fun largePagesAreMapped() {
+        val small = "<p>${"压缩 small ".repeat(100)}</p>"
+        val large = "<p>${"映射 large ".repeat(PageStore.MAPPED_HTML_SIZE / 8)}</p>"
+        pageStore.put(1, 1, small, "")
+        pageStore.put(1, 2, large, "")
+
+        val inflated = pageStore.mapHtml(1, 1)!!
+        assertFalse(inflated is MappedByteBuffer)
+        assertEquals(small, Charsets.UTF_8.decode(inflated).toString())
+        val mapped = pageStore.mapHtml(1, 2)!!
+        assertTrue(mapped is MappedByteBuffer)
+        assertEquals(large, Charsets.UTF_8.decode(mapped).toString())
+    }
+
+    @Test
+    fun openStreamOutlivesCompaction() {
+        pageStore.close()
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE, compress = false)
+        val body = "流式读取 stream ".repeat(40)
+        val other = body.repeat(5)
+        pageStore.put(1, 1, "<p>$body</p>", body)
+        repeat(20) { round -> pageStore.put(2, 1, "<p>$round $other</p>", "$round $other") }
+        val first = root.listFiles { file -> file.name.endsWith(".seg") }!!.minOf { it.name }
+
+        pageStore.openHtml(1, 1)!!.use { input ->
+            val head = ByteArray(16)
+            assertEquals(head.size, input.read(head))
+            pageStore.compact()
+            assertFalse(File(root, first).exists())
+            // Compaction moved the page; the stream still reads it where it was.
+            assertEquals("<p>$body</p>", (head + input.readBytes()).decodeToString())
+        }
+        assertEquals("<p>$body</p>", pageStore.readHtml(1, 1))
+    }
+
+    @Test
+    fun pagesKeepTheirIds() {
+        val body = "内容".repeat(200)
+        pageStore.putAll(1, (1..50).map { PageContent(it, "$it $body", "<p>$it $body</p>") })
+        assertEquals((1..50).toList(), pageStore.pageIds(1))
+        val before = segmentBytes()
+
+        assertEquals(2, pageStore.removePage(1, 2))
+        // A tombstone and the order, not the 48 pages after the removed one.
+        assertTrue(segmentBytes() - before < 1024)
+        assertEquals("<p>3 $body</p>", pageStore.readHtml(1, 2))
+        assertEquals(3, pageStore.pageId(1, 2))
+        pageStore.movePage(1, 49, 1)
+        assertEquals("50 $body", pageStore.readText(1, 1))
+        assertEquals(51, pageStore.pageId(1, 50))
+        assertEquals(51, pageStore.put(1, 50, "<p>新页</p>", "新页"))
+        val expected = snapshot()
+        val pageIds = pageStore.pageIds(1)
+
+        reopen()
+        assertEquals(pageIds, pageStore.pageIds(1))
+        repeat(20) { pageStore.put(2, 1, "<p>$it $body</p>", "$it $body") }
+        pageStore.compact()
+        reopen()
+        assertEquals(pageIds, pageStore.pageIds(1))
+        assertEquals(expected, snapshot().filterKeys { it.startsWith("1/") })
+    }
+
+    @Test
+    fun reservedPageKeepsItsId() {
+        pageStore.put(1, 1, "<p>一</p>", "一")
+        val pageId = pageStore.reservePage(1, 3)
+        assertEquals(listOf(1, 2, 3), pageStore.pageIds(1))
+        assertEquals("", pageStore.readHtml(1, 2))
+
+        // Removing an earlier page moves the reserved one, but not its id to another page.
+        pageStore.removePage(1, 2)
+        assertEquals(pageId, pageStore.pageId(1, 2))
+        assertEquals(pageId, pageStore.put(1, 2, "<p>图</p>", "图"))
+        assertEquals(4, pageStore.put(1, 3, "<p>三</p>", "三"))
+    }
+
+    @Test
+    fun unorderedNoteWritesItsOrderOnce() {
+        File(legacyDir, "7/1/H5.html").apply {
+            parentFile?.mkdirs()
+            writeText("<p>一</p>")
+        }
+        File(legacyDir, "7/2/H5.html").apply {
+            parentFile?.mkdirs()
+            writeText("<p>二</p>")
+        }
+        pageStore.importLegacy(File(legacyDir, "7"))
+        assertEquals(listOf(1, 2), pageStore.unorderedPageIds(7))
+
+        reopen()
+        assertEquals(listOf(1, 2), pageStore.unorderedPageIds(7))
+        pageStore.writeOrder(7)
+        assertNull(pageStore.unorderedPageIds(7))
+        reopen()
+        assertNull(pageStore.unorderedPageIds(7))
+        assertEquals(listOf(1, 2), pageStore.pageIds(7))
+    }
+
+    @Test
+    fun importsPagesInOrderFileOrder() {
+        for (pageId in listOf(2, 5, 9)) {
+            File(legacyDir, "7/$pageId/H5.html").apply {
+                parentFile?.mkdirs()
+                writeText("<p>$pageId</p>")
+            }
+        }
+        File(legacyDir, "7/${PageStore.ORDER_FILE}").writeText("9,2,5")
+
+        pageStore.importLegacy(File(legacyDir, "7"))
+        assertEquals(listOf(9, 2, 5), pageStore.pageIds(7))
+        assertEquals("<p>9</p>", pageStore.readHtml(7, 1))
+        assertEquals(10, pageStore.pageId(7, 4))
+        assertFalse(File(legacyDir, "7").exists())
+    }
+
+    @Test
+    fun importsLegacyPages() {
+        File(legacyDir, "7/1/H5.html").apply {
+            parentFile?.mkdirs()
+            writeText("<p>旧页面</p>")
+        }
+        File(legacyDir, "7/1/content.txt").writeText("旧页面")
+        val image = File(legacyDir, "7/2/img/img_1.jpg").apply {
+            parentFile?.mkdirs()
+            writeBytes(byteArrayOf(1, 2, 3))
+        }
+        File(legacyDir, "7/2/H5.html").writeText("<p>第二页</p>")
+        pageStore.close()
+
+        pageStore = PageStore(root, legacyDir, SEGMENT_SIZE)
+        assertEquals("<p>旧页面</p>", pageStore.readHtml(7, 1))
+        assertEquals("旧页面", pageStore.readText(7, 1))
+        assertEquals("", pageStore.readText(7, 2))
+        assertFalse(File(legacyDir, "7/1").exists())
+        assertFalse(File(legacyDir, "7/2/H5.html").exists())
+        assertTrue(image.exists())
+    }
+
+    private fun reopen() {
+        pageStore.close()
+        pageStore = PageStore(root, segmentSize = SEGMENT_SIZE)
+    }
+
+    private fun snapshot(): Map<String, String> =
+        pageStore.noteIds().flatMap { noteId ->
+            pageStore.pageIndexes(noteId).map { page ->
+                "$noteId/$page" to "${pageStore.readHtml(noteId, page)}|${pageStore.readText(noteId, page)}"
+            }
+        }.toMap()
+
+    private fun segmentBytes(): Long =
+        root.listFiles { file -> file.name.endsWith(".seg") }!!.sumOf { it.length() }
+
+    companion object {
+        private const val SEGMENT_SIZE = 16L * 1024
+    }
+}
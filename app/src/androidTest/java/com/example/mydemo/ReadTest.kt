@@ -58,7 +58,6 @@ class ReadTest {
             pagingSourceFactory = {
                 noteEntityDao.getAllWithTagsPaging(
                     tagIds = null,
-                    query = null,
                     startTime = null,
                     endTime = null,
                     orderWay = null,
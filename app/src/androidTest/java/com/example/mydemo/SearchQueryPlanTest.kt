@@ -0,0 +1,97 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Collections
+
+/**
+ * Text search must be driven by the FTS index: no query plan may scan the note table.
+ */
+@RunWith(AndroidJUnit4::class)
+class SearchQueryPlanTest {
+    private lateinit var noteDatabase: NoteDatabase
+    private val executedQueries = Collections.synchronizedList(mutableListOf<Pair<String, List<Any?>>>())
+
+    @Before
+    fun createDb() = runBlocking {
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java)
+            .setQueryCallback({ sql, args -> executedQueries.add(sql to args) }, { it.run() })
+            .build()
+        val noteId = noteDatabase.getNoteEntityDao().insert(NoteEntity(title = "北京大学", updateTime = 1L))
+        noteDatabase.getNoteContentSearchDao().insert(noteId, null, "BEI JING DA XUE", null, null, "bjdx jdx dx x")
+        noteDatabase.getNoteContentSearchDao().insert(noteId, 1, null, null, "SHU JU KU", "sjk jk k")
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun homeSearchUsesFtsIndex() = runBlocking {
+        val source = noteDatabase.getNoteEntityDao().searchWithTagsPaging(
+            tagIds = setOf(1L),
+            query = "\"JING DA\"",
+            initialsQuery = "initials:bjdx*",
+            startTime = null,
+            endTime = null
+        )
+        val result = source.load(PagingSource.LoadParams.Refresh(null, 20, false))
+        assertTrue(result is PagingSource.LoadResult.Page)
+        assertNoNoteScan()
+    }
+
+    @Test
+    fun calendarSearchUsesFtsIndex() = runBlocking {
+        noteDatabase.getNoteEntityDao().searchAllWithTags(
+            query = "\"SHU JU\"",
+            initialsQuery = null,
+            tagIds = null,
+            startTime = 0L,
+            endTime = Long.MAX_VALUE
+        ).first()
+        assertNoNoteScan()
+    }
+
+    @Test
+    fun abstractSearchUsesFtsIndex() = runBlocking {
+        noteDatabase.getNoteEntityDao().searchNotesByAbstractFlow("\"BEI JING\"")
+            .load(PagingSource.LoadParams.Refresh(null, 20, false))
+        assertNoNoteScan()
+    }
+
+    private fun assertNoNoteScan() {
+        val searchQueries = executedQueries.filter { (sql, _) -> sql.contains("note_fts") }
+        assertTrue(searchQueries.isNotEmpty())
+        val db = noteDatabase.openHelper.readableDatabase
+        searchQueries.forEach { (sql, args) ->
+            db.query(SimpleSQLiteQuery("EXPLAIN QUERY PLAN $sql", args.toTypedArray())).use { cursor ->
+                val detailIndex = cursor.getColumnIndexOrThrow("detail")
+                while (cursor.moveToNext()) {
+                    val detail = cursor.getString(detailIndex)
+                    assertFalse("$detail\n$sql", NOTE_SCAN.containsMatchIn(detail))
+                }
+            }
+        }
+    }
+
+    companion object {
+        // Newer SQLite reports a scan under the alias, as in "SCAN n".
+        private val NOTE_SCAN = Regex("""\bSCAN (TABLE )?(note|n)\b(?!_)""")
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.mydemo
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Latency of the multi-tag AND filter, correlated COUNT subquery against GROUP BY / HAVING,
+ * as the note count and the selected tag count grow.
+ */
+@RunWith(AndroidJUnit4::class)
+class TagFilterBenchmark {
+
+    @Test
+    fun compareTagFilters() {
+        for (noteCount in listOf(1_000, 5_000, 20_000)) {
+            val db = createDatabase(noteCount)
+            for (tagCount in listOf(1, 2, 4)) {
+                val tagIds = (1..tagCount).joinToString(",")
+                val correlated = """
+                    SELECT n.id FROM note AS n
+                    WHERE (SELECT COUNT(DISTINCT r.tag_id) FROM note_tag_ref AS r
+                        WHERE r.note_id = n.id AND r.tag_id IN ($tagIds)) = $tagCount
+                """
+                val grouped = """
+                    SELECT n.id FROM note AS n
+                    WHERE n.id IN (SELECT r.note_id FROM note_tag_ref AS r
+                        WHERE r.tag_id IN ($tagIds) GROUP BY r.note_id HAVING COUNT(*) = $tagCount)
+                """
+                val (correlatedRows, correlatedNanos) = measure(db, correlated)
+                val (groupedRows, groupedNanos) = measure(db, grouped)
+                assertEquals(correlatedRows, groupedRows)
+                Log.d(
+                    TAG,
+                    "notes=$noteCount tags=$tagCount rows=$groupedRows " +
+                            "correlated=${correlatedNanos / 1000}us grouped=${groupedNanos / 1000}us"
+                )
+            }
+            db.close()
+        }
+    }
+
+    private fun createDatabase(noteCount: Int): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE note (id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT)")
+        db.execSQL("CREATE TABLE note_tag_ref (note_id INTEGER NOT NULL, tag_id INTEGER NOT NULL, PRIMARY KEY(note_id, tag_id))")
+        db.execSQL("CREATE INDEX index_note_tag_ref_note_id ON note_tag_ref (note_id)")
+        db.execSQL("CREATE INDEX index_note_tag_ref_tag_id ON note_tag_ref (tag_id)")
+        val random = Random(noteCount)
+        db.beginTransaction()
+        try {
+            for (id in 1..noteCount) {
+                db.execSQL("INSERT INTO note(id, title) VALUES(?, ?)", arrayOf(id, "note $id"))
+                for (tagId in 1..TAG_COUNT) {
+                    if (random.nextInt(3) == 0) {
+                        db.execSQL("INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, ?)", arrayOf(id, tagId))
+                    }
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return db
+    }
+
+    private fun measure(db: SQLiteDatabase, sql: String): Pair<Int, Long> {
+        var rows = 0
+        val start = System.nanoTime()
+        repeat(ROUNDS) {
+            db.rawQuery(sql, null).use { cursor ->
+                rows = cursor.count
+            }
+        }
+        return rows to (System.nanoTime() - start) / ROUNDS
+    }
+
+    companion object {
+        private const val TAG = "TagFilterBenchmark"
+        private const val TAG_COUNT = 10
+        private const val ROUNDS = 5
+    }
+}
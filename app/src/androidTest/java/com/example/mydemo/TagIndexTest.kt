@@ -0,0 +1,114 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.NoteEntity
+import com.easynote.data.entity.NoteTagCrossRef
+import com.easynote.data.entity.TagEntity
+import com.easynote.data.indexer.TagIndex
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * The bitmap tag index must agree with SQLite, follow note_tag_ref writes, and answer
+ * faster than the join it replaces.
+ */
+@RunWith(AndroidJUnit4::class)
+class TagIndexTest {
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var tagIndex: TagIndex
+
+    @Before
+    fun createDb() = runBlocking {
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java).build()
+        val db = noteDatabase.openHelper.writableDatabase
+        val random = Random(NOTE_COUNT)
+        db.beginTransaction()
+        try {
+            for (tagId in 1..TAG_COUNT) {
+                db.execSQL("INSERT INTO tag(id, name) VALUES(?, ?)", arrayOf<Any>(tagId, "tag $tagId"))
+            }
+            for (id in 1..NOTE_COUNT) {
+                db.execSQL("INSERT INTO note(id, title) VALUES(?, ?)", arrayOf<Any>(id, "note $id"))
+                for (tagId in 1..TAG_COUNT) {
+                    if (random.nextInt(3) == 0) {
+                        db.execSQL(
+                            "INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, ?)",
+                            arrayOf<Any>(id, tagId)
+                        )
+                    }
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        tagIndex = TagIndex(noteDatabase)
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun matchesSqlite() = runBlocking {
+        for (tagIds in listOf(setOf(1L), setOf(1L, 2L), setOf(2L, 5L, 7L), emptySet())) {
+            assertEquals(
+                noteDatabase.getNoteEntityDao().getCountByTagIds(tagIds),
+                tagIndex.countWithAnyTag(tagIds)
+            )
+        }
+        val allOf = setOf(3L, 4L)
+        val expected = noteDatabase.openHelper.readableDatabase.query(
+            "SELECT note_id FROM note_tag_ref WHERE tag_id IN (3, 4) GROUP BY note_id HAVING COUNT(*) = 2"
+        ).use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor.getInt(0) else null }.toList()
+        }
+        assertEquals(expected, tagIndex.notesWithAllTags(allOf)!!.toList())
+    }
+
+    @Test
+    fun followsTagWrites() = runBlocking {
+        val tagId = noteDatabase.getTagEntityDao().insert(TagEntity(name = "new"))
+        assertEquals(0, tagIndex.countWithAnyTag(setOf(tagId)))
+        val noteId = noteDatabase.getNoteEntityDao().insert(NoteEntity(title = "tagged"))
+        noteDatabase.getNoteTagCrossRefDao().insertCrossRef(listOf(NoteTagCrossRef(noteId, tagId)))
+        repeat(50) {
+            if (tagIndex.countWithAnyTag(setOf(tagId)) == 1) return@runBlocking
+            delay(20)
+        }
+        assertEquals(1, tagIndex.countWithAnyTag(setOf(tagId)))
+    }
+
+    @Test
+    fun compareCountLatency() = runBlocking {
+        val tagIds = setOf(1L, 2L, 3L)
+        tagIndex.countWithAnyTag(tagIds)
+        var start = System.nanoTime()
+        repeat(ROUNDS) { noteDatabase.getNoteEntityDao().getCountByTagIds(tagIds) }
+        val sqlNanos = (System.nanoTime() - start) / ROUNDS
+        start = System.nanoTime()
+        repeat(ROUNDS) { tagIndex.countWithAnyTag(tagIds) }
+        val indexNanos = (System.nanoTime() - start) / ROUNDS
+        Log.d(TAG, "notes=$NOTE_COUNT sql=${sqlNanos / 1000}us bitmap=${indexNanos / 1000}us")
+    }
+
+    companion object {
+        private const val TAG = "TagIndexTest"
+        private const val NOTE_COUNT = 20_000
+        private const val TAG_COUNT = 10
+        private const val ROUNDS = 20
+    }
+}
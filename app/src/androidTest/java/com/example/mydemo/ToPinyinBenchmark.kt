@@ -0,0 +1,62 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.common.utils.ToPinyin
+import com.github.promeg.pinyinhelper.Pinyin
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Steady-state cost of converting a long Chinese note after a one character edit.
+ */
+@RunWith(AndroidJUnit4::class)
+class ToPinyinBenchmark {
+
+    @Test
+    fun convertAfterSingleEdit() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val converter = ToPinyin(context)
+        val random = Random(7)
+        val chars = "北京大学上海交通笔记数据库搜索拼音索引页面内容保存编辑"
+        val paragraphs = MutableList(PARAGRAPHS) {
+            (0 until PARAGRAPH_LENGTH).map { chars[random.nextInt(chars.length)] }.joinToString("")
+        }
+
+        var text = paragraphs.joinToString("\n")
+        assertEquals(
+            Pinyin.toPinyin(text, " ").split(" ").filter { it.isNotBlank() },
+            converter.convertToPinyin(text)!!.split(" ").filter { it.isNotBlank() }
+        )
+
+        var fullNanos = 0L
+        var cachedNanos = 0L
+        repeat(EDITS) {
+            val index = random.nextInt(PARAGRAPHS)
+            paragraphs[index] = paragraphs[index] + chars[random.nextInt(chars.length)]
+            text = paragraphs.joinToString("\n")
+
+            var start = System.nanoTime()
+            Pinyin.toPinyin(text, " ")
+            fullNanos += System.nanoTime() - start
+
+            start = System.nanoTime()
+            converter.convertToPinyin(text)
+            cachedNanos += System.nanoTime() - start
+        }
+
+        Log.d(TAG, "full conversion: ${fullNanos / EDITS / 1000}us per edit")
+        Log.d(TAG, "segment cache: ${cachedNanos / EDITS / 1000}us per edit")
+    }
+
+    companion object {
+        private const val TAG = "ToPinyinBenchmark"
+        private const val PARAGRAPHS = 200
+        private const val PARAGRAPH_LENGTH = 120
+        private const val EDITS = 100
+    }
+}
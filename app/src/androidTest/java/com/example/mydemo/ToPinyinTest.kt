@@ -0,0 +1,43 @@
+package com.example.mydemo
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.common.utils.ToPinyin
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Initials rebuilt from stored pinyin, as the migrations backfill them, equal those built
+ * from the source text.
+ */
+@RunWith(AndroidJUnit4::class)
+class ToPinyinTest {
+    private val converter = ToPinyin(ApplicationProvider.getApplicationContext<Context>())
+
+    @Test
+    fun initialsFromPinyinMatchSource() {
+        listOf(
+            "北京大学",
+            "AI 功能构想",
+            "Android 14 新特性",
+            "UI/UX 设计原则",
+            "第一段：中文笔记😀 emoji\n第二段 kotlin协程",
+            "",
+            "  ，。"
+        ).forEach { text ->
+            assertEquals(
+                text,
+                converter.convertToInitials(text),
+                ToPinyin.convertPinyinToInitials(converter.convertToPinyin(text))
+            )
+        }
+    }
+
+    @Test
+    fun queryPrefixIsAtMostOneWindow() {
+        assertEquals("initials:bjdx*", converter.convertToInitialsQuery("BJDX"))
+        assertEquals("initials:abcdefgh*", converter.convertToInitialsQuery("abcdefghij"))
+    }
+}
@@ -0,0 +1,32 @@
+package com.easynote.data.annotation
+
+import androidx.annotation.StringDef
+
+/** Note, tag or search rows of the note changed. */
+const val CHANGE_NOTE = "NOTE"
+
+/** Files of one page changed. */
+const val CHANGE_PAGE = "PAGE"
+
+/** Any file of the note may have changed, e.g. pages were renumbered. */
+const val CHANGE_FILES = "FILES"
+
+/** One image file was added. */
+const val CHANGE_IMAGE = "IMAGE"
+
+/** The note and its files were deleted. */
+const val CHANGE_DELETE = "DELETE"
+
+/** Start of a backup chain, written by a full backup or a restore. */
+const val CHANGE_MARKER = "MARKER"
+
+@StringDef(
+    CHANGE_NOTE,
+    CHANGE_PAGE,
+    CHANGE_FILES,
+    CHANGE_IMAGE,
+    CHANGE_DELETE,
+    CHANGE_MARKER
+)
+@Retention(AnnotationRetention.SOURCE)
+annotation class ChangeKind
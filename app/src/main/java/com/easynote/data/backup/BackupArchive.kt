@@ -0,0 +1,248 @@
+package com.easynote.data.backup
+
+import com.easynote.data.common.constants.DataExceptionConstants
+import com.easynote.data.common.exception.DataException
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/*
+ * Single file backup container.
+ *
+ * Layout: MAGIC, FORMAT_VERSION, then entries of
+ * ENTRY, path length (unsigned short), path (UTF-8), size (long), crc32 (int), data,
+ * closed by END and the entry count (int). The checksum covers the path and the data.
+ *
+ * Entry data is moved with FileChannel.transferTo in both directions, so it never passes
+ * through the heap, and both sides only hold one fixed size buffer for checksums.
+ */
+
+private const val MAGIC = 0x454E424B // "ENBK"
+private const val FORMAT_VERSION = 1
+private const val ENTRY: Byte = 1
+private const val END: Byte = 0
+private const val BUFFER_SIZE = 64 * 1024
+
+/**
+ * Writes a backup archive. The size and checksum of an entry are patched into its header
+ * after the data is written, computed from the archived bytes, so a file that changes while
+ * it is copied still yields a consistent entry.
+ */
+internal class BackupArchiveWriter(file: File) : Closeable {
+    private val randomAccessFile = RandomAccessFile(file, "rw")
+    private val channel: FileChannel = randomAccessFile.channel
+    private val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+    private var entries = 0
+
+    init {
+        randomAccessFile.setLength(0)
+        writeFully(ByteBuffer.allocate(8).putInt(MAGIC).putInt(FORMAT_VERSION))
+    }
+
+    /**
+     * Append the content of [source] under [path].
+     */
+    fun add(path: String, source: File) = addEntry(path) {
+        FileInputStream(source).channel.use { input ->
+            val expected = input.size()
+            var copied = 0L
+            while (copied < expected) {
+                val count = input.transferTo(copied, expected - copied, channel)
+                if (count <= 0) break
+                copied += count
+            }
+            copied
+        }
+    }
+
+    /**
+     * Append [data] under [path].
+     */
+    fun add(path: String, data: ByteArray) = addEntry(path) {
+        writeFully(ByteBuffer.wrap(data).apply { position(data.size) })
+        data.size.toLong()
+    }
+
+    /**
+     * Write the entry header, the data through [writeData], which returns its size, and patch
+     * the size and checksum in.
+     */
+    private inline fun addEntry(path: String, writeData: () -> Long) {
+        val pathBytes = path.toByteArray(Charsets.UTF_8)
+        val header = ByteBuffer.allocate(1 + 2 + pathBytes.size + 8 + 4)
+            .put(ENTRY)
+            .putShort(pathBytes.size.toShort())
+            .put(pathBytes)
+        val sizePosition = channel.position() + header.position()
+        writeFully(header.putLong(0).putInt(0))
+
+        val dataPosition = channel.position()
+        val size = writeData()
+        val crc = channel.crc32(pathBytes, dataPosition, size, buffer)
+        val patch = ByteBuffer.allocate(12).putLong(size).putInt(crc)
+        patch.flip()
+        var position = sizePosition
+        while (patch.hasRemaining()) {
+            position += channel.write(patch, position)
+        }
+        entries++
+    }
+
+    /**
+     * Close the entry list and sync the archive to disk.
+     */
+    fun finish() {
+        writeFully(ByteBuffer.allocate(5).put(END).putInt(entries))
+        channel.force(true)
+    }
+
+    override fun close() {
+        randomAccessFile.close()
+    }
+
+    private fun writeFully(data: ByteBuffer) {
+        data.flip()
+        while (data.hasRemaining()) {
+            channel.write(data)
+        }
+    }
+}
+
+/**
+ * Reads a backup archive written by [BackupArchiveWriter]. Every entry is checked against its
+ * checksum before it is extracted; a bad checksum, an unknown format or a truncated archive
+ * throws [DataException] with [DataExceptionConstants.BACKUP_CORRUPTED].
+ */
+internal class BackupArchiveReader(file: File) : Closeable {
+    private val randomAccessFile = RandomAccessFile(file, "r")
+    private val channel: FileChannel = randomAccessFile.channel
+    private val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+
+    /**
+     * Read the entry at [path] into memory, or null when the archive has none. Only the
+     * headers of the entries before it are read.
+     */
+    fun readEntry(path: String): ByteArray? {
+        channel.position(0)
+        readHeader()
+        val expected = path.toByteArray(Charsets.UTF_8)
+        while (read(1).get() == ENTRY) {
+            val pathBytes = ByteArray(read(2).short.toInt() and 0xFFFF)
+            read(pathBytes.size).get(pathBytes)
+            val sizeAndCrc = read(12)
+            val size = sizeAndCrc.long
+            val crc = sizeAndCrc.int
+            if (!pathBytes.contentEquals(expected)) {
+                channel.position(channel.position() + size)
+                continue
+            }
+            if (size < 0 || size > Int.MAX_VALUE) {
+                throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+            }
+            val data = ByteArray(size.toInt())
+            read(data.size).get(data)
+            val checksum = CRC32()
+            checksum.update(pathBytes)
+            checksum.update(data)
+            if (checksum.value.toInt() != crc) {
+                throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+            }
+            return data
+        }
+        return null
+    }
+
+    /**
+     * Extract every entry to the file [target] returns for its path, or skip it on null.
+     *
+     * @return The number of entries in the archive.
+     */
+    fun extractAll(target: (path: String) -> File?): Int {
+        channel.position(0)
+        readHeader()
+        var entries = 0
+        while (true) {
+            when (read(1).get()) {
+                END -> {
+                    if (read(4).int != entries || channel.position() != channel.size()) {
+                        throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+                    }
+                    return entries
+                }
+
+                ENTRY -> {
+                    val pathBytes = ByteArray(read(2).short.toInt() and 0xFFFF)
+                    read(pathBytes.size).get(pathBytes)
+                    val sizeAndCrc = read(12)
+                    val size = sizeAndCrc.long
+                    val crc = sizeAndCrc.int
+                    val dataPosition = channel.position()
+                    if (size < 0 || dataPosition + size > channel.size() ||
+                        channel.crc32(pathBytes, dataPosition, size, buffer) != crc
+                    ) {
+                        throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+                    }
+                    target(String(pathBytes, Charsets.UTF_8))?.let { file ->
+                        file.parentFile?.mkdirs()
+                        FileOutputStream(file).channel.use { output ->
+                            var copied = 0L
+                            while (copied < size) {
+                                val count = channel.transferTo(dataPosition + copied, size - copied, output)
+                                if (count <= 0) break
+                                copied += count
+                            }
+                        }
+                    }
+                    channel.position(dataPosition + size)
+                    entries++
+                }
+
+                else -> throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+            }
+        }
+    }
+
+    override fun close() {
+        randomAccessFile.close()
+    }
+
+    private fun readHeader() {
+        val header = read(8)
+        if (header.int != MAGIC || header.int != FORMAT_VERSION) {
+            throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+        }
+    }
+
+    private fun read(length: Int): ByteBuffer {
+        val data = ByteBuffer.allocate(length)
+        while (data.hasRemaining()) {
+            if (channel.read(data) < 0) {
+                throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+            }
+        }
+        data.flip()
+        return data
+    }
+}
+
+private fun FileChannel.crc32(path: ByteArray, position: Long, size: Long, buffer: ByteBuffer): Int {
+    val crc = CRC32()
+    crc.update(path)
+    var offset = 0L
+    while (offset < size) {
+        buffer.clear()
+        if (size - offset < buffer.capacity()) {
+            buffer.limit((size - offset).toInt())
+        }
+        val count = read(buffer, position + offset)
+        if (count <= 0) break
+        crc.update(buffer.array(), 0, count)
+        offset += count
+    }
+    return crc.value.toInt()
+}
@@ -0,0 +1,76 @@
+package com.easynote.data.backup
+
+import com.easynote.data.common.constants.DataExceptionConstants
+import com.easynote.data.common.exception.DataException
+
+/**
+ * First entry of a backup archive, as "key=value" lines.
+ *
+ * A full backup restores the whole library. An incremental one holds the rows of [notes],
+ * the ids of [deleted] notes and the files below [scopes] (paths relative to filesDir that
+ * replace the live path, or remove it when absent from the archive), changed after the
+ * backup with watermark [base].
+ */
+internal data class BackupManifest(
+    val incremental: Boolean,
+    val version: Int,
+    val base: Long,
+    val watermark: Long,
+    val notes: Set<Long> = emptySet(),
+    val deleted: Set<Long> = emptySet(),
+    val scopes: Set<String> = emptySet()
+) {
+    fun toBytes(): ByteArray {
+        val text = StringBuilder()
+        fun line(key: String, value: Any) {
+            text.append(key).append('=').append(value).append('\n')
+        }
+        line(TYPE, if (incremental) INCREMENTAL else FULL)
+        line(VERSION, version)
+        line(BASE, base)
+        line(WATERMARK, watermark)
+        notes.forEach { line(NOTE, it) }
+        deleted.forEach { line(DELETED, it) }
+        scopes.forEach { line(SCOPE, it) }
+        return text.toString().toByteArray(Charsets.UTF_8)
+    }
+
+    companion object {
+        const val ENTRY = "manifest"
+
+        private const val TYPE = "type"
+        private const val VERSION = "version"
+        private const val BASE = "base"
+        private const val WATERMARK = "watermark"
+        private const val NOTE = "note"
+        private const val DELETED = "deleted"
+        private const val SCOPE = "scope"
+        private const val FULL = "full"
+        private const val INCREMENTAL = "incremental"
+
+        fun parse(bytes: ByteArray): BackupManifest {
+            try {
+                val values = String(bytes, Charsets.UTF_8).lines()
+                    .filter { it.isNotEmpty() }
+                    .map { it.substringBefore('=') to it.substringAfter('=') }
+                fun single(key: String) = values.first { it.first == key }.second
+                fun all(key: String) = values.filter { it.first == key }.map { it.second }
+                return BackupManifest(
+                    incremental = when (single(TYPE)) {
+                        FULL -> false
+                        INCREMENTAL -> true
+                        else -> throw IllegalArgumentException()
+                    },
+                    version = single(VERSION).toInt(),
+                    base = single(BASE).toLong(),
+                    watermark = single(WATERMARK).toLong(),
+                    notes = all(NOTE).map { it.toLong() }.toSet(),
+                    deleted = all(DELETED).map { it.toLong() }.toSet(),
+                    scopes = all(SCOPE).toSet()
+                )
+            } catch (e: Exception) {
+                throw DataException(e, DataExceptionConstants.BACKUP_CORRUPTED)
+            }
+        }
+    }
+}
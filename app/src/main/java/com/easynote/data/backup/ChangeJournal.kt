@@ -0,0 +1,106 @@
+package com.easynote.data.backup
+
+import android.app.Application
+import android.util.Log
+import com.easynote.data.annotation.CHANGE_DELETE
+import com.easynote.data.annotation.CHANGE_FILES
+import com.easynote.data.annotation.CHANGE_IMAGE
+import com.easynote.data.annotation.CHANGE_NOTE
+import com.easynote.data.annotation.CHANGE_PAGE
+import com.easynote.data.annotation.ChangeKind
+import com.easynote.data.dao.ChangeJournalDao
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.ChangeJournalEntity
+import java.io.File
+
+/**
+ * Records which notes, pages and images changed, for incremental backups.
+ *
+ * Changes are recorded after they are applied: a change that lands while a backup runs is
+ * then at worst copied twice, never missed. A failed record is only logged, the user's edit
+ * must not fail because of the journal.
+ */
+class ChangeJournal internal constructor(
+    noteDatabase: NoteDatabase,
+    private val filesDir: File
+) {
+    private val changeJournalDao: ChangeJournalDao = noteDatabase.getChangeJournalDao()
+
+    /**
+     * Note, tag or search rows of [noteIds] changed.
+     */
+    suspend fun noteChanged(noteIds: Collection<Long>) =
+        record(noteIds.map { entry(it, CHANGE_NOTE) })
+
+    /**
+     * The files of a page changed.
+     */
+    suspend fun pageChanged(noteId: Long, pageId: Int) =
+        record(listOf(entry(noteId, CHANGE_PAGE, pageId)))
+
+    /**
+     * The files of several pages of a note changed.
+     */
+    suspend fun pagesChanged(noteId: Long, pageIds: Collection<Int>) =
+        record(pageIds.map { entry(noteId, CHANGE_PAGE, it) })
+
+    /**
+     * Any file of the note may have changed.
+     */
+    suspend fun filesChanged(noteId: Long) =
+        record(listOf(entry(noteId, CHANGE_FILES)))
+
+    /**
+     * An image was saved at [path], absolute or relative to filesDir.
+     */
+    suspend fun imageSaved(noteId: Long, pageId: Int, path: String) {
+        val file = File(path)
+        val relativePath = if (file.isAbsolute) file.relativeTo(filesDir).invariantSeparatorsPath else path
+        record(listOf(entry(noteId, CHANGE_IMAGE, pageId, relativePath)))
+    }
+
+    /**
+     * The notes and their files were deleted.
+     */
+    suspend fun notesDeleted(noteIds: Collection<Long>) =
+        record(noteIds.map { entry(it, CHANGE_DELETE) })
+
+    private fun entry(
+        noteId: Long,
+        @ChangeKind kind: String,
+        pageId: Int? = null,
+        path: String? = null
+    ) = ChangeJournalEntity(
+        noteId = noteId,
+        pageId = pageId,
+        path = path,
+        kind = kind,
+        changeTime = System.currentTimeMillis()
+    )
+
+    private suspend fun record(entries: List<ChangeJournalEntity>) {
+        if (entries.isEmpty()) {
+            return
+        }
+        try {
+            changeJournalDao.insert(entries)
+        } catch (e: Exception) {
+            Log.e(TAG, "记录变更失败", e)
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChangeJournal"
+
+        @Volatile
+        private var instance: ChangeJournal? = null
+
+        fun getInstance(application: Application): ChangeJournal =
+            instance ?: synchronized(this) {
+                instance ?: ChangeJournal(
+                    NoteDatabase.getInstance(application),
+                    application.filesDir
+                ).also { instance = it }
+            }
+    }
+}
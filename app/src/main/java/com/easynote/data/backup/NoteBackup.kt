@@ -0,0 +1,597 @@
+package com.easynote.data.backup
+
+import android.app.Application
+import android.database.Cursor
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.room.withTransaction
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.easynote.data.annotation.CHANGE_DELETE
+import com.easynote.data.annotation.CHANGE_FILES
+import com.easynote.data.annotation.CHANGE_IMAGE
+import com.easynote.data.annotation.CHANGE_MARKER
+import com.easynote.data.annotation.CHANGE_PAGE
+import com.easynote.data.common.constants.DataExceptionConstants
+import com.easynote.data.common.exception.DataException
+import com.easynote.data.dao.ChangeJournalDao
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.ChangeJournalEntity
+import com.easynote.data.indexer.SearchIndexer
+import com.easynote.data.storage.ImageStore
+import com.easynote.data.storage.PageStore
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+
+/**
+ * Library backup and restore through single archives, see [BackupArchiveWriter].
+ *
+ * A full backup holds a snapshot of the database, every page of the [PageStore], every image
+ * of the [ImageStore] and every file of the note directories (filesDir/<noteId>/<pageId>/...),
+ * and starts a chain in the [ChangeJournal]. An incremental
+ * backup holds only what the journal recorded after the previous backup of the chain: the
+ * rows of the changed notes in a small database, the deleted note ids and the changed files.
+ *
+ * Restore takes a chain, a full backup followed by its incremental backups in order. Every
+ * archive is extracted and checked into a staging directory first, so a damaged or broken
+ * chain leaves the library untouched. Rows are then copied into the open database, which
+ * keeps Room, its observers and the in-memory indexes valid, and the files are swapped in.
+ *
+ * Pages are archived as the H5.html and content.txt files of the note directories they were
+ * before the page store, under their page ids, with the page order of each archived note
+ * in [PageStore.ORDER_FILE]. Archives of the old layout have no order file and page
+ * indexes for ids, so they restore alike.
+ *
+ * Image refs are restored with their notes, and the ref count triggers count them again;
+ * images no restored note uses are swept at the end.
+ */
+class NoteBackup internal constructor(
+    private val noteDatabase: NoteDatabase,
+    private val searchIndexer: SearchIndexer,
+    private val pageStore: PageStore,
+    private val imageStore: ImageStore,
+    private val filesDir: File
+) {
+    private val changeJournalDao: ChangeJournalDao = noteDatabase.getChangeJournalDao()
+
+    /**
+     * Write a full backup of the library to [target], replacing it only once the archive is
+     * complete.
+     */
+    suspend fun backup(target: File) = withContext(Dispatchers.IO) {
+        writeArchive(target) { archive ->
+            searchIndexer.flush()
+            // Changes are journaled after they are applied, so everything journaled before
+            // the marker is in the snapshot below.
+            val watermark = changeJournalDao.insert(marker())
+            archive.add(
+                BackupManifest.ENTRY,
+                BackupManifest(false, databaseVersion(), 0, watermark).toBytes()
+            )
+            addDatabase(archive)
+            // Pages are read after the snapshot: a page saved in between is backed up newer
+            // than its search row, which the next save of the page corrects.
+            pageStore.noteIds().forEach { noteId -> addPages(archive, noteId) }
+            noteDirs(filesDir).forEach { dir -> addFiles(archive, dir) }
+            addFiles(archive, File(filesDir, ImageStore.IMAGE_DIR))
+            watermark
+        }.also { watermark ->
+            // Older chains can not be extended any more.
+            changeJournalDao.deleteBefore(watermark)
+        }
+    }
+
+    /**
+     * Write the changes made since [previous], the last backup of the current chain, to
+     * [target].
+     */
+    suspend fun backupIncremental(previous: File, target: File) = withContext(Dispatchers.IO) {
+        val base = BackupArchiveReader(previous).use { reader ->
+            reader.readEntry(BackupManifest.ENTRY)
+        }?.let { BackupManifest.parse(it).watermark }
+        val floor = changeJournalDao.getFloor()
+        if (base == null || floor == 0L || base < floor) {
+            throw DataException(DataExceptionConstants.BACKUP_CHAIN_BROKEN)
+        }
+        writeArchive(target) { archive ->
+            searchIndexer.flush()
+            val changes = File(filesDir, WORK_DIR).apply { mkdirs() }.let { File(it, CHANGES_NAME) }
+            try {
+                val manifest = writeChanges(base, changes)
+                archive.add(BackupManifest.ENTRY, manifest.toBytes())
+                archive.add(CHANGES_ENTRY, changes)
+                manifest.scopes.forEach { scope ->
+                    val parts = scope.split('/')
+                    when (parts.size) {
+                        1 -> addPages(archive, parts[0].toLong())
+                        2 -> addPages(archive, parts[0].toLong(), parts[1].toInt())
+                    }
+                    addFiles(archive, File(filesDir, scope))
+                }
+                manifest.watermark
+            } finally {
+                SQLiteDatabase.deleteDatabase(changes)
+            }
+        }
+    }
+
+    /**
+     * Replace the library with the content of a backup chain: a full backup followed by the
+     * incremental backups made after it, oldest first. Afterwards a new full backup is
+     * needed to start the next chain.
+     */
+    suspend fun restore(vararg chain: File) = withContext(Dispatchers.IO) {
+        val staging = File(filesDir, STAGING_DIR)
+        staging.deleteRecursively()
+        try {
+            val staged = chain.mapIndexed { i, archive ->
+                val dir = File(staging, i.toString())
+                BackupArchiveReader(archive).use { reader ->
+                    reader.extractAll { path -> stagedFile(dir, path) }
+                }
+                dir to readManifest(dir)
+            }
+            checkChain(staged.map { it.second })
+
+            // Queued index work belongs to the library that is about to be replaced.
+            searchIndexer.flush()
+            staged.forEach { (dir, manifest) ->
+                if (manifest.incremental) {
+                    applyIncremental(dir, manifest)
+                } else {
+                    restoreDatabase(File(dir, DATABASE_ENTRY))
+                    replaceFiles(File(dir, FILES_PREFIX))
+                    pageStore.clear()
+                    noteDirs(filesDir).forEach { pageStore.importLegacy(it) }
+                }
+            }
+            changeJournalDao.deleteAll()
+            changeJournalDao.insert(marker())
+            imageStore.sweep()
+        } catch (e: Exception) {
+            throw e as? DataException ?: DataException(e, DataExceptionConstants.RESTORE_FAILED)
+        } finally {
+            staging.deleteRecursively()
+        }
+    }
+
+    /**
+     * Write an archive to a temp file through [write] and move it to [target] once complete.
+     */
+    private inline fun <T> writeArchive(target: File, write: (BackupArchiveWriter) -> T): T {
+        val temp = File(target.path + TEMP_SUFFIX)
+        try {
+            val result = BackupArchiveWriter(temp).use { archive ->
+                write(archive).also { archive.finish() }
+            }
+            if (!temp.renameTo(target)) {
+                throw IOException("无法写入备份文件: ${target.path}")
+            }
+            return result
+        } catch (e: Exception) {
+            temp.delete()
+            throw e as? DataException ?: DataException(e, DataExceptionConstants.BACKUP_FAILED)
+        }
+    }
+
+    /**
+     * Add the pages of a note from [PageStore] under their page ids, with the page order, or
+     * only the page [pageId].
+     */
+    private fun addPages(archive: BackupArchiveWriter, noteId: Long, pageId: Int? = null) {
+        val pageIds = pageStore.pageIds(noteId)
+        if (pageId == null) {
+            archive.add("$FILES_PREFIX$noteId/${PageStore.ORDER_FILE}", pageIds.joinToString(",").toByteArray())
+        }
+        for (id in pageId?.let { listOf(it) } ?: pageIds) {
+            val pageIndex = pageIds.indexOf(id) + 1
+            if (pageIndex == 0) continue
+            val html = pageStore.readHtml(noteId, pageIndex) ?: continue
+            val text = pageStore.readText(noteId, pageIndex) ?: continue
+            archive.add("$FILES_PREFIX$noteId/$id/$PAGE_HTML", html.toByteArray())
+            archive.add("$FILES_PREFIX$noteId/$id/$PAGE_TEXT", text.toByteArray())
+        }
+    }
+
+    private fun addFiles(archive: BackupArchiveWriter, root: File) {
+        root.walkTopDown().filter { it.isFile }.forEach { file ->
+            archive.add(FILES_PREFIX + file.relativeTo(filesDir).invariantSeparatorsPath, file)
+        }
+    }
+
+    /**
+     * Add the main database file and its WAL. No commit, and so no checkpoint, can run while
+     * the write transaction is open, which makes the two copies one consistent snapshot.
+     */
+    private fun addDatabase(archive: BackupArchiveWriter) {
+        val db = noteDatabase.openHelper.writableDatabase
+        val path = db.path ?: throw IOException("内存数据库无法备份")
+        // Move the WAL into the main file first, so usually only one file is copied.
+        db.query("PRAGMA wal_checkpoint(TRUNCATE)").use { it.moveToFirst() }
+        db.beginTransaction()
+        try {
+            archive.add(DATABASE_ENTRY, File(path))
+            val wal = File(path + WAL_SUFFIX)
+            if (wal.length() > 0) {
+                archive.add(DATABASE_ENTRY + WAL_SUFFIX, wal)
+            }
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Copy the rows of the notes journaled after [base] and the whole tag table into a new
+     * database at [changes], inside one write transaction so the journal and the rows agree.
+     *
+     * @return The manifest of the incremental backup.
+     */
+    private fun writeChanges(base: Long, changes: File): BackupManifest {
+        val db = noteDatabase.openHelper.writableDatabase
+        SQLiteDatabase.deleteDatabase(changes)
+        SQLiteDatabase.openOrCreateDatabase(changes, null).use { target ->
+            db.beginTransaction()
+            try {
+                val watermark = db.query("SELECT ifnull(MAX(id), 0) FROM change_journal").use {
+                    it.moveToFirst()
+                    it.getLong(0)
+                }
+                val manifest = collectChanges(db, base, watermark)
+                target.version = db.version
+                target.beginTransaction()
+                try {
+                    RESTORED_TABLES.forEach { table ->
+                        val schema = db.query(
+                            "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                            arrayOf(table)
+                        ).use { it.moveToFirst(); it.getString(0) }
+                        target.execSQL(schema)
+                    }
+                    val ids = manifest.notes.joinToString(",")
+                    copyRows(db.query("SELECT * FROM tag"), target, "tag")
+                    copyRows(db.query("SELECT * FROM note WHERE id IN ($ids)"), target, "note")
+                    copyRows(
+                        db.query("SELECT * FROM note_tag_ref WHERE note_id IN ($ids)"),
+                        target,
+                        "note_tag_ref"
+                    )
+                    copyRows(
+                        db.query("SELECT * FROM note_search WHERE note_id IN ($ids)"),
+                        target,
+                        "note_search"
+                    )
+                    copyRows(
+                        db.query("SELECT * FROM image_ref WHERE note_id IN ($ids)"),
+                        target,
+                        "image_ref"
+                    )
+                    target.setTransactionSuccessful()
+                } finally {
+                    target.endTransaction()
+                }
+                return manifest
+            } finally {
+                db.endTransaction()
+            }
+        }
+    }
+
+    /**
+     * Reduce the journal entries after [base] to the notes to copy, the deleted notes and the
+     * smallest set of file scopes covering every change.
+     */
+    private fun collectChanges(db: SupportSQLiteDatabase, base: Long, watermark: Long): BackupManifest {
+        val deleted = HashSet<Long>()
+        val changed = HashSet<Long>()
+        val wholeNotes = HashSet<Long>()
+        val pages = HashSet<Pair<Long, Int>>()
+        val images = ArrayList<Triple<Long, Int, String>>()
+        db.query(
+            "SELECT note_id, page_id, path, kind FROM change_journal " +
+                    "WHERE id > ? AND id <= ? AND note_id IS NOT NULL",
+            arrayOf<Any>(base, watermark)
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val noteId = cursor.getLong(0)
+                val pageId = if (cursor.isNull(1)) null else cursor.getInt(1)
+                when (cursor.getString(3)) {
+                    CHANGE_DELETE -> deleted.add(noteId)
+                    CHANGE_FILES -> wholeNotes.add(noteId)
+                    CHANGE_PAGE -> pageId?.let { pages.add(noteId to it) }
+                    CHANGE_IMAGE -> if (pageId != null && !cursor.isNull(2)) {
+                        images.add(Triple(noteId, pageId, cursor.getString(2)))
+                    }
+                }
+                changed.add(noteId)
+            }
+        }
+        changed.removeAll(deleted)
+        val scopes = LinkedHashSet<String>()
+        wholeNotes.filter { it in changed }.forEach { scopes.add("$it") }
+        pages.filter { (noteId, _) -> noteId in changed && noteId !in wholeNotes }
+            .forEach { (noteId, pageId) -> scopes.add("$noteId/$pageId") }
+        // Images of the image store are outside every note scope; only those saved into the
+        // page directories before it can be covered by one.
+        images.filter { (noteId, _, path) ->
+            noteId in changed && scopes.none { path.startsWith("$it/") }
+        }.forEach { (_, _, path) -> scopes.add(path) }
+        return BackupManifest(true, db.version, base, watermark, changed, deleted, scopes)
+    }
+
+    private suspend fun restoreDatabase(stagedDatabase: File) {
+        openStaged(stagedDatabase).use { source ->
+            val db = noteDatabase.openHelper.writableDatabase
+            noteDatabase.withTransaction {
+                RESTORED_TABLES.asReversed().forEach { table -> db.execSQL("DELETE FROM `$table`") }
+                RESTORED_TABLES.forEach { table ->
+                    copyRows(source.rawQuery("SELECT * FROM `$table`", null), db, table)
+                }
+                db.execSQL("INSERT INTO note_fts(note_fts) VALUES('rebuild')")
+            }
+        }
+    }
+
+    private suspend fun applyIncremental(dir: File, manifest: BackupManifest) {
+        openStaged(File(dir, CHANGES_ENTRY)).use { source ->
+            val db = noteDatabase.openHelper.writableDatabase
+            val ids = (manifest.notes + manifest.deleted).joinToString(",")
+            val tagIds = source.rawQuery("SELECT id FROM tag", null).use { cursor ->
+                generateSequence { if (cursor.moveToNext()) cursor.getLong(0) else null }.joinToString(",")
+            }
+            noteDatabase.withTransaction {
+                // Tag and image refs and search rows go with their notes through the foreign
+                // keys and note_search_cleanup, and note_fts follows note_search through its
+                // triggers.
+                db.execSQL("DELETE FROM note WHERE id IN ($ids)")
+                // Tags are updated in place: replacing a row would cascade to the refs of
+                // notes this backup does not carry.
+                db.execSQL("DELETE FROM tag WHERE id NOT IN ($tagIds)")
+                upsertRows(source.rawQuery("SELECT * FROM tag", null), db, "tag")
+                RESTORED_TABLES.filter { it != "tag" }.forEach { table ->
+                    copyRows(source.rawQuery("SELECT * FROM `$table`", null), db, table)
+                }
+            }
+        }
+        swapIn(
+            manifest.deleted.map { null to File(filesDir, it.toString()) } +
+                    manifest.scopes.map { scope -> File(dir, FILES_PREFIX + scope) to stagedFile(filesDir, scope) }
+        )
+        pageStore.deleteNotes(manifest.deleted)
+        manifest.scopes.forEach { scope ->
+            val parts = scope.split('/')
+            // A page scope is saved over its page, which keeps its place, by the import below.
+            if (parts.size == 1) {
+                pageStore.deleteNotes(listOf(parts[0].toLong()))
+            }
+            if (parts.size <= 2) {
+                pageStore.importLegacy(File(filesDir, parts[0]))
+            }
+        }
+    }
+
+    /**
+     * Open a staged database, which must have the schema version of the live one.
+     */
+    private fun openStaged(file: File): SQLiteDatabase {
+        if (!file.exists()) {
+            throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+        }
+        val source = SQLiteDatabase.openDatabase(file.path, null, SQLiteDatabase.OPEN_READWRITE)
+        if (source.version != databaseVersion()) {
+            source.close()
+            throw DataException(DataExceptionConstants.BACKUP_VERSION_MISMATCH)
+        }
+        return source
+    }
+
+    private fun readManifest(dir: File): BackupManifest {
+        val file = File(dir, BackupManifest.ENTRY)
+        // Archives from before incremental backups have no manifest and are full backups.
+        return if (file.exists()) {
+            BackupManifest.parse(file.readBytes())
+        } else {
+            BackupManifest(false, databaseVersion(), 0, 0)
+        }
+    }
+
+    private fun checkChain(manifests: List<BackupManifest>) {
+        val broken = manifests.isEmpty() || manifests.first().incremental ||
+                manifests.zipWithNext().any { (previous, next) ->
+                    !next.incremental || next.base != previous.watermark
+                }
+        if (broken) {
+            throw DataException(DataExceptionConstants.BACKUP_CHAIN_BROKEN)
+        }
+    }
+
+    /**
+     * Replace the note directories and the image store with those of a full backup.
+     */
+    private fun replaceFiles(stagedFiles: File) {
+        val names = (noteDirs(filesDir) + noteDirs(stagedFiles)).map { it.name }.toSortedSet()
+        swapIn(
+            names.map { name -> File(stagedFiles, name) to File(filesDir, name) } +
+                    (File(stagedFiles, ImageStore.IMAGE_DIR) to File(filesDir, ImageStore.IMAGE_DIR))
+        )
+    }
+
+    /**
+     * Replace every live file or directory of [replacements] with its staged one, or remove
+     * it when there is none. The live ones are moved aside first and deleted only once every
+     * staged one is in place; if any move fails, the moves made so far are undone, so the
+     * library keeps its files.
+     */
+    private fun swapIn(replacements: List<Pair<File?, File>>) {
+        val aside = File(filesDir, ASIDE_DIR)
+        aside.deleteRecursively()
+        aside.mkdirs()
+        val movedAside = ArrayList<Pair<File, File>>()
+        val placed = ArrayList<Pair<File, File>>()
+        try {
+            replacements.forEachIndexed { i, (_, live) ->
+                if (live.exists()) {
+                    val old = File(aside, i.toString())
+                    if (!live.renameTo(old)) {
+                        throw IOException("无法移走笔记文件: ${live.path}")
+                    }
+                    movedAside.add(live to old)
+                }
+            }
+            replacements.forEach { (staged, live) ->
+                if (staged != null && staged.exists()) {
+                    live.parentFile?.mkdirs()
+                    if (!staged.renameTo(live)) {
+                        throw IOException("无法恢复笔记文件: ${live.path}")
+                    }
+                    placed.add(staged to live)
+                }
+            }
+        } catch (e: IOException) {
+            placed.asReversed().forEach { (staged, live) -> live.renameTo(staged) }
+            movedAside.asReversed().forEach { (live, old) ->
+                if (!old.renameTo(live)) {
+                    Log.e(TAG, "无法还原笔记文件: ${live.path}，原文件保留在 ${old.path}")
+                }
+            }
+            throw e
+        }
+        aside.deleteRecursively()
+    }
+
+    /**
+     * The location of an archive path below [root], refusing paths that leave it.
+     */
+    private fun stagedFile(root: File, path: String): File {
+        val file = File(root, path)
+        if (!file.canonicalPath.startsWith(root.canonicalPath + File.separator)) {
+            throw DataException(DataExceptionConstants.BACKUP_CORRUPTED)
+        }
+        return file
+    }
+
+    private fun databaseVersion(): Int = noteDatabase.openHelper.writableDatabase.version
+
+    private fun marker() = ChangeJournalEntity(kind = CHANGE_MARKER, changeTime = System.currentTimeMillis())
+
+    companion object {
+        internal const val DATABASE_ENTRY = "database/notes.db"
+        internal const val CHANGES_ENTRY = "database/changes.db"
+        internal const val FILES_PREFIX = "files/"
+        private const val CHANGES_NAME = "changes.db"
+        private const val WAL_SUFFIX = "-wal"
+        private const val TEMP_SUFFIX = ".tmp"
+        private const val TAG = "NoteBackup"
+        private const val STAGING_DIR = ".restore"
+        private const val ASIDE_DIR = ".restore-old"
+        private const val WORK_DIR = ".backup"
+        private const val PAGE_HTML = "H5.html"
+        private const val PAGE_TEXT = "content.txt"
+
+        /**
+         * Restored tables in insert order; note_fts is rebuilt from note_search, and image
+         * counts follow image_ref through its triggers.
+         */
+        internal val RESTORED_TABLES = listOf("tag", "note", "note_tag_ref", "note_search", "image_ref")
+
+        /**
+         * The note directories below [dir], named by note id.
+         */
+        internal fun noteDirs(dir: File): List<File> =
+            dir.listFiles { file -> file.isDirectory && file.name.toLongOrNull() != null }
+                ?.toList() ?: emptyList()
+
+        /**
+         * Copy every row of [cursor] into [table] of [target] with one prepared insert; the
+         * cursor window keeps memory bounded on large tables.
+         */
+        internal fun copyRows(cursor: Cursor, target: SupportSQLiteDatabase, table: String) {
+            cursor.use {
+                target.compileStatement(insertSql(table, cursor)).use { insert ->
+                    val row = arrayOfNulls<Any?>(cursor.columnCount)
+                    while (cursor.moveToNext()) {
+                        readRow(cursor, row)
+                        insert.clearBindings()
+                        SimpleSQLiteQuery.bind(insert, row)
+                        insert.executeInsert()
+                    }
+                }
+            }
+        }
+
+        internal fun copyRows(cursor: Cursor, target: SQLiteDatabase, table: String) {
+            cursor.use {
+                target.compileStatement(insertSql(table, cursor)).use { insert ->
+                    val row = arrayOfNulls<Any?>(cursor.columnCount)
+                    while (cursor.moveToNext()) {
+                        readRow(cursor, row)
+                        insert.clearBindings()
+                        row.forEachIndexed { i, value -> DatabaseUtils.bindObjectToProgram(insert, i + 1, value) }
+                        insert.executeInsert()
+                    }
+                }
+            }
+        }
+
+        /**
+         * Update the rows of [cursor] in [table] of [target] by id, inserting those it lacks.
+         */
+        internal fun upsertRows(cursor: Cursor, target: SupportSQLiteDatabase, table: String) {
+            cursor.use {
+                val columns = cursor.columnNames
+                val id = cursor.getColumnIndexOrThrow("id")
+                target.compileStatement(
+                    "UPDATE `$table` SET ${columns.joinToString { "`$it` = ?" }} WHERE id = ?"
+                ).use { update ->
+                    target.compileStatement(insertSql(table, cursor)).use { insert ->
+                        val row = arrayOfNulls<Any?>(columns.size)
+                        while (cursor.moveToNext()) {
+                            readRow(cursor, row)
+                            update.clearBindings()
+                            SimpleSQLiteQuery.bind(update, row + cursor.getLong(id))
+                            if (update.executeUpdateDelete() == 0) {
+                                insert.clearBindings()
+                                SimpleSQLiteQuery.bind(insert, row)
+                                insert.executeInsert()
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private fun insertSql(table: String, cursor: Cursor): String {
+            val columns = cursor.columnNames
+            return "INSERT INTO `$table`(${columns.joinToString { "`$it`" }}) " +
+                    "VALUES(${columns.joinToString { "?" }})"
+        }
+
+        private fun readRow(cursor: Cursor, row: Array<Any?>) {
+            for (i in row.indices) {
+                row[i] = when (cursor.getType(i)) {
+                    Cursor.FIELD_TYPE_NULL -> null
+                    Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(i)
+                    Cursor.FIELD_TYPE_FLOAT -> cursor.getDouble(i)
+                    Cursor.FIELD_TYPE_BLOB -> cursor.getBlob(i)
+                    else -> cursor.getString(i)
+                }
+            }
+        }
+
+        @Volatile
+        private var instance: NoteBackup? = null
+
+        fun getInstance(application: Application): NoteBackup =
+            instance ?: synchronized(this) {
+                instance ?: NoteBackup(
+                    NoteDatabase.getInstance(application),
+                    SearchIndexer.getInstance(application),
+                    PageStore.getInstance(application),
+                    ImageStore.getInstance(application),
+                    application.filesDir
+                ).also { instance = it }
+            }
+    }
+}
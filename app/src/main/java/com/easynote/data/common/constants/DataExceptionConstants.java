@@ -8,4 +8,10 @@ public class DataExceptionConstants {
     public static final String INVALID_NOTE = "Note格式异常";
 
     public static final String FILE_SAVE_IMAGE_FAILED = "保存图片文件失败";
+
+    public static final String BACKUP_FAILED = "备份失败";
+    public static final String RESTORE_FAILED = "恢复备份失败";
+    public static final String BACKUP_CORRUPTED = "备份文件已损坏";
+    public static final String BACKUP_VERSION_MISMATCH = "备份版本不兼容";
+    public static final String BACKUP_CHAIN_BROKEN = "备份链不完整，请先进行完整备份";
 }
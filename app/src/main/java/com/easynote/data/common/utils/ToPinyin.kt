@@ -1,6 +1,7 @@
 package com.easynote.data.common.utils
 
 import android.content.Context
+import android.util.LruCache
 import com.github.promeg.pinyinhelper.Pinyin
 import com.github.promeg.tinypinyin.lexicons.android.cncity.CnCityDict
 
@@ -9,8 +10,143 @@ class ToPinyin(appContext: Context) {
         Pinyin.init(Pinyin.newConfig().with(CnCityDict.getInstance(appContext)))
     }
 
+    /**
+     * Convert text to space separated pinyin.
+     *
+     * The text is converted paragraph by paragraph and every paragraph result is cached by
+     * a hash of its content, so after an edit only the changed paragraphs are converted
+     * again.
+     */
     fun convertToPinyin(input: String?): String? {
         if (input == null) return null
-        return Pinyin.toPinyin(input, " ")
+        if (input.indexOf(PARAGRAPH_SEPARATOR) < 0) {
+            return convertParagraph(input)
+        }
+        return input.split(PARAGRAPH_SEPARATOR).joinToString(JOINED_SEPARATOR) { paragraph ->
+            convertParagraph(paragraph)
+        }
     }
-}
\ No newline at end of file
+
+    /**
+     * Build an FTS match expression with substring semantics for a user query.
+     *
+     * Every Chinese char and every letter becomes its own token after conversion, so each
+     * whitespace separated word is matched as a phrase of consecutive tokens, which is what
+     * LIKE '%word%' matched before. Returns null for a blank query.
+     */
+    fun convertToMatchQuery(query: String?): String? {
+        val words = query?.replace("\"", " ")?.split(' ', '\t', '\n')?.filter { it.isNotBlank() }
+        if (words.isNullOrEmpty()) return null
+        return words.joinToString(" ") { word -> "\"${convertToPinyin(word)}\"" }
+    }
+
+    /**
+     * Build the initials column text, e.g. "bjdx jdx dx x" for 北京大学.
+     *
+     * Each run of Chinese chars, letters and digits is reduced to one lowercase char per
+     * source char (the pinyin initial for Chinese), and every position of the run emits a
+     * token of at most [INITIALS_WINDOW] chars. A prefix query then finds an abbreviation
+     * anywhere inside the run.
+     */
+    fun convertToInitials(input: String?): String? {
+        if (input == null) return null
+        val tokens = StringBuilder()
+        val run = StringBuilder()
+        for (c in input) {
+            when {
+                Pinyin.isChinese(c) -> run.append(Pinyin.toPinyin(c)[0].lowercaseChar())
+                c.isLetterOrDigit() -> run.append(c.lowercaseChar())
+                else -> appendWindows(run, tokens)
+            }
+        }
+        appendWindows(run, tokens)
+        return tokens.toString()
+    }
+
+    /**
+     * Match expression on the initials column for an abbreviation query such as "bjdx",
+     * or null when the query is not a plain run of letters and digits.
+     */
+    fun convertToInitialsQuery(query: String?): String? {
+        if (query == null || query.length < 2 || !query.all { it.isLetterOrDigit() && it.code < 128 }) {
+            return null
+        }
+        return "initials:${query.lowercase().take(INITIALS_WINDOW)}*"
+    }
+
+    private fun convertParagraph(paragraph: String): String {
+        if (paragraph.isEmpty()) return paragraph
+        if (paragraph.length > CACHED_PARAGRAPH_LENGTH) return Pinyin.toPinyin(paragraph, " ")
+        val key = hash(paragraph)
+        segmentCache.get(key)?.let { cached ->
+            if (cached.length == paragraph.length) return cached.pinyin
+        }
+        val pinyin = Pinyin.toPinyin(paragraph, " ")
+        segmentCache.put(key, CachedParagraph(paragraph.length, pinyin))
+        return pinyin
+    }
+
+    /**
+     * The pinyin of a cached paragraph; the paragraph itself is not kept, only its length to
+     * tell apart paragraphs whose hashes collide.
+     */
+    private class CachedParagraph(val length: Int, val pinyin: String)
+
+    companion object {
+        private const val PARAGRAPH_SEPARATOR = '\n'
+
+        // Pinyin.toPinyin puts the separator around every char, the newline included.
+        private const val JOINED_SEPARATOR = " \n "
+
+        // Cached paragraphs; with their length capped the cache holds at most a few MB.
+        private const val SEGMENT_CACHE_ENTRIES = 1024
+
+        // Longer paragraphs are converted every time rather than cached.
+        private const val CACHED_PARAGRAPH_LENGTH = 512
+
+        // Longest abbreviation that is matched exactly.
+        private const val INITIALS_WINDOW = 8
+
+        private val segmentCache = LruCache<Long, CachedParagraph>(SEGMENT_CACHE_ENTRIES)
+
+        /**
+         * 64-bit FNV-1a hash of the chars of [text].
+         */
+        private fun hash(text: String): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (c in text) {
+                hash = (hash xor c.code.toLong()) * 0x100000001b3L
+            }
+            return hash
+        }
+
+        /**
+         * The initials column text from text already converted by [convertToPinyin], equal
+         * to [convertToInitials] of the source text: every separated token stands for one
+         * source char, a pinyin syllable or a letter or digit kept as is.
+         */
+        @JvmStatic
+        fun convertPinyinToInitials(pinyin: String?): String? {
+            if (pinyin == null) return null
+            val tokens = StringBuilder()
+            val run = StringBuilder()
+            for (token in pinyin.split(' ')) {
+                if (token.isNotEmpty() && token.all { it.isLetterOrDigit() }) {
+                    run.append(token[0].lowercaseChar())
+                } else {
+                    appendWindows(run, tokens)
+                }
+            }
+            appendWindows(run, tokens)
+            return tokens.toString()
+        }
+
+        private fun appendWindows(run: StringBuilder, tokens: StringBuilder) {
+            for (start in run.indices) {
+                if (tokens.isNotEmpty()) tokens.append(' ')
+                tokens.append(run, start, minOf(start + INITIALS_WINDOW, run.length))
+            }
+            run.setLength(0)
+        }
+    }
+}
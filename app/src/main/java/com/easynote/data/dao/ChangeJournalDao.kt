@@ -0,0 +1,44 @@
+package com.easynote.data.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+import com.easynote.data.entity.ChangeJournalEntity
+
+@Dao
+interface ChangeJournalDao {
+
+    @Insert
+    suspend fun insert(entries: List<ChangeJournalEntity>)
+
+    @Insert
+    suspend fun insert(entry: ChangeJournalEntity): Long
+
+    /**
+     * Changes after [watermark] up to and including [upTo], oldest first.
+     */
+    @Query("SELECT * FROM change_journal WHERE id > :watermark AND id <= :upTo ORDER BY id")
+    suspend fun getBetween(watermark: Long, upTo: Long): List<ChangeJournalEntity>
+
+    /**
+     * Id of the last change, or 0 for an empty journal.
+     */
+    @Query("SELECT ifnull(MAX(id), 0) FROM change_journal")
+    suspend fun getWatermark(): Long
+
+    /**
+     * Id of the oldest kept entry, the marker that starts the current backup chain, or 0 for
+     * an empty journal.
+     */
+    @Query("SELECT ifnull(MIN(id), 0) FROM change_journal")
+    suspend fun getFloor(): Long
+
+    /**
+     * Drop the entries before [id], which no backup chain can still need.
+     */
+    @Query("DELETE FROM change_journal WHERE id < :id")
+    suspend fun deleteBefore(id: Long)
+
+    @Query("DELETE FROM change_journal")
+    suspend fun deleteAll()
+}
@@ -0,0 +1,30 @@
+package com.easynote.data.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.easynote.data.entity.ImageRefEntity
+
+@Dao
+interface ImageDao {
+
+    /**
+     * Add a ref; the image row is created or counted up by the insert trigger. A page that
+     * uses the image already keeps its one ref.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertRef(ref: ImageRefEntity): Long
+
+    @Query("DELETE FROM image_ref WHERE note_id = :noteId AND page_id = :pageId")
+    suspend fun deleteRefs(noteId: Long, pageId: Int)
+
+    @Query("SELECT ref_count FROM image WHERE hash = :hash")
+    suspend fun getRefCount(hash: String): Int?
+
+    @Query("SELECT hash FROM image WHERE ref_count <= 0")
+    suspend fun getUnreferenced(): List<String>
+
+    @Query("DELETE FROM image WHERE ref_count <= 0")
+    suspend fun deleteUnreferenced()
+}
@@ -6,15 +6,65 @@ import androidx.room.Dao
 import androidx.room.Delete
 import androidx.room.Insert
 import androidx.room.Query
+import androidx.room.RawQuery
 import androidx.room.Transaction
 import androidx.room.Update
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.easynote.data.annotation.CREATE_TIME_ASC
 import com.easynote.data.annotation.CREATE_TIME_DESC
 import com.easynote.data.annotation.NoteOrderWay
+import com.easynote.data.annotation.TITLE_ASC
+import com.easynote.data.annotation.TITLE_DESC
+import com.easynote.data.annotation.UPDATE_TIME_ASC
 import com.easynote.data.annotation.UPDATE_TIME_DESC
 import com.easynote.data.entity.NoteEntity
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import com.easynote.data.relation.NoteWithTagIds
 import com.easynote.data.relation.NoteWithTags
 import kotlinx.coroutines.flow.Flow
 
+/**
+ * Favorites first, newest pin first. With the sort key and id after it, this is the column
+ * order of the composite indexes on note.
+ */
+private const val FAVORITE_FIRST = "n.is_favorite DESC, n.favorite_time DESC"
+
+private const val TAG_FILTER = """
+    (:tagSize = 0 OR n.id IN (
+        SELECT r.note_id
+        FROM note_tag_ref AS r
+        WHERE r.tag_id IN (:tagIds)
+        GROUP BY r.note_id
+        HAVING COUNT(*) = :tagSize
+    ))
+"""
+
+private const val HOME_NOTES = """
+    SELECT n.*
+    FROM note AS n
+    WHERE
+        n.deleted_at IS NULL
+        AND
+        $TAG_FILTER
+        AND
+        (:startTime IS NULL OR n.update_time >= :startTime)
+        AND
+        (:endTime IS NULL OR n.update_time <= :endTime)
+"""
+
+private const val CALENDAR_NOTES = """
+    SELECT n.*
+    FROM note AS n
+    WHERE
+        n.deleted_at IS NULL
+        AND
+        $TAG_FILTER
+        AND
+        (:startTime IS NULL OR n.create_time >= :startTime)
+        AND
+        (:endTime IS NULL OR n.create_time <= :endTime)
+"""
+
 @Dao
 interface NoteEntityDao {
     /**
@@ -80,19 +130,59 @@ interface NoteEntityDao {
     /**
      * Update the favorite status of a note entity by its ID.
      */
-    @Query("UPDATE note SET is_favorite = :isFavor WHERE id = :id")
-    suspend fun updateFavor(id: Long, isFavor: Boolean)
+    @Query(
+        """
+        UPDATE note
+        SET is_favorite = :isFavor, favorite_time = CASE WHEN :isFavor THEN :favoriteTime ELSE 0 END
+        WHERE id = :id
+    """
+    )
+    suspend fun updateFavor(id: Long, isFavor: Boolean, favoriteTime: Long)
 
-    @Query("UPDATE note SET is_favorite = :isFavor WHERE id IN (:id)")
-    suspend fun updateFavor(id: Set<Long>, isFavor: Boolean)
+    @Query(
+        """
+        UPDATE note
+        SET is_favorite = :isFavor, favorite_time = CASE WHEN :isFavor THEN :favoriteTime ELSE 0 END
+        WHERE id IN (:id)
+    """
+    )
+    suspend fun updateFavor(id: Set<Long>, isFavor: Boolean, favoriteTime: Long)
 
     @Query("SELECT * FROM note")
     suspend fun getAll(): List<NoteEntity>
 
+    /**
+     * Move notes to the trash. Notes already there keep their deletion time.
+     */
+    @Query("UPDATE note SET deleted_at = :deletedAt WHERE id IN (:id) AND deleted_at IS NULL")
+    suspend fun moveToTrash(id: Set<Long>, deletedAt: Long)
+
+    /**
+     * Bring notes back from the trash.
+     */
+    @Query("UPDATE note SET deleted_at = NULL WHERE id IN (:id)")
+    suspend fun restoreFromTrash(id: Set<Long>)
+
+    /**
+     * The notes in the trash, most recently deleted first.
+     */
+    @Transaction
+    @Query("SELECT * FROM note WHERE deleted_at IS NOT NULL ORDER BY deleted_at DESC")
+    fun getTrashPaging(): PagingSource<Int, NoteWithTags>
+
+    /**
+     * Up to [limit] ids of notes moved to the trash before [before], oldest first.
+     */
+    @Query("SELECT id FROM note WHERE deleted_at < :before ORDER BY deleted_at LIMIT :limit")
+    suspend fun getTrashedBefore(before: Long, limit: Int): List<Long>
+
+    @Query("SELECT * FROM note WHERE id = :id")
+    suspend fun getById(id: Long): NoteEntity?
+
     /**
      * Get all note entities as a live list, ordered by update time descending.
      */
-    @Query("SELECT * FROM note ORDER BY update_time DESC")
+    @Query("SELECT * FROM note WHERE deleted_at IS NULL ORDER BY update_time DESC")
     fun getAllLive(): LiveData<MutableList<NoteEntity>>
 
     @Transaction
@@ -101,7 +191,7 @@ interface NoteEntityDao {
         SELECT DISTINCT n.*
         FROM  note AS n
         JOIN note_tag_ref AS r ON n.id = r.note_id
-        WHERE (:size = 0 OR r.tag_id IN (:tagIds))
+        WHERE n.deleted_at IS NULL AND (:size = 0 OR r.tag_id IN (:tagIds))
         ORDER BY
             CASE WHEN :orderWay = 'UPDATE_TIME_DESC' THEN n.update_time END DESC,
             CASE WHEN :orderWay = 'UPDATE_TIME_ASC' THEN n.update_time END ASC,
@@ -125,7 +215,7 @@ interface NoteEntityDao {
      * Get all note entities with their associated tags as LiveData.
      */
     @Transaction
-    @Query("SELECT * FROM note")
+    @Query("SELECT * FROM note WHERE deleted_at IS NULL")
     fun getAllWithTagsLive(): LiveData<List<NoteWithTags?>>
 
     /**
@@ -138,42 +228,155 @@ interface NoteEntityDao {
     /**
      * Search note entities by keyword in abstract as Flow.
      *
+     * [query] is an FTS match expression, only the note level rows (title and summary) of
+     * note_search are matched.
      */
     @Transaction
-    @Query("SELECT * FROM note WHERE (summary LIKE '%' || :query || '%' OR title LIKE '%' || :query || '%' )ORDER BY update_time DESC")
+    @Query(
+        """
+        SELECT * FROM note
+        WHERE id IN (
+            SELECT s.note_id
+            FROM note_fts
+            JOIN note_search AS s ON s.id = note_fts.rowid
+            WHERE note_fts MATCH :query AND s.page_id IS NULL
+        )
+        AND deleted_at IS NULL
+        ORDER BY update_time DESC
+    """
+    )
     fun searchNotesByAbstractFlow(query: String): PagingSource<Int, NoteWithTags>
 
     /**
      * Get all note entities with paging support.
      */
-    @Query("SELECT * FROM note ORDER BY update_time DESC")
+    @Query("SELECT * FROM note WHERE deleted_at IS NULL ORDER BY update_time DESC")
     fun getAllPaging(): PagingSource<Int, NoteEntity>
 
     /**
      * Get all note entities with their associated tags as a paging source.
+     *
+     * With [tagIds], only notes carrying every tag are returned. The matching note ids are
+     * computed once from the tag_id index with GROUP BY / HAVING instead of counting the
+     * tags of each note. Every [NoteOrderWay] has its own statement, so the ORDER BY is read
+     * from the matching composite index on note instead of sorting the filtered notes.
      */
+    fun getAllWithTagsPaging(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        @NoteOrderWay orderWay: String? = UPDATE_TIME_DESC,
+        tagSize: Int? = tagIds?.size ?: 0
+    ): PagingSource<Int, NoteWithTags> = when (orderWay) {
+        UPDATE_TIME_ASC -> getAllWithTagsPagingByUpdateTimeAsc(tagIds, startTime, endTime, tagSize)
+        TITLE_ASC -> getAllWithTagsPagingByTitleAsc(tagIds, startTime, endTime, tagSize)
+        TITLE_DESC -> getAllWithTagsPagingByTitleDesc(tagIds, startTime, endTime, tagSize)
+        CREATE_TIME_DESC -> getAllWithTagsPagingByCreateTimeDesc(tagIds, startTime, endTime, tagSize)
+        CREATE_TIME_ASC -> getAllWithTagsPagingByCreateTimeAsc(tagIds, startTime, endTime, tagSize)
+        else -> getAllWithTagsPagingByUpdateTimeDesc(tagIds, startTime, endTime, tagSize)
+    }
+
+    @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.update_time DESC, n.id DESC")
+    fun getAllWithTagsPagingByUpdateTimeDesc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
+    @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.update_time ASC, n.id ASC")
+    fun getAllWithTagsPagingByUpdateTimeAsc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
     @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.title ASC, n.id ASC")
+    fun getAllWithTagsPagingByTitleAsc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
+    @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.title DESC, n.id DESC")
+    fun getAllWithTagsPagingByTitleDesc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
+    @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.create_time DESC, n.id DESC")
+    fun getAllWithTagsPagingByCreateTimeDesc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
+    @Transaction
+    @Query("$HOME_NOTES ORDER BY $FAVORITE_FIRST, n.create_time ASC, n.id ASC")
+    fun getAllWithTagsPagingByCreateTimeAsc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): PagingSource<Int, NoteWithTags>
+
+    /**
+     * Search note entities with their associated tags as a paging source.
+     *
+     * The FTS hits drive the query and each note is fetched by primary key, so the note
+     * table is never scanned. [query] is a full pinyin match expression and
+     * [initialsQuery] matches pinyin abbreviations against the prefix indexed initials
+     * column. Matches are ranked with a BM25 style score built from the FTS4 offsets() hit
+     * count and the page length, since FTS4 has no built-in bm25(). The tag ids are selected
+     * with each note, see [NoteWithTagIds].
+     */
     @Query(
         """
-    SELECT DISTINCT n.*
-    FROM note AS n
+    SELECT n.*, ${NoteWithTagIds.TAG_IDS_COLUMN}
+    FROM (
+        SELECT
+            h.note_id AS note_id,
+            MAX(h.hits * 2.2 / (h.hits + 1.2 * (0.25 + 0.75 * h.doc_length / 2048.0))) AS rank
+        FROM (
+            SELECT
+                s.note_id AS note_id,
+                (length(offsets(note_fts)) - length(replace(offsets(note_fts), ' ', '')) + 1) / 4.0 AS hits,
+                length(ifnull(s.content, '')) AS doc_length
+            FROM note_fts
+            JOIN note_search AS s ON s.id = note_fts.rowid
+            WHERE :query IS NOT NULL AND note_fts MATCH :query
+            UNION ALL
+            SELECT
+                s.note_id AS note_id,
+                (length(offsets(note_fts)) - length(replace(offsets(note_fts), ' ', '')) + 1) / 4.0 AS hits,
+                length(ifnull(s.content, '')) AS doc_length
+            FROM note_fts
+            JOIN note_search AS s ON s.id = note_fts.rowid
+            WHERE :initialsQuery IS NOT NULL AND note_fts MATCH :initialsQuery
+        ) AS h
+        GROUP BY h.note_id
+    ) AS m
+    CROSS JOIN note AS n ON n.id = m.note_id
     WHERE
-        (:tagSize = 0 OR
-            (SELECT COUNT(DISTINCT r.tag_id)
-                FROM note_tag_ref AS r
-                WHERE r.note_id = n.id AND r.tag_id IN (:tagIds)
-            ) = :tagSize
-        )
+        n.deleted_at IS NULL
         AND
-        (
-            :query IS NULL
-            OR :query = ''
-            OR n.id IN (
-                SELECT id
-                FROM note_fts
-                WHERE note_fts MATCH :query
-            )
-        )
+        (:tagSize = 0 OR n.id IN (
+            SELECT r.note_id
+            FROM note_tag_ref AS r
+            WHERE r.tag_id IN (:tagIds)
+            GROUP BY r.note_id
+            HAVING COUNT(*) = :tagSize
+        ))
         AND
         (:startTime IS NULL OR n.update_time >= :startTime)
         AND
@@ -181,6 +384,7 @@ interface NoteEntityDao {
     ORDER BY
         CASE WHEN n.is_favorite = 1 THEN 0 ELSE 1 END ASC,
         CASE WHEN n.is_favorite = 1 THEN n.favorite_time END DESC,
+        m.rank DESC,
         CASE WHEN :orderWay = 'UPDATE_TIME_DESC' THEN n.update_time END DESC,
         CASE WHEN :orderWay = 'UPDATE_TIME_ASC' THEN n.update_time END ASC,
         CASE WHEN :orderWay = 'TITLE_ASC' THEN n.title END ASC,
@@ -189,14 +393,15 @@ interface NoteEntityDao {
         CASE WHEN :orderWay = 'CREATE_TIME_ASC' THEN n.create_time END ASC
     """
     )
-    fun getAllWithTagsPaging(
+    fun searchWithTagsPaging(
         tagIds: Set<Long>?,
         query: String?,
+        initialsQuery: String?,
         startTime: Long?,
         endTime: Long?,
         @NoteOrderWay orderWay: String? = UPDATE_TIME_DESC,
         tagSize: Int? = tagIds?.size ?: 0
-    ): PagingSource<Int, NoteWithTags>
+    ): PagingSource<Int, NoteWithTagIds>
 
     /**
      * Update the update time of a note entity by its ID.
@@ -209,7 +414,7 @@ interface NoteEntityDao {
         SELECT COUNT(DISTINCT n.id)
         FROM note AS n
         JOIN note_tag_ref AS r ON n.id = r.note_id
-        WHERE (:size = 0 OR r.tag_id IN (:tagIds))
+        WHERE n.deleted_at IS NULL AND (:size = 0 OR r.tag_id IN (:tagIds))
     """
     )
     suspend fun getCountByTagIds(tagIds: Set<Long>, size: Int? = tagIds.size): Int
@@ -218,31 +423,86 @@ interface NoteEntityDao {
     @Query("SELECT * FROM note WHERE id = :id")
     suspend fun getWithTags(id: Long): NoteWithTags?
 
+    /**
+     * Run a note query built at runtime, loading the tags with a second @Relation query.
+     */
+    @Transaction
+    @RawQuery
+    suspend fun getWithTagsByQuery(query: SupportSQLiteQuery): List<NoteWithTags>
+
+    /**
+     * Run a note query built at runtime that selects [NoteWithTagIds.TAG_IDS_COLUMN] next
+     * to the note, e.g. the keyset pages of [NoteKeysetPagingSource]. One statement per call.
+     */
+    @RawQuery
+    suspend fun getWithTagIdsByQuery(query: SupportSQLiteQuery): List<NoteWithTagIds>
+
+
+    /**
+     * Get the notes created in a time range with their tags, for the calendar. Only the
+     * CREATE_TIME orders apply here, each with its own index ordered statement.
+     */
+    fun getAllWithTags(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int? = tagIds?.size ?: 0,
+        orderWay: String? = CREATE_TIME_DESC
+    ): Flow<List<NoteWithTags>> = if (orderWay == CREATE_TIME_ASC) {
+        getAllWithTagsByCreateTimeAsc(tagIds, startTime, endTime, tagSize)
+    } else {
+        getAllWithTagsByCreateTimeDesc(tagIds, startTime, endTime, tagSize)
+    }
+
+    @Transaction
+    @Query("$CALENDAR_NOTES ORDER BY $FAVORITE_FIRST, n.create_time DESC, n.id DESC")
+    fun getAllWithTagsByCreateTimeDesc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): Flow<List<NoteWithTags>>
+
+    @Transaction
+    @Query("$CALENDAR_NOTES ORDER BY $FAVORITE_FIRST, n.create_time ASC, n.id ASC")
+    fun getAllWithTagsByCreateTimeAsc(
+        tagIds: Set<Long>?,
+        startTime: Long?,
+        endTime: Long?,
+        tagSize: Int?
+    ): Flow<List<NoteWithTags>>
 
+    /**
+     * Search note entities with their associated tags as a flow, see [searchWithTagsPaging]
+     * for [query] and [initialsQuery]. Notes are looked up by primary key from the FTS hits.
+     */
     @Transaction
     @Query(
         """
-        SELECT DISTINCT n.*
+        SELECT n.*
         FROM note AS n
         WHERE
-        (:tagSize = 0 OR
-            (SELECT COUNT(DISTINCT r.tag_id)
-                FROM note_tag_ref AS r
-                WHERE r.note_id = n.id AND r.tag_id IN (:tagIds)
-            ) = :tagSize
+        n.id IN (
+            SELECT s.note_id
+            FROM note_fts
+            JOIN note_search AS s ON s.id = note_fts.rowid
+            WHERE :query IS NOT NULL AND note_fts MATCH :query
+            UNION
+            SELECT s.note_id
+            FROM note_fts
+            JOIN note_search AS s ON s.id = note_fts.rowid
+            WHERE :initialsQuery IS NOT NULL AND note_fts MATCH :initialsQuery
         )
         AND
-        (
-            :query IS NULL
-            OR :query = ''
-            OR n.id IN (
-                SELECT rowid
-                FROM note_fts
-                WHERE content MATCH :query
-            )
-            OR n.title LIKE '%' || :query || '%'
-            OR n.summary LIKE '%' || :query || '%'
-        )
+        n.deleted_at IS NULL
+        AND
+        (:tagSize = 0 OR n.id IN (
+            SELECT r.note_id
+            FROM note_tag_ref AS r
+            WHERE r.tag_id IN (:tagIds)
+            GROUP BY r.note_id
+            HAVING COUNT(*) = :tagSize
+        ))
         AND
             (:startTime IS NULL OR n.create_time >= :startTime)
         AND
@@ -254,8 +514,9 @@ interface NoteEntityDao {
         CASE WHEN :orderWay = 'CREATE_TIME_ASC' THEN n.create_time END ASC
     """
     )
-    fun getAllWithTags(
+    fun searchAllWithTags(
         query: String?,
+        initialsQuery: String?,
         tagIds: Set<Long>?,
         startTime: Long?,
         endTime: Long?,
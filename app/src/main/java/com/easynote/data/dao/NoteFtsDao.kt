@@ -2,49 +2,112 @@ package com.easynote.data.dao
 
 import androidx.room.Dao
 import androidx.room.Query
+import androidx.room.Transaction
 
 @Dao
 interface NoteFtsDao {
 
-    @Query("SELECT id FROM note_fts WHERE note_fts MATCH :query")
+    @Query(
+        """
+        SELECT DISTINCT s.note_id
+        FROM note_fts
+        JOIN note_search AS s ON s.id = note_fts.rowid
+        WHERE note_fts MATCH :query
+    """
+    )
     suspend fun searchNotesByContent(query: String): List<Long>
 
-    @Query("INSERT INTO note_fts(id,page_index,title,summary,content) VALUES(:noteId,:pageIndex,:title,:summary,:content)")
+    @Query("INSERT INTO note_search(note_id,page_id,title,summary,content,initials) VALUES(:noteId,:pageId,:title,:summary,:content,:initials)")
     suspend fun insert(
         noteId: Long,
-        pageIndex: Int? = null,
+        pageId: Int? = null,
         title: String? = null,
         summary: String? = null,
-        content: String? = null
+        content: String? = null,
+        initials: String? = null
     )
 
-    @Query("SELECT id FROM note_fts WHERE id = :noteId AND (page_index IS NULL OR page_index = :pageIndex)")
-    suspend fun getNoteFtsId(noteId: Long, pageIndex: Int?): Long?
+    /**
+     * Insert a search row only while the note still exists, so a late index write can not
+     * bring back rows of a deleted note.
+     */
+    @Query(
+        """
+        INSERT INTO note_search(note_id,page_id,title,summary,content,initials)
+        SELECT :noteId,:pageId,:title,:summary,:content,:initials
+        WHERE EXISTS (SELECT 1 FROM note WHERE id = :noteId)
+    """
+    )
+    suspend fun insertIfNoteExists(
+        noteId: Long,
+        pageId: Int? = null,
+        title: String? = null,
+        summary: String? = null,
+        content: String? = null,
+        initials: String? = null
+    )
 
     @Query(
         """
-        UPDATE note_fts 
-        SET 
+        UPDATE note_search
+        SET
             title = CASE WHEN :title IS NOT NULL THEN :title ELSE title END,
             summary = CASE WHEN :summary IS NOT NULL THEN :summary ELSE summary END,
-            content = CASE WHEN :content IS NOT NULL THEN :content ELSE content END
-        WHERE id = :noteId AND (page_index IS NULL OR page_index = :pageIndex)
+            content = CASE WHEN :content IS NOT NULL THEN :content ELSE content END,
+            initials = CASE WHEN :initials IS NOT NULL THEN :initials ELSE initials END
+        WHERE note_id = :noteId AND page_id IS :pageId
     """
     )
     suspend fun update(
         noteId: Long,
-        pageIndex: Int? =null,
+        pageId: Int? =null,
+        title: String? = null,
+        summary: String? = null,
+        content: String? = null,
+        initials: String? = null
+    ): Int
+
+    /**
+     * Update the search row of a note page, inserting it when it does not exist yet.
+     */
+    @Transaction
+    suspend fun upsert(
+        noteId: Long,
+        pageId: Int? = null,
         title: String? = null,
         summary: String? = null,
-        content: String? = null
+        content: String? = null,
+        initials: String? = null
+    ) {
+        if (update(noteId, pageId, title, summary, content, initials) == 0) {
+            insertIfNoteExists(noteId, pageId, title, summary, content, initials)
+        }
+    }
+
+    /**
+     * Ids of the notes that have no note level (title / summary) search row yet.
+     */
+    @Query(
+        """
+        SELECT id FROM note
+        WHERE id NOT IN (SELECT note_id FROM note_search WHERE page_id IS NULL)
+    """
     )
+    suspend fun getUnindexedNoteIds(): List<Long>
 
-    @Query("DELETE FROM note_fts WHERE id = :id")
+    @Query("DELETE FROM note_search WHERE note_id = :id")
     suspend fun deleteByNoteId(id: Long)
 
-    @Query("DELETE FROM note_fts WHERE id = :noteId AND page_index = :pageIndex")
-    suspend fun deleteByNoteIdAndPageIndex(noteId: Long, pageIndex: Int)
+    @Query("DELETE FROM note_search WHERE note_id = :noteId AND page_id = :pageId")
+    suspend fun deleteByNoteIdAndPageId(noteId: Long, pageId: Int)
+
+    /**
+     * Delete the page rows of a note whose page ids are not in [pageIds], like those left by
+     * page deletes before pages had ids.
+     */
+    @Query("DELETE FROM note_search WHERE note_id = :noteId AND page_id IS NOT NULL AND page_id NOT IN (:pageIds)")
+    suspend fun deletePagesExcept(noteId: Long, pageIds: List<Int>)
 
-    @Query("DELETE FROM note_fts WHERE id IN (:id)")
+    @Query("DELETE FROM note_search WHERE note_id IN (:id)")
     suspend fun deleteByNoteId(id: Set<Long>)
-}
\ No newline at end of file
+}
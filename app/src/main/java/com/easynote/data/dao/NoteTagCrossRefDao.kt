@@ -10,6 +10,21 @@ import com.easynote.data.entity.NoteTagCrossRef
 @Dao
 interface NoteTagCrossRefDao {
 
+    @Query("SELECT * FROM note_tag_ref")
+    suspend fun getAll(): List<NoteTagCrossRef>
+
+    /**
+     * The refs of notes that are not in the trash.
+     */
+    @Query(
+        """
+        SELECT r.* FROM note_tag_ref AS r
+        JOIN note AS n ON n.id = r.note_id
+        WHERE n.deleted_at IS NULL
+    """
+    )
+    suspend fun getAllOfLiveNotes(): List<NoteTagCrossRef>
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insertCrossRef(crossRefs: List<NoteTagCrossRef>)
 
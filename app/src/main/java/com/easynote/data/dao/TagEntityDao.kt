@@ -84,6 +84,13 @@ interface TagEntityDao {
     @Query("SELECT * FROM tag ORDER BY id DESC")
     fun getAllFlow(): Flow<List<TagEntity>>
 
+    /**
+     * Get all tag entities.
+     * @return List<TagEntity>
+     */
+    @Query("SELECT * FROM tag")
+    suspend fun getAll(): List<TagEntity>
+
     /**
      * Get tag with associated notes by tag ID.
      * @param id
@@ -0,0 +1,99 @@
+package com.easynote.data.database
+
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * SQLite tuning applied when [NoteDatabase] is opened, picked per build through
+ * BuildConfig.DB_PROFILE.
+ *
+ * The PRAGMAs are per connection and set in onOpen, which only ever sees the primary
+ * connection. That connection runs every transaction, so synchronous covers every commit,
+ * but mmap_size and cache_size only speed up reads made inside a transaction. Plain reads,
+ * like the keyset page loads and DAO queries outside a transaction, go to the WAL read
+ * connections, which keep the framework defaults: the framework opens them itself and
+ * offers no per-connection hook. For those reads a profile differs by its journal mode and
+ * executors alone.
+ */
+enum class DatabaseProfile(
+    private val journalMode: RoomDatabase.JournalMode,
+    private val synchronous: String?,
+    private val mmapSizeBytes: Long,
+    private val cacheSizeKib: Int,
+    private val separateExecutors: Boolean
+) {
+    /**
+     * Room defaults, the baseline of the benchmarks.
+     */
+    DEFAULT(RoomDatabase.JournalMode.AUTOMATIC, null, 0, 0, false),
+
+    /**
+     * WAL that syncs on every commit, so a finished save survives a power cut.
+     */
+    DURABLE(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING, "FULL", 0, 0, true),
+
+    /**
+     * WAL that syncs at checkpoints only: the last commits may roll back on power loss but
+     * the file never corrupts. Reads in transactions go through mmap and a larger page cache.
+     */
+    BALANCED(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING, "NORMAL", 64L shl 20, 8 * 1024, true);
+
+    /**
+     * Apply the journal mode, executors and open callback of this profile to [builder].
+     */
+    fun <T : RoomDatabase> configure(builder: RoomDatabase.Builder<T>): RoomDatabase.Builder<T> {
+        builder.setJournalMode(journalMode)
+        if (separateExecutors) {
+            // Page loads no longer queue behind saves on Room's shared IO pool.
+            builder.setQueryExecutor(queryExecutor)
+            builder.setTransactionExecutor(transactionExecutor)
+        }
+        builder.addCallback(object : RoomDatabase.Callback() {
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                super.onOpen(db)
+                applyPragmas(db)
+            }
+        })
+        return builder
+    }
+
+    private fun applyPragmas(db: SupportSQLiteDatabase) {
+        // PRAGMAs that report their new value must be stepped as queries.
+        synchronous?.let { pragma(db, "synchronous = $it") }
+        if (mmapSizeBytes > 0) {
+            pragma(db, "mmap_size = $mmapSizeBytes")
+        }
+        if (cacheSizeKib > 0) {
+            pragma(db, "cache_size = -$cacheSizeKib")
+        }
+    }
+
+    private fun pragma(db: SupportSQLiteDatabase, pragma: String) {
+        db.query("PRAGMA $pragma").use { it.moveToFirst() }
+    }
+
+    companion object {
+        private const val QUERY_THREADS = 4
+
+        private val queryExecutor: ExecutorService by lazy {
+            val count = AtomicInteger()
+            Executors.newFixedThreadPool(QUERY_THREADS) { runnable ->
+                Thread(runnable, "note-db-query-${count.incrementAndGet()}")
+            }
+        }
+
+        private val transactionExecutor: ExecutorService by lazy {
+            Executors.newSingleThreadExecutor { runnable -> Thread(runnable, "note-db-write") }
+        }
+
+        /**
+         * The profile named [name], or [BALANCED] for an unknown name.
+         */
+        @JvmStatic
+        fun of(name: String?): DatabaseProfile =
+            entries.firstOrNull { it.name == name } ?: BALANCED
+    }
+}
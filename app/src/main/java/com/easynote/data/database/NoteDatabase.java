@@ -1,33 +1,355 @@
 package com.easynote.data.database;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
+import com.easynote.BuildConfig;
+import com.easynote.data.common.utils.ToPinyin;
+import com.easynote.data.dao.ChangeJournalDao;
+import com.easynote.data.dao.ImageDao;
 import com.easynote.data.dao.NoteFtsDao;
 import com.easynote.data.dao.NoteEntityDao;
 import com.easynote.data.dao.NoteTagCrossRefDao;
 import com.easynote.data.dao.TagEntityDao;
+import com.easynote.data.entity.ChangeJournalEntity;
+import com.easynote.data.entity.ImageEntity;
+import com.easynote.data.entity.ImageRefEntity;
 import com.easynote.data.entity.NoteFts;
 import com.easynote.data.entity.NoteEntity;
+import com.easynote.data.entity.NoteSearchEntity;
 import com.easynote.data.entity.NoteTagCrossRef;
 import com.easynote.data.entity.TagEntity;
 
-@Database(entities = {NoteEntity.class, TagEntity.class, NoteTagCrossRef.class, NoteFts.class}, version = 1, exportSchema = false)
+@Database(entities = {NoteEntity.class, TagEntity.class, NoteTagCrossRef.class, NoteSearchEntity.class, NoteFts.class, ChangeJournalEntity.class, ImageEntity.class, ImageRefEntity.class}, version = 12, exportSchema = false)
 public abstract class NoteDatabase extends RoomDatabase {
     private static NoteDatabase instance;
 
+    /**
+     * Replace NULL in the columns the home list sorts on, so keyset pages can compare them.
+     * Non-favorite notes get favorite_time 0 and keep their order among themselves.
+     */
+    public static final String NORMALIZE_NOTE_SORT_COLUMNS = "UPDATE note SET "
+            + "is_favorite = ifnull(is_favorite, 0), "
+            + "favorite_time = CASE WHEN is_favorite = 1 THEN ifnull(favorite_time, 0) ELSE 0 END, "
+            + "title = ifnull(title, ''), "
+            + "update_time = ifnull(update_time, 0), "
+            + "create_time = ifnull(create_time, 0)";
+
+    private static final String NOTE_SORT_COLUMN_IS_NULL = "NEW.is_favorite IS NULL OR NEW.favorite_time IS NULL "
+            + "OR NEW.title IS NULL OR NEW.update_time IS NULL OR NEW.create_time IS NULL";
+
+    /**
+     * Normalize the sort columns of a note written with NULL in one of them, as a NULL fails
+     * every keyset comparison and the note would drop out of the home list after its first
+     * page. NoteEntity keeps the columns nullable, so @Insert and @Update can still write NULL.
+     */
+    public static final String[] CREATE_NOTE_SORT_COLUMN_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS note_sort_columns_insert AFTER INSERT ON note "
+                    + "WHEN " + NOTE_SORT_COLUMN_IS_NULL + " BEGIN "
+                    + NORMALIZE_NOTE_SORT_COLUMNS + " WHERE id = NEW.id; END",
+            "CREATE TRIGGER IF NOT EXISTS note_sort_columns_update "
+                    + "AFTER UPDATE OF is_favorite, favorite_time, title, update_time, create_time ON note "
+                    + "WHEN " + NOTE_SORT_COLUMN_IS_NULL + " BEGIN "
+                    + NORMALIZE_NOTE_SORT_COLUMNS + " WHERE id = NEW.id; END"
+    };
+
+    /**
+     * Delete the search rows of a deleted note; note_fts follows through the content sync
+     * triggers. Room can not declare a foreign key on the FTS content table itself.
+     */
+    public static final String CREATE_NOTE_SEARCH_CLEANUP_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS note_search_cleanup AFTER DELETE ON note BEGIN "
+                    + "DELETE FROM note_search WHERE note_id = OLD.id; END";
+
+    /**
+     * Count the refs of each image into image.ref_count. Inserting the first ref of an image
+     * creates its row; refs deleted through the note foreign key fire the delete trigger too.
+     */
+    public static final String[] CREATE_IMAGE_REF_COUNT_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS image_ref_count_insert AFTER INSERT ON image_ref BEGIN "
+                    + "INSERT OR IGNORE INTO image(hash, ref_count) VALUES(NEW.hash, 0); "
+                    + "UPDATE image SET ref_count = ref_count + 1 WHERE hash = NEW.hash; END",
+            "CREATE TRIGGER IF NOT EXISTS image_ref_count_delete AFTER DELETE ON image_ref BEGIN "
+                    + "UPDATE image SET ref_count = ref_count - 1 WHERE hash = OLD.hash; END"
+    };
+
+    /**
+     * Keep note_fts in sync with its content table note_search.
+     */
+    static final String[] CREATE_NOTE_FTS_CONTENT_SYNC_TRIGGERS =
+            noteFtsContentSyncTriggers("title", "summary", "content", "initials");
+
+    /**
+     * The content sync triggers Room creates for note_fts, over the given indexed columns:
+     * versions 2 and 3 index fewer columns than the current one.
+     */
+    static String[] noteFtsContentSyncTriggers(String... columns) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (String column : columns) {
+            names.append(", `").append(column).append('`');
+            values.append(", NEW.`").append(column).append('`');
+        }
+        String insert = "INSERT INTO `note_fts`(`docid`" + names + ") VALUES (NEW.`rowid`" + values + ")";
+        return new String[]{
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_note_fts_BEFORE_UPDATE BEFORE UPDATE ON `note_search` BEGIN DELETE FROM `note_fts` WHERE `docid`=OLD.`rowid`; END",
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_note_fts_BEFORE_DELETE BEFORE DELETE ON `note_search` BEGIN DELETE FROM `note_fts` WHERE `docid`=OLD.`rowid`; END",
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_note_fts_AFTER_UPDATE AFTER UPDATE ON `note_search` BEGIN " + insert + "; END",
+                "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_note_fts_AFTER_INSERT AFTER INSERT ON `note_search` BEGIN " + insert + "; END"
+        };
+    }
+
+    /**
+     * Drop the note_fts content sync triggers, before note_fts is recreated with other columns.
+     */
+    static void dropNoteFtsContentSyncTriggers(SupportSQLiteDatabase db) {
+        for (String when : new String[]{"BEFORE_UPDATE", "BEFORE_DELETE", "AFTER_UPDATE", "AFTER_INSERT"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_note_fts_" + when);
+        }
+    }
+
+    /**
+     * Fill in the initials of rows written without them from their stored pinyin, see
+     * ToPinyin.convertPinyinToInitials. A note row joins title and summary like
+     * SearchIndexer does.
+     */
+    static void backfillInitials(SupportSQLiteDatabase db) {
+        try (Cursor cursor = db.query("SELECT id, title, summary, content FROM note_search WHERE initials IS NULL")) {
+            while (cursor.moveToNext()) {
+                StringBuilder pinyin = new StringBuilder();
+                for (int i = 1; i <= 3; i++) {
+                    if (cursor.isNull(i)) continue;
+                    if (pinyin.length() > 0) pinyin.append(" \n ");
+                    pinyin.append(cursor.getString(i));
+                }
+                db.execSQL("UPDATE note_search SET initials = ? WHERE id = ?",
+                        new Object[]{ToPinyin.convertPinyinToInitials(pinyin.toString()), cursor.getLong(0)});
+            }
+        }
+    }
+
+    /**
+     * Move the self-contained FTS4 note_fts table to an external content index over note_search.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_search` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `note_id` INTEGER NOT NULL, `page_index` INTEGER, `title` TEXT, `summary` TEXT, `content` TEXT)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_note_search_note_id_page_index` ON `note_search` (`note_id`, `page_index`)");
+            db.execSQL("INSERT OR IGNORE INTO note_search(note_id, page_index, title, summary, content) SELECT id, page_index, title, summary, content FROM note_fts");
+            db.execSQL("DROP TABLE IF EXISTS note_fts");
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `note_fts` USING FTS4(`title` TEXT, `summary` TEXT, `content` TEXT, content=`note_search`)");
+            for (String trigger : noteFtsContentSyncTriggers("title", "summary", "content")) {
+                db.execSQL(trigger);
+            }
+            db.execSQL("INSERT INTO note_fts(note_fts) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Add the pinyin initials column, filled in for the existing rows, and rebuild note_fts
+     * with a prefix index. The sync triggers of version 2 go first, so the backfill does not
+     * write into the index that is rebuilt right after.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropNoteFtsContentSyncTriggers(db);
+            db.execSQL("ALTER TABLE `note_search` ADD COLUMN `initials` TEXT");
+            backfillInitials(db);
+            db.execSQL("DROP TABLE IF EXISTS note_fts");
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `note_fts` USING FTS4(`title` TEXT, `summary` TEXT, `content` TEXT, `initials` TEXT, content=`note_search`, prefix=`2,4`)");
+            for (String trigger : CREATE_NOTE_FTS_CONTENT_SYNC_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+            db.execSQL("INSERT INTO note_fts(note_fts) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Normalize the home list sort columns, see {@link #NORMALIZE_NOTE_SORT_COLUMNS}.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(NORMALIZE_NOTE_SORT_COLUMNS);
+        }
+    };
+
+    /**
+     * Add the composite indexes the home list and calendar sort on, see NoteEntity.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_update_time` ON `note` (`is_favorite`, `favorite_time`, `update_time`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_update_time_asc` ON `note` (`is_favorite` DESC, `favorite_time` DESC, `update_time` ASC)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_create_time` ON `note` (`is_favorite`, `favorite_time`, `create_time`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_create_time_asc` ON `note` (`is_favorite` DESC, `favorite_time` DESC, `create_time` ASC)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_title` ON `note` (`is_favorite`, `favorite_time`, `title`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_title_asc` ON `note` (`is_favorite` DESC, `favorite_time` DESC, `title` ASC)");
+        }
+    };
+
+    /**
+     * Add the change journal incremental backups are built from.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `change_journal` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `note_id` INTEGER, `page_index` INTEGER, `path` TEXT, `kind` TEXT NOT NULL, `change_time` INTEGER NOT NULL)");
+        }
+    };
+
+    /**
+     * Add ON DELETE CASCADE foreign keys to note_tag_ref, dropping refs that already dangle,
+     * and the note_search cleanup trigger. The note_fts content sync triggers are made sure
+     * of for databases that went through {@link #MIGRATION_1_2} before it created them.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `_new_note_tag_ref` (`note_id` INTEGER NOT NULL, `tag_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `tag_id`), FOREIGN KEY(`note_id`) REFERENCES `note`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`tag_id`) REFERENCES `tag`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT INTO `_new_note_tag_ref` (`note_id`, `tag_id`) SELECT `note_id`, `tag_id` FROM `note_tag_ref` WHERE `note_id` IN (SELECT `id` FROM `note`) AND `tag_id` IN (SELECT `id` FROM `tag`)");
+            db.execSQL("DROP TABLE `note_tag_ref`");
+            db.execSQL("ALTER TABLE `_new_note_tag_ref` RENAME TO `note_tag_ref`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tag_ref_note_id` ON `note_tag_ref` (`note_id`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tag_ref_tag_id` ON `note_tag_ref` (`tag_id`)");
+
+            for (String trigger : CREATE_NOTE_FTS_CONTENT_SYNC_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+            db.execSQL("DELETE FROM note_search WHERE note_id NOT IN (SELECT id FROM note)");
+            db.execSQL(CREATE_NOTE_SEARCH_CLEANUP_TRIGGER);
+        }
+    };
+
+    /**
+     * Add deleted_at for the trash and lead the sort indexes with it, see NoteEntity.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `note` ADD COLUMN `deleted_at` INTEGER");
+            for (String key : new String[]{"update_time", "create_time", "title"}) {
+                db.execSQL("DROP INDEX IF EXISTS `index_note_favorite_" + key + "`");
+                db.execSQL("DROP INDEX IF EXISTS `index_note_favorite_" + key + "_asc`");
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_" + key + "` ON `note` (`deleted_at`, `is_favorite`, `favorite_time`, `" + key + "`)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_favorite_" + key + "_asc` ON `note` (`deleted_at` ASC, `is_favorite` DESC, `favorite_time` DESC, `" + key + "` ASC)");
+            }
+        }
+    };
+
+    /**
+     * Key page search rows and journaled page changes by page id instead of page index. The
+     * tables are rebuilt as SQLite before 3.25 can not rename a column; note_search keeps its
+     * rowids, so note_fts stays valid. Pages stored so far have the ids of their indexes, so
+     * the values carry over as is.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            // Renaming a table fails while a trigger refers to a missing one.
+            db.execSQL("DROP TRIGGER IF EXISTS note_search_cleanup");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `_new_note_search` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `note_id` INTEGER NOT NULL, `page_id` INTEGER, `title` TEXT, `summary` TEXT, `content` TEXT, `initials` TEXT)");
+            db.execSQL("INSERT INTO `_new_note_search` (`id`, `note_id`, `page_id`, `title`, `summary`, `content`, `initials`) SELECT `id`, `note_id`, `page_index`, `title`, `summary`, `content`, `initials` FROM `note_search`");
+            db.execSQL("DROP TABLE `note_search`");
+            db.execSQL("ALTER TABLE `_new_note_search` RENAME TO `note_search`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_note_search_note_id_page_id` ON `note_search` (`note_id`, `page_id`)");
+            for (String trigger : CREATE_NOTE_FTS_CONTENT_SYNC_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+            db.execSQL(CREATE_NOTE_SEARCH_CLEANUP_TRIGGER);
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `_new_change_journal` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `note_id` INTEGER, `page_id` INTEGER, `path` TEXT, `kind` TEXT NOT NULL, `change_time` INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO `_new_change_journal` (`id`, `note_id`, `page_id`, `path`, `kind`, `change_time`) SELECT `id`, `note_id`, `page_index`, `path`, `kind`, `change_time` FROM `change_journal`");
+            db.execSQL("DROP TABLE `change_journal`");
+            db.execSQL("ALTER TABLE `_new_change_journal` RENAME TO `change_journal`");
+        }
+    };
+
+    /**
+     * Add the tables of the content addressed image store, see ImageStore. Images saved so
+     * far stay in their page directories and are not counted.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `image` (`hash` TEXT NOT NULL, `ref_count` INTEGER NOT NULL, PRIMARY KEY(`hash`))");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `image_ref` (`note_id` INTEGER NOT NULL, `page_id` INTEGER NOT NULL, `hash` TEXT NOT NULL, PRIMARY KEY(`note_id`, `page_id`, `hash`), FOREIGN KEY(`note_id`) REFERENCES `note`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            for (String trigger : CREATE_IMAGE_REF_COUNT_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+        }
+    };
+
+    /**
+     * Index every initials prefix length a query can have, and fill in the initials rows
+     * migrated to version 3 were left without. The sync triggers go first, so the backfill
+     * does not write into the index that is rebuilt right after.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropNoteFtsContentSyncTriggers(db);
+            db.execSQL("DROP TABLE IF EXISTS note_fts");
+            backfillInitials(db);
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `note_fts` USING FTS4(`title` TEXT, `summary` TEXT, `content` TEXT, `initials` TEXT, content=`note_search`, prefix=`2,3,4,5,6,7,8`)");
+            for (String trigger : CREATE_NOTE_FTS_CONTENT_SYNC_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+            db.execSQL("INSERT INTO note_fts(note_fts) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Normalize the sort columns of the notes written with NULL since version 4, and keep
+     * them normalized, see {@link #CREATE_NOTE_SORT_COLUMN_TRIGGERS}.
+     */
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(NORMALIZE_NOTE_SORT_COLUMNS);
+            for (String trigger : CREATE_NOTE_SORT_COLUMN_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+        }
+    };
+
     public synchronized static NoteDatabase getInstance(Context context) {
         if (instance == null) {
-            instance = Room.databaseBuilder(context.getApplicationContext(), NoteDatabase.class, "note_database")
+            RoomDatabase.Builder<NoteDatabase> builder = Room.databaseBuilder(context.getApplicationContext(), NoteDatabase.class, "note_database");
+            instance = DatabaseProfile.of(BuildConfig.DB_PROFILE).configure(builder)
                     .createFromAsset("note_database.db")
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12)
                     .addCallback(new RoomDatabase.Callback(){
                         @Override
                         public void onCreate(androidx.sqlite.db.SupportSQLiteDatabase db) {
                             super.onCreate(db);
-                            db.execSQL("INSERT INTO note_fts(id) select id from note");
+                            db.execSQL(NORMALIZE_NOTE_SORT_COLUMNS);
+                        }
+
+                        @Override
+                        public void onOpen(androidx.sqlite.db.SupportSQLiteDatabase db) {
+                            super.onOpen(db);
+                            // The asset is at the current version, so a copy of it skips onCreate
+                            // and is only validated: it must have every column and foreign key
+                            // itself, as CREATE TABLE IF NOT EXISTS can not add them. Triggers
+                            // are not validated and are made sure of here.
+                            db.execSQL(CREATE_NOTE_SEARCH_CLEANUP_TRIGGER);
+                            for (String trigger : CREATE_IMAGE_REF_COUNT_TRIGGERS) {
+                                db.execSQL(trigger);
+                            }
+                            for (String trigger : CREATE_NOTE_SORT_COLUMN_TRIGGERS) {
+                                db.execSQL(trigger);
+                            }
                         }
                     })
                     .build();
@@ -43,5 +365,9 @@ public abstract class NoteDatabase extends RoomDatabase {
 
     public abstract NoteFtsDao getNoteContentSearchDao();
 
+    public abstract ChangeJournalDao getChangeJournalDao();
+
+    public abstract ImageDao getImageDao();
+
 
 }
@@ -0,0 +1,38 @@
+package com.easynote.data.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+import com.easynote.data.annotation.ChangeKind
+
+/**
+ * One change of the library since the last backup marker. The id is the watermark an
+ * incremental backup starts after.
+ */
+@Entity(tableName = "change_journal")
+data class ChangeJournalEntity(
+    @PrimaryKey(autoGenerate = true)
+    var id: Long? = null,
+
+    @ColumnInfo(name = "note_id")
+    var noteId: Long? = null,
+
+    /**
+     * Id of the changed page, see [com.easynote.data.storage.PageStore].
+     */
+    @ColumnInfo(name = "page_id")
+    var pageId: Int? = null,
+
+    /**
+     * Path of the changed file relative to filesDir, for [com.easynote.data.annotation.CHANGE_IMAGE].
+     */
+    @ColumnInfo
+    var path: String? = null,
+
+    @ChangeKind
+    @ColumnInfo
+    var kind: String,
+
+    @ColumnInfo(name = "change_time")
+    var changeTime: Long
+)
@@ -0,0 +1,20 @@
+package com.easynote.data.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * An image of the [com.easynote.data.storage.ImageStore], keyed by the SHA-256 of its bytes.
+ * [refCount] is the number of its [ImageRefEntity] rows, kept by the triggers in
+ * [com.easynote.data.database.NoteDatabase]; an image at 0 is deleted by the next sweep.
+ */
+@Entity(tableName = "image")
+data class ImageEntity(
+    @PrimaryKey
+    @ColumnInfo
+    val hash: String,
+
+    @ColumnInfo(name = "ref_count")
+    val refCount: Int = 0
+)
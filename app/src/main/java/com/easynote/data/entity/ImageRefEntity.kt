@@ -0,0 +1,30 @@
+package com.easynote.data.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+
+/**
+ * A page uses an image. Refs go with their note: deleting it cascades here in the same
+ * statement, and the count triggers follow.
+ */
+@Entity(
+    tableName = "image_ref",
+    primaryKeys = ["note_id", "page_id", "hash"],
+    foreignKeys = [
+        ForeignKey(
+            entity = NoteEntity::class,
+            parentColumns = ["id"],
+            childColumns = ["note_id"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ]
+)
+data class ImageRefEntity(
+    @ColumnInfo(name = "note_id") val noteId: Long,
+    /**
+     * Id of the page, see [com.easynote.data.storage.PageStore].
+     */
+    @ColumnInfo(name = "page_id") val pageId: Int,
+    @ColumnInfo val hash: String
+)
@@ -2,9 +2,50 @@ package com.easynote.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity(tableName = "note")
+/**
+ * The home list sorts on favorites first, then on one key and id. Each key has one index
+ * scanned backwards for the DESC order and one with that column ascending for the ASC order,
+ * as SQLite can only walk an index in its own direction or the exact reverse.
+ *
+ * Every index starts with deleted_at. Live notes (deleted_at IS NULL) are one contiguous
+ * range of it, so home and calendar reads never step over notes in the trash, and the trash
+ * is the range after them, ordered by deletion time.
+ */
+@Entity(
+    tableName = "note",
+    indices = [
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "update_time"],
+            name = "index_note_favorite_update_time"
+        ),
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "update_time"],
+            orders = [Index.Order.ASC, Index.Order.DESC, Index.Order.DESC, Index.Order.ASC],
+            name = "index_note_favorite_update_time_asc"
+        ),
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "create_time"],
+            name = "index_note_favorite_create_time"
+        ),
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "create_time"],
+            orders = [Index.Order.ASC, Index.Order.DESC, Index.Order.DESC, Index.Order.ASC],
+            name = "index_note_favorite_create_time_asc"
+        ),
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "title"],
+            name = "index_note_favorite_title"
+        ),
+        Index(
+            value = ["deleted_at", "is_favorite", "favorite_time", "title"],
+            orders = [Index.Order.ASC, Index.Order.DESC, Index.Order.DESC, Index.Order.ASC],
+            name = "index_note_favorite_title_asc"
+        )
+    ]
+)
 data class NoteEntity(
     @PrimaryKey(autoGenerate = true)
     var id: Long? = null,
@@ -25,5 +66,11 @@ data class NoteEntity(
     var favoriteTime: Long? = null,
 
     @ColumnInfo(name = "is_favorite")
-    var isFavorite: Boolean? = null
+    var isFavorite: Boolean? = null,
+
+    /**
+     * When the note was moved to the trash, null while it is live.
+     */
+    @ColumnInfo(name = "deleted_at")
+    var deletedAt: Long? = null
 )
\ No newline at end of file
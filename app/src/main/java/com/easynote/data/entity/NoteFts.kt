@@ -3,16 +3,28 @@ package com.easynote.data.entity
 import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.Fts4
-
-@Fts4
+import androidx.room.PrimaryKey
+
+/**
+ * External content full-text index over [NoteSearchEntity].
+ *
+ * The docid of each row is the rowid of the matching note_search row, Room keeps both in
+ * sync with triggers. The text is kept in note_search only, so this does not make the
+ * database smaller than a self-contained table, it only moves the copy: both are within 1%
+ * of each other in FtsIndexBenchmark. A contentless table would drop the copy, but FTS4 can
+ * not delete from one, and pages are deleted and rewritten.
+ *
+ * Prefixes of 2 to 8 chars, every length
+ * [com.easynote.data.common.utils.ToPinyin.convertToInitialsQuery] emits, are indexed so
+ * that abbreviation prefix queries on initials are answered from the index.
+ */
+@Fts4(contentEntity = NoteSearchEntity::class, prefix = [2, 3, 4, 5, 6, 7, 8])
 @Entity(tableName = "note_fts")
 data class NoteFts(
 
-    @ColumnInfo
-    var id:Long,
-
-    @ColumnInfo(name = "page_index")
-    var pageIndex: Int,
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    var rowId: Long,
 
     @ColumnInfo
     var title: String? = null,
@@ -21,6 +33,9 @@ data class NoteFts(
     var summary: String? = null,
 
     @ColumnInfo
-    var content: String? = null
+    var content: String? = null,
+
+    @ColumnInfo
+    var initials: String? = null
 
-)
\ No newline at end of file
+)
@@ -0,0 +1,47 @@
+package com.easynote.data.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.easynote.data.common.utils.ToPinyin
+
+/**
+ * Searchable (pinyin) text of one note page, or of the note itself when [pageId] is null.
+ *
+ * Pages are keyed by their PageStore id, which a page keeps when pages before it are
+ * deleted or moved, so its row never has to be renumbered.
+ *
+ * [initials] holds the pinyin initials of the row text, see [ToPinyin.convertToInitials].
+ *
+ * This is the external content table of [NoteFts]: the FTS table only keeps the inverted
+ * index and reads the row text from here, so the text is stored once.
+ */
+@Entity(
+    tableName = "note_search",
+    indices = [
+        Index(value = ["note_id", "page_id"], unique = true)
+    ]
+)
+data class NoteSearchEntity(
+    @PrimaryKey(autoGenerate = true)
+    var id: Long? = null,
+
+    @ColumnInfo(name = "note_id")
+    var noteId: Long,
+
+    @ColumnInfo(name = "page_id")
+    var pageId: Int? = null,
+
+    @ColumnInfo
+    var title: String? = null,
+
+    @ColumnInfo
+    var summary: String? = null,
+
+    @ColumnInfo
+    var content: String? = null,
+
+    @ColumnInfo
+    var initials: String? = null
+)
@@ -2,11 +2,29 @@ package com.easynote.data.entity
 
 import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.ForeignKey
 import androidx.room.Index
 
+/**
+ * Refs go with their note or tag: deleting either cascades here in the same statement.
+ */
 @Entity(
     tableName = "note_tag_ref",
     primaryKeys = ["note_id", "tag_id"],
+    foreignKeys = [
+        ForeignKey(
+            entity = NoteEntity::class,
+            parentColumns = ["id"],
+            childColumns = ["note_id"],
+            onDelete = ForeignKey.CASCADE
+        ),
+        ForeignKey(
+            entity = TagEntity::class,
+            parentColumns = ["id"],
+            childColumns = ["tag_id"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ],
     indices = [
         Index(value = ["note_id"]),
         Index(value = ["tag_id"])
@@ -16,4 +34,4 @@ data class NoteTagCrossRef(
     @ColumnInfo(name = "note_id") val noteId: Long,
     @ColumnInfo(name = "tag_id") val tagId: Long
 ) {
-}
\ No newline at end of file
+}
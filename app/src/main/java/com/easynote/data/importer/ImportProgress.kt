@@ -0,0 +1,17 @@
+package com.easynote.data.importer
+
+/**
+ * Progress of a [NoteImporter] run, emitted after every committed chunk.
+ *
+ * @param total Number of importable files found in the directory.
+ * @param imported Files committed as notes so far.
+ * @param failed Files skipped because they could not be read.
+ */
+data class ImportProgress(
+    val total: Int,
+    val imported: Int,
+    val failed: Int
+) {
+    val finished: Boolean
+        get() = imported + failed >= total
+}
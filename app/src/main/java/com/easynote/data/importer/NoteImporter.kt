@@ -0,0 +1,278 @@
+package com.easynote.data.importer
+
+import android.app.Application
+import android.text.Html
+import android.text.TextUtils
+import android.util.Log
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.easynote.data.annotation.CHANGE_FILES
+import com.easynote.data.common.constants.DataExceptionConstants
+import com.easynote.data.common.exception.DataException
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.repository.FileRepository
+import com.easynote.data.repository.impl.FileRepositoryImpl
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import java.io.File
+
+/**
+ * Bulk import of a directory of HTML, Markdown and text files, one note per file.
+ *
+ * The file name becomes the title and the top level folder below the imported directory a
+ * tag. Files are parsed and converted to pinyin outside of the database, then notes, tags,
+ * tag refs, search rows and change journal entries of a chunk are written with prepared
+ * statements in one transaction. The transactions are opened on the raw database, which
+ * Room does not notice: its observers (home list, [com.easynote.data.indexer.TagIndex], ...)
+ * are notified once when the import ends instead of once per chunk.
+ *
+ * Page files of a chunk are written after its commit. Should that fail, the import stops
+ * with the notes of earlier chunks kept.
+ */
+class NoteImporter internal constructor(
+    private val noteDatabase: NoteDatabase,
+    private val fileRepository: FileRepository,
+    private val pinYinConverter: ToPinyin,
+    private val chunkSize: Int = CHUNK_SIZE
+) {
+    private class ImportedNote(
+        val title: String,
+        val summary: String,
+        val htmlContent: String,
+        val content: String,
+        val time: Long,
+        val tagName: String?,
+        val searchTitle: String?,
+        val searchSummary: String?,
+        val searchContent: String?,
+        val noteInitials: String?,
+        val pageInitials: String?
+    )
+
+    /**
+     * Import every supported file below [directory].
+     *
+     * @return A cold flow of the progress, starting with nothing imported. The import runs
+     * while it is collected.
+     */
+    fun import(directory: File): Flow<ImportProgress> = flow {
+        val files = directory.walkTopDown()
+            .filter { it.isFile && it.extension.lowercase() in EXTENSIONS }
+            .sortedBy { it.path }
+            .toList()
+        var imported = 0
+        var failed = 0
+        emit(ImportProgress(files.size, imported, failed))
+
+        val tagIds = HashMap<String, Long>()
+        noteDatabase.getTagEntityDao().getAll().forEach { tag ->
+            val name = tag.name
+            val id = tag.id
+            if (name != null && id != null) {
+                tagIds.putIfAbsent(name, id)
+            }
+        }
+        try {
+            for (chunk in files.chunked(chunkSize)) {
+                val notes = chunk.mapNotNull { file ->
+                    try {
+                        read(directory, file)
+                    } catch (e: Exception) {
+                        Log.w(TAG, "读取导入文件失败: ${file.path}", e)
+                        failed++
+                        null
+                    }
+                }
+                val noteIds = try {
+                    writeChunk(notes, tagIds)
+                } catch (e: Exception) {
+                    throw DataException(e, DataExceptionConstants.DB_INSERT_DATA_FAILED)
+                }
+                notes.forEachIndexed { i, note ->
+                    fileRepository.insertFile(noteIds[i], FIRST_PAGE, note.content, note.htmlContent)
+                }
+                imported += notes.size
+                emit(ImportProgress(files.size, imported, failed))
+            }
+        } finally {
+            noteDatabase.invalidationTracker.refreshVersionsAsync()
+        }
+    }.flowOn(Dispatchers.IO)
+
+    private fun read(root: File, file: File): ImportedNote {
+        val text = file.readText(Charsets.UTF_8)
+        val htmlContent = when (file.extension.lowercase()) {
+            "html", "htm" -> text
+            "md", "markdown" -> toHtml(text, markdown = true)
+            else -> toHtml(text, markdown = false)
+        }
+        val content = Html.fromHtml(htmlContent, Html.FROM_HTML_MODE_LEGACY).toString()
+        val title = file.nameWithoutExtension
+        val summary = content.trim().take(SUMMARY_LENGTH)
+        val relativePath = file.relativeTo(root).invariantSeparatorsPath
+        val time = file.lastModified().takeIf { it > 0 } ?: System.currentTimeMillis()
+        return ImportedNote(
+            title = title,
+            summary = summary,
+            htmlContent = htmlContent,
+            content = content,
+            time = time,
+            tagName = relativePath.substringBefore('/', "").ifEmpty { null },
+            searchTitle = pinYinConverter.convertToPinyin(title),
+            searchSummary = pinYinConverter.convertToPinyin(summary),
+            searchContent = pinYinConverter.convertToPinyin(content),
+            noteInitials = pinYinConverter.convertToInitials("$title\n$summary"),
+            pageInitials = pinYinConverter.convertToInitials(content)
+        )
+    }
+
+    /**
+     * Paragraphs are separated by blank lines; with [markdown], lines starting with # are
+     * headings. Other markup is kept as text.
+     */
+    private fun toHtml(text: String, markdown: Boolean): String {
+        val html = StringBuilder()
+        val paragraph = mutableListOf<String>()
+        fun closeParagraph() {
+            if (paragraph.isNotEmpty()) {
+                html.append("<p>").append(paragraph.joinToString("<br>")).append("</p>")
+                paragraph.clear()
+            }
+        }
+        for (line in text.lines()) {
+            val heading = if (markdown) HEADING.matchEntire(line.trim()) else null
+            when {
+                heading != null -> {
+                    closeParagraph()
+                    val level = heading.groupValues[1].length
+                    html.append("<h$level>")
+                        .append(TextUtils.htmlEncode(heading.groupValues[2]))
+                        .append("</h$level>")
+                }
+
+                line.isBlank() -> closeParagraph()
+                else -> paragraph.add(TextUtils.htmlEncode(line))
+            }
+        }
+        closeParagraph()
+        return html.toString()
+    }
+
+    /**
+     * Write one chunk in a single transaction.
+     *
+     * @param tagIds Tag ids by name, extended with the tags this chunk creates once it is
+     * committed.
+     * @return The ids of the new notes, in the order of [notes].
+     */
+    private fun writeChunk(notes: List<ImportedNote>, tagIds: MutableMap<String, Long>): List<Long> {
+        val db = noteDatabase.openHelper.writableDatabase
+        val createdTags = HashMap<String, Long>()
+        val noteIds = ArrayList<Long>(notes.size)
+        val statements = mutableListOf<SupportSQLiteStatement>()
+        fun compile(sql: String) = db.compileStatement(sql).also { statements.add(it) }
+        db.beginTransaction()
+        try {
+            val insertNote = compile(INSERT_NOTE)
+            val insertSearch = compile(INSERT_SEARCH)
+            val insertTag = compile(INSERT_TAG)
+            val insertTagRef = compile(INSERT_TAG_REF)
+            val insertJournal = compile(INSERT_JOURNAL)
+            for (note in notes) {
+                insertNote.bindString(1, note.title)
+                insertNote.bindString(2, note.summary)
+                insertNote.bindLong(3, note.time)
+                insertNote.bindLong(4, note.time)
+                val noteId = insertNote.executeInsert()
+                noteIds.add(noteId)
+
+                insertSearch.insertSearchRow(
+                    noteId,
+                    null,
+                    note.searchTitle,
+                    note.searchSummary,
+                    null,
+                    note.noteInitials
+                )
+                insertSearch.insertSearchRow(
+                    noteId,
+                    FIRST_PAGE,
+                    null,
+                    null,
+                    note.searchContent,
+                    note.pageInitials
+                )
+
+                insertJournal.bindLong(1, noteId)
+                insertJournal.bindLong(2, System.currentTimeMillis())
+                insertJournal.executeInsert()
+
+                val tagName = note.tagName ?: continue
+                val tagId = tagIds[tagName] ?: createdTags.getOrPut(tagName) {
+                    insertTag.bindString(1, tagName)
+                    insertTag.executeInsert()
+                }
+                insertTagRef.bindLong(1, noteId)
+                insertTagRef.bindLong(2, tagId)
+                insertTagRef.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            statements.forEach { it.close() }
+            db.endTransaction()
+        }
+        tagIds.putAll(createdTags)
+        return noteIds
+    }
+
+    private fun SupportSQLiteStatement.insertSearchRow(
+        noteId: Long,
+        pageId: Int?,
+        title: String?,
+        summary: String?,
+        content: String?,
+        initials: String?
+    ) {
+        bindLong(1, noteId)
+        if (pageId == null) bindNull(2) else bindLong(2, pageId.toLong())
+        listOf(title, summary, content, initials).forEachIndexed { i, value ->
+            if (value == null) bindNull(i + 3) else bindString(i + 3, value)
+        }
+        executeInsert()
+    }
+
+    companion object {
+        private const val TAG = "NoteImporter"
+        private const val CHUNK_SIZE = 200
+        private const val FIRST_PAGE = 1
+        private const val SUMMARY_LENGTH = 100
+        private val EXTENSIONS = setOf("html", "htm", "md", "markdown", "txt")
+        private val HEADING = Regex("(#{1,6})\\s+(.*)")
+
+        private const val INSERT_NOTE =
+            "INSERT INTO note(title, summary, create_time, update_time, favorite_time, is_favorite) " +
+                    "VALUES(?, ?, ?, ?, 0, 0)"
+        private const val INSERT_SEARCH =
+            "INSERT INTO note_search(note_id, page_id, title, summary, content, initials) " +
+                    "VALUES(?, ?, ?, ?, ?, ?)"
+        private const val INSERT_TAG = "INSERT INTO tag(name) VALUES(?)"
+        private const val INSERT_TAG_REF =
+            "INSERT OR IGNORE INTO note_tag_ref(note_id, tag_id) VALUES(?, ?)"
+        private const val INSERT_JOURNAL =
+            "INSERT INTO change_journal(note_id, kind, change_time) VALUES(?, '$CHANGE_FILES', ?)"
+
+        @Volatile
+        private var instance: NoteImporter? = null
+
+        fun getInstance(application: Application): NoteImporter =
+            instance ?: synchronized(this) {
+                instance ?: NoteImporter(
+                    NoteDatabase.getInstance(application),
+                    FileRepositoryImpl(application),
+                    ToPinyin(application.applicationContext)
+                ).also { instance = it }
+            }
+    }
+}
@@ -0,0 +1,237 @@
+package com.easynote.data.indexer
+
+import android.app.Application
+import android.util.Log
+import androidx.room.withTransaction
+import com.easynote.data.common.utils.ToPinyin
+import com.easynote.data.dao.NoteEntityDao
+import com.easynote.data.dao.NoteFtsDao
+import com.easynote.data.database.NoteDatabase
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+
+/**
+ * Background writer of the note_search / note_fts index.
+ *
+ * Saves only enqueue work here. Pending work is kept per (noteId, pageId), so repeated
+ * saves of the same page collapse into one write, and each drain converts to pinyin and
+ * pinyin initials and commits the whole batch in a single transaction off the save path.
+ */
+class SearchIndexer internal constructor(
+    private val noteDatabase: NoteDatabase,
+    private val pinYinConverter: ToPinyin
+) {
+    private val noteFtsDao: NoteFtsDao = noteDatabase.getNoteContentSearchDao()
+    private val noteEntityDao: NoteEntityDao = noteDatabase.getNoteEntityDao()
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val pending = LinkedHashMap<IndexKey, IndexTask>()
+
+    // Pages and notes discarded since the running drain took its batch, guarded by pending.
+    private val discardedPages = HashSet<IndexKey>()
+    private val discardedNotes = HashSet<Long>()
+    private val drainMutex = Mutex()
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+
+    private data class IndexKey(val noteId: Long, val pageId: Int?)
+
+    private data class IndexTask(
+        val noteId: Long,
+        val pageId: Int?,
+        val title: String?,
+        val summary: String?,
+        val content: String?,
+        val initials: String? = null
+    )
+
+    init {
+        scope.launch {
+            try {
+                verify()
+            } catch (e: Exception) {
+                Log.e(TAG, "校验搜索索引失败", e)
+            }
+        }
+        scope.launch {
+            for (ignored in signal) {
+                delay(COALESCE_WINDOW_MS)
+                try {
+                    drain()
+                } catch (e: Exception) {
+                    Log.e(TAG, "更新搜索索引失败", e)
+                    delay(RETRY_DELAY_MS)
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue an index update. Null fields keep the value of earlier pending work or of the
+     * stored row, like [NoteFtsDao.update].
+     */
+    fun enqueue(
+        noteId: Long,
+        pageId: Int? = null,
+        title: String? = null,
+        summary: String? = null,
+        content: String? = null
+    ) {
+        synchronized(pending) {
+            merge(IndexTask(noteId, pageId, title, summary, content))
+        }
+        signal.trySend(Unit)
+    }
+
+    /**
+     * Drop pending work of deleted notes, including work a running drain has not written yet.
+     */
+    fun discard(noteIds: Set<Long>) {
+        synchronized(pending) {
+            pending.keys.removeAll { it.noteId in noteIds }
+            discardedNotes.addAll(noteIds)
+        }
+    }
+
+    /**
+     * Drop pending work of a deleted page, including work a running drain has not written yet.
+     */
+    fun discard(noteId: Long, pageId: Int) {
+        synchronized(pending) {
+            val key = IndexKey(noteId, pageId)
+            pending.remove(key)
+            discardedPages.add(key)
+        }
+    }
+
+    /**
+     * Merge [task] into the pending work of its page; the non-null fields of [task] win.
+     * Callers hold the lock on pending.
+     */
+    private fun merge(task: IndexTask) {
+        val key = IndexKey(task.noteId, task.pageId)
+        val previous = pending[key]
+        pending[key] = IndexTask(
+            task.noteId,
+            task.pageId,
+            task.title ?: previous?.title,
+            task.summary ?: previous?.summary,
+            task.content ?: previous?.content
+        )
+    }
+
+    /**
+     * Whether the page of [task] or its note was discarded since the running drain began.
+     * Callers hold the lock on pending.
+     */
+    private fun isDiscarded(task: IndexTask): Boolean =
+        task.noteId in discardedNotes || IndexKey(task.noteId, task.pageId) in discardedPages
+
+    /**
+     * Check the index against the notes before it is relied on.
+     *
+     * A prebuilt asset ships with a complete index and passes without work. Otherwise
+     * note_fts is rebuilt when it does not cover every note_search row, and notes without a
+     * note row (e.g. copied from a raw seed database) are queued for indexing.
+     */
+    suspend fun verify() = withContext(Dispatchers.IO) {
+        val db = noteDatabase.openHelper.writableDatabase
+        val rows = db.query("SELECT COUNT(*) FROM note_search").use { it.moveToFirst(); it.getLong(0) }
+        val indexed = db.query("SELECT COUNT(*) FROM note_fts_docsize").use { it.moveToFirst(); it.getLong(0) }
+        if (rows != indexed) {
+            Log.w(TAG, "搜索索引不完整，重建: $indexed/$rows")
+            db.execSQL("INSERT INTO note_fts(note_fts) VALUES('rebuild')")
+        }
+        noteFtsDao.getUnindexedNoteIds().forEach { noteId -> enqueue(noteId) }
+    }
+
+    /**
+     * Write all work queued so far and wait until it is committed.
+     */
+    suspend fun flush() = withContext(Dispatchers.IO) {
+        drain()
+    }
+
+    private suspend fun drain() = drainMutex.withLock {
+        val batch = synchronized(pending) {
+            discardedPages.clear()
+            discardedNotes.clear()
+            pending.values.toList().also { pending.clear() }
+        }
+        if (batch.isEmpty()) {
+            return@withLock
+        }
+        try {
+            val converted = batch.mapNotNull { task ->
+                if (task.pageId == null) {
+                    // The note row indexes title and summary together, so its initials are
+                    // rebuilt from the stored note instead of the partial update.
+                    val note = noteEntityDao.getById(task.noteId) ?: return@mapNotNull null
+                    task.copy(
+                        title = pinYinConverter.convertToPinyin(note.title),
+                        summary = pinYinConverter.convertToPinyin(note.summary),
+                        initials = pinYinConverter.convertToInitials(
+                            listOfNotNull(note.title, note.summary).joinToString("\n")
+                        )
+                    )
+                } else {
+                    task.copy(
+                        content = pinYinConverter.convertToPinyin(task.content),
+                        initials = pinYinConverter.convertToInitials(task.content)
+                    )
+                }
+            }
+            noteDatabase.withTransaction {
+                converted.forEach { task ->
+                    // Checked in the transaction: a delete that follows its discard waits for
+                    // the commit, so the row is either skipped here or deleted after it.
+                    if (synchronized(pending) { isDiscarded(task) }) return@forEach
+                    noteFtsDao.upsert(
+                        task.noteId,
+                        task.pageId,
+                        task.title,
+                        task.summary,
+                        task.content,
+                        task.initials
+                    )
+                }
+            }
+        } catch (e: Exception) {
+            // Back in the queue under newer work, which wins field by field, and retried.
+            synchronized(pending) {
+                batch.forEach { task ->
+                    if (isDiscarded(task)) return@forEach
+                    val key = IndexKey(task.noteId, task.pageId)
+                    val newer = pending[key]
+                    pending[key] = task
+                    newer?.let { merge(it) }
+                }
+            }
+            signal.trySend(Unit)
+            throw e
+        }
+    }
+
+    companion object {
+        private const val TAG = "SearchIndexer"
+        private const val COALESCE_WINDOW_MS = 500L
+        private const val RETRY_DELAY_MS = 5_000L
+
+        @Volatile
+        private var instance: SearchIndexer? = null
+
+        fun getInstance(application: Application): SearchIndexer =
+            instance ?: synchronized(this) {
+                instance ?: SearchIndexer(
+                    NoteDatabase.getInstance(application),
+                    ToPinyin(application.applicationContext)
+                ).also { instance = it }
+            }
+    }
+}
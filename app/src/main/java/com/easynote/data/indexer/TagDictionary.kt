@@ -0,0 +1,121 @@
+package com.easynote.data.indexer
+
+import android.app.Application
+import androidx.paging.PagingSource
+import androidx.room.InvalidationTracker
+import com.easynote.data.dao.TagEntityDao
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.TagEntity
+import com.easynote.data.relation.NoteWithTagIds
+import com.easynote.data.relation.NoteWithTags
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+
+/**
+ * All tags by id, kept in memory so note pages only carry tag ids.
+ *
+ * The dictionary is reloaded on the next read after Room reports a write to the tag table,
+ * and every page shares the same [TagEntity] instances instead of loading its own copies.
+ */
+class TagDictionary internal constructor(private val noteDatabase: NoteDatabase) {
+    private val tagEntityDao: TagEntityDao = noteDatabase.getTagEntityDao()
+
+    private val mutex = Mutex()
+    private var tags: Map<Long, TagEntity> = emptyMap()
+    private var missingTagIds: Set<Long> = emptySet()
+
+    @Volatile
+    private var dirty = true
+
+    private val dependents = HashSet<PagingSource<*, *>>()
+
+    private val observer = object : InvalidationTracker.Observer(arrayOf("tag")) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+            synchronized(dependents) { dependents.toList() }.forEach { it.invalidate() }
+        }
+    }
+
+    init {
+        // Registering syncs Room's triggers, which must not happen on the main thread.
+        CoroutineScope(SupervisorJob() + Dispatchers.IO).launch {
+            noteDatabase.invalidationTracker.addObserver(observer)
+        }
+    }
+
+    /**
+     * Mark the dictionary stale, see [TagIndex.invalidate].
+     */
+    fun invalidate() {
+        dirty = true
+    }
+
+    /**
+     * Invalidate [source] on writes to the tag table as well. Room only watches the tables a
+     * query reads, and a query selecting tag ids never reads tag, so a renamed or deleted
+     * tag would otherwise stay on the loaded pages.
+     */
+    fun <T : PagingSource<*, *>> invalidateOnTagChange(source: T): T {
+        synchronized(dependents) { dependents.add(source) }
+        // Runs at once for a source already invalid.
+        source.registerInvalidatedCallback {
+            synchronized(dependents) { dependents.remove(source) }
+        }
+        return source
+    }
+
+    /**
+     * Resolve the tags of every note in [notes].
+     */
+    suspend fun toNotesWithTags(notes: List<NoteWithTagIds>): List<NoteWithTags> {
+        if (notes.isEmpty()) return emptyList()
+        val tags = snapshot(notes)
+        return notes.map { note -> NoteWithTags(note.noteEntity, resolve(note.tagIds, tags)) }
+    }
+
+    /**
+     * Resolve the tags of a single note, see [toNotesWithTags].
+     */
+    suspend fun toNoteWithTags(note: NoteWithTagIds): NoteWithTags =
+        NoteWithTags(note.noteEntity, resolve(note.tagIds, snapshot(listOf(note))))
+
+    private suspend fun snapshot(notes: List<NoteWithTagIds>): Map<Long, TagEntity> =
+        withContext(Dispatchers.IO) {
+            mutex.withLock {
+                // A tag created right before the note was tagged may not have been reported
+                // yet, so an unknown id reloads as well, once, in case the ref is dangling.
+                if (dirty) {
+                    missingTagIds = emptySet()
+                }
+                val unknown = notes.flatMap { note -> tagIdsOf(note.tagIds).toList() }
+                    .filterTo(HashSet()) { it !in tags && it !in missingTagIds }
+                if (dirty || unknown.isNotEmpty()) {
+                    dirty = false
+                    tags = tagEntityDao.getAll().associateBy { it.id!! }
+                    missingTagIds = missingTagIds + unknown.filter { it !in tags }
+                }
+                tags
+            }
+        }
+
+    private fun resolve(tagIds: String?, tags: Map<Long, TagEntity>): List<TagEntity> =
+        tagIdsOf(tagIds).mapNotNull { tags[it] }.toList()
+
+    private fun tagIdsOf(tagIds: String?): Sequence<Long> =
+        if (tagIds.isNullOrEmpty()) emptySequence() else tagIds.splitToSequence(',').map { it.toLong() }
+
+    companion object {
+        @Volatile
+        private var instance: TagDictionary? = null
+
+        fun getInstance(application: Application): TagDictionary =
+            instance ?: synchronized(this) {
+                instance ?: TagDictionary(NoteDatabase.getInstance(application)).also { instance = it }
+            }
+    }
+}
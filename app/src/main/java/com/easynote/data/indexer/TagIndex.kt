@@ -0,0 +1,123 @@
+package com.easynote.data.indexer
+
+import android.app.Application
+import androidx.room.InvalidationTracker
+import com.easynote.data.dao.NoteTagCrossRefDao
+import com.easynote.data.database.NoteDatabase
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import org.roaringbitmap.FastAggregation
+import org.roaringbitmap.RoaringBitmap
+
+/**
+ * In-memory index from tag id to the ids of its notes, kept as compressed bitmaps.
+ *
+ * It is built from the note_tag_ref rows of live notes on first use and rebuilt on the next
+ * read after Room reports a write to note_tag_ref, so tag filters and counts are answered
+ * without a join. The note table is not observed, as most of its writes are edits that leave
+ * the tags alone; moving notes to and from the trash calls [invalidate] instead, so the index
+ * never includes notes in the trash. Note ids are
+ * AUTOINCREMENT rowids; should one ever leave the int range the index turns itself off and
+ * every query returns null, which callers treat as "ask SQLite".
+ */
+class TagIndex internal constructor(private val noteDatabase: NoteDatabase) {
+    private val noteTagRefDao: NoteTagCrossRefDao = noteDatabase.getNoteTagCrossRefDao()
+
+    private val mutex = Mutex()
+    private var notesByTag: Map<Long, RoaringBitmap> = emptyMap()
+    private var usable = true
+
+    @Volatile
+    private var dirty = true
+
+    private val observer = object : InvalidationTracker.Observer(arrayOf("note_tag_ref")) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+
+    init {
+        // Registering syncs Room's triggers, which must not happen on the main thread.
+        CoroutineScope(SupervisorJob() + Dispatchers.IO).launch {
+            noteDatabase.invalidationTracker.addObserver(observer)
+        }
+    }
+
+    /**
+     * Mark the index stale. Writers that change which notes are live or which tags they carry
+     * call this, so a read right after the write does not depend on Room's notification;
+     * observers that react to note_tag_ref themselves call it before reading, so they never
+     * see the index from before the write they were told about.
+     */
+    fun invalidate() {
+        dirty = true
+    }
+
+    /**
+     * Ids of the notes carrying every tag of [tagIds].
+     */
+    suspend fun notesWithAllTags(tagIds: Set<Long>): RoaringBitmap? = read { index ->
+        val bitmaps = tagIds.map { index[it] ?: return@read RoaringBitmap() }
+        when (bitmaps.size) {
+            0 -> RoaringBitmap()
+            1 -> bitmaps[0].clone()
+            else -> FastAggregation.and(bitmaps.iterator())
+        }
+    }
+
+    /**
+     * Ids of the notes carrying any tag of [tagIds], or any tag at all when it is empty.
+     */
+    suspend fun notesWithAnyTag(tagIds: Set<Long>): RoaringBitmap? = read { index ->
+        val bitmaps = if (tagIds.isEmpty()) index.values else tagIds.mapNotNull { index[it] }
+        FastAggregation.or(bitmaps.iterator())
+    }
+
+    /**
+     * Number of notes carrying any tag of [tagIds], see [notesWithAnyTag].
+     */
+    suspend fun countWithAnyTag(tagIds: Set<Long>): Int? =
+        notesWithAnyTag(tagIds)?.cardinality
+
+    private suspend fun <T> read(block: (Map<Long, RoaringBitmap>) -> T): T? =
+        withContext(Dispatchers.IO) {
+            mutex.withLock {
+                if (dirty) {
+                    rebuild()
+                }
+                if (usable) block(notesByTag) else null
+            }
+        }
+
+    private suspend fun rebuild() {
+        // Cleared before reading, so a write committed during the read marks it stale again.
+        dirty = false
+        val index = HashMap<Long, RoaringBitmap>()
+        for (ref in noteTagRefDao.getAllOfLiveNotes()) {
+            if (ref.noteId !in 0..Int.MAX_VALUE) {
+                usable = false
+                notesByTag = emptyMap()
+                return
+            }
+            index.getOrPut(ref.tagId) { RoaringBitmap() }.add(ref.noteId.toInt())
+        }
+        index.values.forEach { it.runOptimize() }
+        usable = true
+        notesByTag = index
+    }
+
+    companion object {
+        @Volatile
+        private var instance: TagIndex? = null
+
+        fun getInstance(application: Application): TagIndex =
+            instance ?: synchronized(this) {
+                instance ?: TagIndex(NoteDatabase.getInstance(application)).also { instance = it }
+            }
+    }
+}
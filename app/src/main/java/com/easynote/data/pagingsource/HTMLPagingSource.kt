@@ -2,14 +2,52 @@ package com.easynote.data.pagingsource
 
 import androidx.paging.PagingSource
 import androidx.paging.PagingState
+import com.easynote.data.storage.PageStore
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import java.io.File
 import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 
+/**
+ * Chunks of about [pageSizeBytes] of an HTML page, keyed by chunk number.
+ *
+ * The page is taken once from [source], a mapping wherever it is stored uncompressed, and
+ * every load decodes straight from that buffer. Chunks end on safe split points only: never
+ * inside a tag, a character entity or a multi-byte UTF-8 character, so each chunk is valid
+ * text and markup on its own. The start offsets of the chunks are found once, as far as
+ * loads have reached, and kept in a sparse index of one entry per chunk. A chunk only grows
+ * past [pageSizeBytes] when a single tag is longer.
+ */
 class HTMLPagingSource(
-    private val file: File,
+    private val source: () -> ByteBuffer?,
     val pageSizeBytes: Int = 4096
 ) : PagingSource<Int, String>() {
-    private val fileLength by lazy { file.length() }
+
+    /**
+     * A page of [pageStore]; a page the store does not have has no chunks.
+     */
+    constructor(pageStore: PageStore, noteId: Long, pageIndex: Int, pageSizeBytes: Int = 4096) :
+            this({ pageStore.mapHtml(noteId, pageIndex) }, pageSizeBytes)
+
+    constructor(file: File, pageSizeBytes: Int = 4096) : this({
+        RandomAccessFile(file, "r").use { raf ->
+            // The mapping stays valid after the channel is closed.
+            raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+        }
+    }, pageSizeBytes)
+
+    private val buffer: ByteBuffer by lazy { source() ?: ByteBuffer.allocate(0) }
+    private val length get() = buffer.limit()
+
+    // chunkStarts[k] is the offset of chunk k, chunk k ends where chunk k + 1 starts.
+    private var chunkStarts = IntArray(16)
+    private var chunkCount = 1
+
+    init {
+        require(pageSizeBytes > 0) { "pageSizeBytes must be positive" }
+    }
 
     override fun getRefreshKey(state: PagingState<Int, String>): Int? {
         return state.anchorPosition?.let { pos ->
@@ -18,35 +56,94 @@ class HTMLPagingSource(
         }
     }
 
-    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, String> {
-        return try {
+    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, String> = withContext(Dispatchers.IO) {
+        try {
             val pageIndex = params.key ?: 0
-            val startOffset = pageIndex * pageSizeBytes
-            if (startOffset >= fileLength) {
-                return LoadResult.Page(
-                    data = emptyList(),
-                    prevKey = if (pageIndex == 0) null else pageIndex - 1,
-                    nextKey = null
-                )
+            val prevKey = if (pageIndex == 0) null else pageIndex - 1
+            val start = chunkStart(pageIndex)
+            if (start >= length) {
+                return@withContext LoadResult.Page(emptyList(), prevKey, null)
             }
-            val bufferSize = minOf(pageSizeBytes.toLong(), fileLength - startOffset)
-                .toInt()
-            val buffer = ByteArray(bufferSize)
-            RandomAccessFile(file, "r").use { raf ->
-                raf.seek(startOffset.toLong())
-                raf.read(buffer)
+            val end = chunkStart(pageIndex + 1)
+            val chunk = buffer.duplicate().apply {
+                limit(end)
+                position(start)
             }
-
-            val text = String(buffer, Charsets.UTF_8)
-
             LoadResult.Page(
-                data = listOf(text),
-                prevKey = if (pageIndex == 0) null else pageIndex - 1,
-                nextKey = if (startOffset + bufferSize >= fileLength) null else pageIndex + 1
+                data = listOf(Charsets.UTF_8.decode(chunk).toString()),
+                prevKey = prevKey,
+                nextKey = if (end >= length) null else pageIndex + 1
             )
         } catch (e: Exception) {
             LoadResult.Error(e)
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * The start offset of chunk [index], extending the index up to it; the page length for
+     * chunks past the end.
+     */
+    private fun chunkStart(index: Int): Int = synchronized(this) {
+        while (chunkCount <= index) {
+            val last = chunkStarts[chunkCount - 1]
+            if (last >= length) return length
+            if (chunkCount == chunkStarts.size) {
+                chunkStarts = chunkStarts.copyOf(chunkCount * 2)
+            }
+            chunkStarts[chunkCount++] = nextChunkStart(last)
+        }
+        chunkStarts[index]
+    }
+
+    private fun nextChunkStart(start: Int): Int {
+        val end = start + pageSizeBytes
+        if (end >= length) return length
+        val cut = safeCutBefore(start, end)
+        if (cut > start) return cut
+        // The whole window is one tag: end the chunk after it.
+        for (i in end until length) {
+            if (buffer.get(i) == GT) return i + 1
+        }
+        return length
+    }
+
+    /**
+     * The last safe split point in (start, end], or [start] when there is none.
+     */
+    private fun safeCutBefore(start: Int, end: Int): Int {
+        var cut = end
+        // A '<' after the last '>' means end falls inside a tag.
+        for (i in end - 1 downTo start) {
+            val b = buffer.get(i)
+            if (b == GT) break
+            if (b == LT) {
+                cut = i
+                break
+            }
+        }
+        // An '&' not closed by ';' means cut falls inside an entity like &#20013;.
+        for (i in cut - 1 downTo maxOf(start, cut - MAX_ENTITY_LENGTH)) {
+            val b = buffer.get(i)
+            if (b == SEMICOLON || b == GT || b == LT) break
+            if (b == AMP) {
+                cut = i
+                break
+            }
+        }
+        // Continuation bytes (10xxxxxx) are never the first byte of a character.
+        while (cut > start && buffer.get(cut).toInt() and 0xC0 == 0x80) {
+            cut--
+        }
+        return cut
+    }
+
+    companion object {
+        private const val LT = '<'.code.toByte()
+        private const val GT = '>'.code.toByte()
+        private const val AMP = '&'.code.toByte()
+        private const val SEMICOLON = ';'.code.toByte()
+
+        // Long enough for the longest named entity and any numeric one.
+        private const val MAX_ENTITY_LENGTH = 32
+    }
+}
@@ -0,0 +1,26 @@
+package com.easynote.data.pagingsource
+
+import com.easynote.data.entity.NoteEntity
+
+/**
+ * Position of a note in the home list: the values of every column the list is sorted on.
+ */
+data class NoteCursor(
+    val isFavorite: Boolean,
+    val favoriteTime: Long,
+    val updateTime: Long,
+    val createTime: Long,
+    val title: String,
+    val id: Long
+) {
+    companion object {
+        fun of(noteEntity: NoteEntity) = NoteCursor(
+            isFavorite = noteEntity.isFavorite == true,
+            favoriteTime = noteEntity.favoriteTime ?: 0,
+            updateTime = noteEntity.updateTime ?: 0,
+            createTime = noteEntity.createTime ?: 0,
+            title = noteEntity.title ?: "",
+            id = noteEntity.id ?: 0
+        )
+    }
+}
@@ -0,0 +1,287 @@
+package com.easynote.data.pagingsource
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import androidx.sqlite.db.SimpleSQLiteQuery
+import com.easynote.data.annotation.CREATE_TIME_ASC
+import com.easynote.data.annotation.CREATE_TIME_DESC
+import com.easynote.data.annotation.NoteOrderWay
+import com.easynote.data.annotation.TITLE_ASC
+import com.easynote.data.annotation.TITLE_DESC
+import com.easynote.data.annotation.UPDATE_TIME_ASC
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.indexer.TagIndex
+import com.easynote.data.relation.NoteWithTagIds
+import com.easynote.data.relation.NoteWithTags
+import org.roaringbitmap.RoaringBitmap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Home list pages that seek from the last loaded note instead of skipping an OFFSET.
+ *
+ * The list is sorted on favorites first (newest pin first), then the [NoteOrderWay] column,
+ * then id, so every note has a unique [NoteCursor]. A page loads the notes strictly after
+ * (append) or before (prepend) a cursor, and its cost does not grow with the scroll depth.
+ * Null sort columns are normalized on write, see [NoteDatabase.CREATE_NOTE_SORT_COLUMN_TRIGGERS].
+ */
+class NoteKeysetPagingSource(
+    private val noteDatabase: NoteDatabase,
+    private val tagIds: Set<Long>?,
+    private val startTime: Long?,
+    private val endTime: Long?,
+    @NoteOrderWay orderWay: String,
+    private val tagDictionary: TagDictionary,
+    private val tagIndex: TagIndex? = null
+) : PagingSource<NoteCursor, NoteWithTags>() {
+    private val noteEntityDao = noteDatabase.getNoteEntityDao()
+    private val sortTerms = sortTermsOf(orderWay)
+
+    // Set once the observer is added, or once the source is invalid and it must not be.
+    private val observerRegistered = AtomicBoolean(false)
+    private val observer = object : InvalidationTracker.Observer(OBSERVED_TABLES) {
+        override fun onInvalidated(tables: Set<String>) {
+            // The next source reads the tag index at once, so it must not serve the old refs.
+            // Note writes leave the index alone; trash and purge invalidate it themselves.
+            if (NOTE_TAG_REF_TABLE in tables) tagIndex?.invalidate()
+            if (TAG_TABLE in tables) tagDictionary.invalidate()
+            invalidate()
+        }
+    }
+
+    init {
+        registerInvalidatedCallback {
+            if (!observerRegistered.compareAndSet(false, true)) {
+                noteDatabase.invalidationTracker.removeObserver(observer)
+            }
+        }
+    }
+
+    private class SortTerm(
+        val column: String,
+        val descending: Boolean,
+        val value: (NoteCursor) -> Any
+    )
+
+    override fun getRefreshKey(state: PagingState<NoteCursor, NoteWithTags>): NoteCursor? {
+        val anchorPosition = state.anchorPosition ?: return null
+        // Refresh loads from this note inclusive, so keep half a load above the anchor.
+        val position = maxOf(0, anchorPosition - state.config.initialLoadSize / 2)
+        return state.closestItemToPosition(position)?.noteEntity?.let { NoteCursor.of(it) }
+    }
+
+    override suspend fun load(params: LoadParams<NoteCursor>): LoadResult<NoteCursor, NoteWithTags> {
+        if (observerRegistered.compareAndSet(false, true)) {
+            // Added here, off the main thread, as adding syncs Room's triggers. Invalidated
+            // while adding, the callback may have run before the observer was there.
+            noteDatabase.invalidationTracker.addObserver(observer)
+            if (invalid) noteDatabase.invalidationTracker.removeObserver(observer)
+        }
+        return try {
+            val key = params.key
+            val taggedNotes = taggedNotes()?.let { notes ->
+                if (notes.isEmpty) return LoadResult.Page(emptyList(), null, null)
+                TaggedNotes(notes)
+            }
+            val result = when (params) {
+                is LoadParams.Prepend -> {
+                    val notes = query(key, taggedNotes, forward = false, inclusive = false, params.loadSize)
+                        .asReversed()
+                    LoadResult.Page(
+                        data = notes,
+                        prevKey = if (notes.size < params.loadSize) null else cursorOf(notes.first()),
+                        nextKey = key
+                    )
+                }
+
+                is LoadParams.Append -> {
+                    val notes = query(key, taggedNotes, forward = true, inclusive = false, params.loadSize)
+                    LoadResult.Page(
+                        data = notes,
+                        prevKey = key,
+                        nextKey = if (notes.size < params.loadSize) null else cursorOf(notes.last())
+                    )
+                }
+
+                is LoadParams.Refresh -> {
+                    val notes = query(key, taggedNotes, forward = true, inclusive = true, params.loadSize)
+                    LoadResult.Page(
+                        data = notes,
+                        prevKey = if (key == null) null else notes.firstOrNull()?.let { cursorOf(it) },
+                        nextKey = if (notes.size < params.loadSize) null else cursorOf(notes.last())
+                    )
+                }
+            }
+            if (invalid) LoadResult.Invalid() else result
+        } catch (e: Exception) {
+            LoadResult.Error(e)
+        }
+    }
+
+    /**
+     * Notes carrying every selected tag, read from [tagIndex], or null to filter in SQL
+     * (no tags selected, no index, or too many notes to bind).
+     */
+    private suspend fun taggedNotes(): RoaringBitmap? {
+        if (tagIds.isNullOrEmpty() || tagIndex == null) return null
+        val notes = tagIndex.notesWithAllTags(tagIds) ?: return null
+        return if (notes.cardinality > TAGGED_NOTE_IDS_LIMIT) null else notes
+    }
+
+    /**
+     * Load the notes after (or before) [cursor] in sort order.
+     *
+     * A single (c1, c2, ...) > (v1, v2, ...) comparison expanded into ORs cannot seek an
+     * index, so the rows are read level by level instead, from the last sort column to the
+     * first: equal on the columns before the level and past the cursor on the level column.
+     * Each level is a range on the composite index, and the levels come in sort order.
+     *
+     * Every level is a read statement of its own, outside a transaction: Room begins every
+     * transaction exclusively on the primary connection, where page loads would wait for
+     * saves. A write between two levels invalidates the source, whose page is then dropped.
+     */
+    private suspend fun query(
+        cursor: NoteCursor?,
+        taggedNotes: TaggedNotes?,
+        forward: Boolean,
+        inclusive: Boolean,
+        limit: Int
+    ): List<NoteWithTags> {
+        if (cursor == null) {
+            return query(taggedNotes, emptyList(), emptyList(), forward, limit)
+        }
+        val notes = mutableListOf<NoteWithTags>()
+        for (level in sortTerms.indices.reversed()) {
+            if (notes.size >= limit) break
+            val conditions = mutableListOf<String>()
+            val args = mutableListOf<Any>()
+            for (index in 0 until level) {
+                conditions += "${sortTerms[index].column} = ?"
+                args += sortTerms[index].value(cursor)
+            }
+            val term = sortTerms[level]
+            val operator = if (term.descending == forward) "<" else ">"
+            conditions += if (inclusive && level == sortTerms.lastIndex) {
+                "${term.column} $operator= ?"
+            } else {
+                "${term.column} $operator ?"
+            }
+            args += term.value(cursor)
+            notes += query(taggedNotes, conditions, args, forward, limit - notes.size)
+        }
+        return notes
+    }
+
+    private suspend fun query(
+        taggedNotes: TaggedNotes?,
+        seekConditions: List<String>,
+        seekArgs: List<Any>,
+        forward: Boolean,
+        limit: Int
+    ): List<NoteWithTags> {
+        // Equality on the leading index column, so the seek stays within the live notes.
+        val conditions = mutableListOf("n.deleted_at IS NULL")
+        val args = mutableListOf<Any>()
+        if (taggedNotes != null) {
+            // The unary + keeps SQLite from looking the ids up by rowid and sorting them: the
+            // rows are read in order from the sort index and checked against the ids.
+            conditions += TAGGED_NOTE_CONDITION
+            args += taggedNotes.count
+            args += taggedNotes.ids
+            args += taggedNotes.width
+            args += taggedNotes.width
+        } else if (!tagIds.isNullOrEmpty()) {
+            conditions += """
+                n.id IN (
+                    SELECT r.note_id
+                    FROM note_tag_ref AS r
+                    WHERE r.tag_id IN (${tagIds.joinToString(",") { "?" }})
+                    GROUP BY r.note_id
+                    HAVING COUNT(*) = ?
+                )
+            """.trimIndent()
+            args.addAll(tagIds)
+            args += tagIds.size
+        }
+        if (startTime != null) {
+            conditions += "n.update_time >= ?"
+            args += startTime
+        }
+        if (endTime != null) {
+            conditions += "n.update_time <= ?"
+            args += endTime
+        }
+        conditions += seekConditions
+        args.addAll(seekArgs)
+        val where = conditions.joinToString(" AND ", "WHERE ")
+        val orderBy = sortTerms.joinToString(", ") { term ->
+            "${term.column} ${if (term.descending == forward) "DESC" else "ASC"}"
+        }
+        args += limit
+        val notes = noteEntityDao.getWithTagIdsByQuery(
+            SimpleSQLiteQuery(
+                "SELECT n.*, ${NoteWithTagIds.TAG_IDS_COLUMN} FROM note AS n $where ORDER BY $orderBy LIMIT ?",
+                args.toTypedArray()
+            )
+        )
+        return tagDictionary.toNotesWithTags(notes)
+    }
+
+    /**
+     * Tagged note ids bound as one blob of fixed width decimal ids, so the statement text
+     * and the number of bind args stay the same whatever the set, and the statement runs
+     * on any connection. [TAGGED_NOTE_CONDITION] reads the ids back with substr, which
+     * indexes a blob by byte, and CAST, which reads a blob as text.
+     */
+    private class TaggedNotes(notes: RoaringBitmap) {
+        val count = notes.cardinality
+        val width = notes.last().toString().length
+        val ids = ByteArray(count * width).also { ids ->
+            var offset = 0
+            notes.forEach { noteId ->
+                val digits = noteId.toString()
+                repeat(width - digits.length) { ids[offset++] = '0'.code.toByte() }
+                digits.forEach { ids[offset++] = it.code.toByte() }
+            }
+        }
+    }
+
+    private fun cursorOf(note: NoteWithTags): NoteCursor = NoteCursor.of(note.noteEntity!!)
+
+    companion object {
+        private const val NOTE_TAG_REF_TABLE = "note_tag_ref"
+        private const val TAG_TABLE = "tag"
+        private val OBSERVED_TABLES = arrayOf("note", NOTE_TAG_REF_TABLE, TAG_TABLE)
+
+        // Above this the GROUP BY / HAVING subquery is cheaper than reading the bound ids.
+        private const val TAGGED_NOTE_IDS_LIMIT = 10_000
+
+        // Bound: the id count, the id blob, then the id width twice.
+        private val TAGGED_NOTE_CONDITION = """
+            +n.id IN (
+                WITH RECURSIVE tagged_note(i) AS (
+                    SELECT 0 UNION ALL SELECT i + 1 FROM tagged_note WHERE i + 1 < ?
+                )
+                SELECT CAST(substr(?, i * ? + 1, ?) AS INTEGER) FROM tagged_note
+            )
+        """.trimIndent()
+
+        private fun sortTermsOf(@NoteOrderWay orderWay: String): List<SortTerm> {
+            val key = when (orderWay) {
+                UPDATE_TIME_ASC -> SortTerm("n.update_time", false) { it.updateTime }
+                TITLE_ASC -> SortTerm("n.title", false) { it.title }
+                TITLE_DESC -> SortTerm("n.title", true) { it.title }
+                CREATE_TIME_DESC -> SortTerm("n.create_time", true) { it.createTime }
+                CREATE_TIME_ASC -> SortTerm("n.create_time", false) { it.createTime }
+                else -> SortTerm("n.update_time", true) { it.updateTime }
+            }
+            return listOf(
+                SortTerm("n.is_favorite", true) { if (it.isFavorite) 1 else 0 },
+                SortTerm("n.favorite_time", true) { it.favoriteTime },
+                key,
+                SortTerm("n.id", key.descending) { it.id }
+            )
+        }
+    }
+}
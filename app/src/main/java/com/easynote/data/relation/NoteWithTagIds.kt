@@ -0,0 +1,23 @@
+package com.easynote.data.relation
+
+import androidx.room.ColumnInfo
+import androidx.room.Embedded
+import com.easynote.data.entity.NoteEntity
+
+/**
+ * A note with the comma separated ids of its tags, read in the same statement as the note.
+ * The tags themselves come from [com.easynote.data.indexer.TagDictionary].
+ */
+data class NoteWithTagIds(
+    @Embedded val noteEntity: NoteEntity,
+    @ColumnInfo(name = "tag_ids") val tagIds: String?
+) {
+    companion object {
+        /**
+         * Select list item producing [tagIds] for a note aliased as n, served by the
+         * note_id index of note_tag_ref.
+         */
+        const val TAG_IDS_COLUMN =
+            "(SELECT group_concat(t.tag_id) FROM note_tag_ref AS t WHERE t.note_id = n.id) AS tag_ids"
+    }
+}
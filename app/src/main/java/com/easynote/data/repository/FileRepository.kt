@@ -1,24 +1,27 @@
 package com.easynote.data.repository
 
 import android.net.Uri
+import com.easynote.data.storage.PageContent
 
 interface FileRepository {
     /**
      * Insert a file path.
      *
      * @param fileName The path of the file to insert.
+     * @return The id of the page.
      */
     suspend fun insertFile(
         noteId: Long,
         pageIndex: Int,
         content: String,
         htmlContent: String,
-    )
+    ): Int
 
     /**
-     * Save an image to the note's image directory.
+     * Save an image of a page to the image store, which keeps one copy of equal images.
      *
      * @param noteId The id of the note.
+     * @param pageIndex The index of the page in the store, after every page delete so far.
      * @param imgUri The path of the image to save.
      * @return The new path of the saved image.
      */
@@ -29,11 +32,16 @@ interface FileRepository {
     ): String
 
     /**
-     * Delete a note page.
+     * The id of the page at [pageIndex], see PageStore.pageId.
+     */
+    suspend fun getPageId(noteId: Long, pageIndex: Int): Int
+
+    /**
+     * Delete a note page; the pages after it move down one index.
      *
-     * @param fileName The path of the file to delete.
+     * @return The id of the deleted page, or null when there was no such page.
      */
-    suspend fun deletePage(noteId: Long, pageIndex: Int)
+    suspend fun deletePage(noteId: Long, pageIndex: Int): Int?
 
     /**
      * Delete a note files.
@@ -47,13 +55,33 @@ interface FileRepository {
     /**
      * update a file path with html content.
      * @param oldName The old path of the file.
+     * @return The id of the page.
      */
     suspend fun updateFile(
         noteId: Long,
         pageIndex: Int,
         content: String,
         htmlContent: String,
-    )
+    ): Int
+
+    /**
+     * Update several pages of a note at once; after a crash either all of them are saved or
+     * none.
+     *
+     * @param noteId The id of the note.
+     * @param pages The pages to save.
+     * @return The ids of the pages, in the order of [pages].
+     */
+    suspend fun updateFiles(noteId: Long, pages: List<PageContent>): List<Int>
+
+    /**
+     * Find the pages whose HTML differs from the saved one.
+     *
+     * @param noteId The id of the note.
+     * @param htmlContents The HTML content by page index.
+     * @return The indexes of the changed pages, including pages never saved.
+     */
+    suspend fun getChangedPages(noteId: Long, htmlContents: Map<Int, String>): Set<Int>
 
     /**
      * Read a file content.
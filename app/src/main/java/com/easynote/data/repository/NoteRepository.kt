@@ -46,12 +46,27 @@ interface NoteRepository {
     suspend fun deleteNoteById(id: Set<Long>)
 
     /**
-     * Delete a specific page from a note.
+     * Move notes to the trash. They leave every list, search and count at once and stay
+     * restorable until [com.easynote.data.trash.TrashPurger] purges them.
+     *
+     * @param id
+     */
+    suspend fun moveNotesToTrash(id: Set<Long>)
+
+    /**
+     * Bring notes back from the trash.
+     *
+     * @param id
+     */
+    suspend fun restoreNotesFromTrash(id: Set<Long>)
+
+    /**
+     * Delete the search row of a note page.
      *
      * @param noteId
-     * @param pageIndex
+     * @param pageId The id of the page, see PageStore.
      */
-    suspend fun deleteNotePage(noteId: Long, pageIndex: Int)
+    suspend fun deleteNotePage(noteId: Long, pageId: Int)
 
     /**
      * Update a note.
@@ -145,6 +160,12 @@ interface NoteRepository {
      */
     fun searchNotesByQueryFlow(query: String, pageSize: Int): Flow<PagingData<NoteWithTags>>
 
+    /**
+     * Get the notes in the trash, most recently deleted first, as a paging flow.
+     * @return Flow<PagingData<NoteWithTags>>
+     */
+    fun getTrashedNotesPagingFlow(pageSize: Int): Flow<PagingData<NoteWithTags>>
+
     /**
      * Update the update time of a note.
      *
@@ -161,19 +182,25 @@ interface NoteRepository {
     suspend fun getNoteCountByTags(tagIds: Set<Long>): Int
 
     /**
-     * Update the search table for a note.
+     * Queue an update of the search table for a note, it is written in the background.
      *
      * @param noteId
+     * @param pageId The id of the page, null for the note's title and summary.
      * @param content
      */
     suspend fun updateSearchTable(
         noteId: Long,
-        pageIndex: Int? = null,
+        pageId: Int? = null,
         title: String? = null,
         summary: String? = null,
         content: String? = null
     )
 
+    /**
+     * Write all queued search table updates and wait until they are committed.
+     */
+    suspend fun flushSearchIndex()
+
     /**
      * Get all notes with their associated tags as a flow.
      *
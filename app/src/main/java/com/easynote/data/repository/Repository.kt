@@ -6,8 +6,11 @@ import androidx.paging.PagingData
 import com.easynote.data.annotation.NoteOrderWay
 import com.easynote.data.annotation.UPDATE_TIME_DESC
 import com.easynote.data.entity.TagEntity
+import com.easynote.data.importer.ImportProgress
 import com.easynote.data.relation.NoteWithTags
+import com.easynote.data.storage.PageContent
 import kotlinx.coroutines.flow.Flow
+import java.io.File
 
 interface Repository {
     /**
@@ -41,6 +44,34 @@ interface Repository {
      */
     suspend fun deleteNoteById(noteId: Set<Long>)
 
+    /**
+     * Move notes to the trash. This is a single update, so [restoreNotes] undoes it at once.
+     *
+     * @param noteId The set of note IDs to move.
+     */
+    suspend fun moveNotesToTrash(noteId: Set<Long>)
+
+    /**
+     * Bring notes back from the trash.
+     *
+     * @param noteId The set of note IDs to restore.
+     */
+    suspend fun restoreNotes(noteId: Set<Long>)
+
+    /**
+     * Get the notes in the trash, most recently deleted first.
+     *
+     * @param pageSize The number of notes per page.
+     */
+    fun getTrashedNotesPagingFlow(pageSize: Int): Flow<PagingData<NoteWithTags>>
+
+    /**
+     * Delete every note in the trash with its files.
+     *
+     * @return The number of deleted notes.
+     */
+    suspend fun emptyTrash(): Int
+
     /**
      * Delete a specific page from a note.
      *
@@ -72,6 +103,24 @@ interface Repository {
         newHTMLContent: String = "",
     )
 
+    /**
+     * Update the content of several pages of a note, saved together as one group.
+     *
+     * @param noteId The ID of the note.
+     * @param pages The plain text and HTML content of the pages.
+     */
+    suspend fun updateNoteContents(noteId: Long, pages: List<PageContent>)
+
+    /**
+     * Find the pages of a note whose HTML differs from the saved one, so unchanged pages
+     * can skip text extraction, saving and indexing.
+     *
+     * @param noteId The ID of the note.
+     * @param htmlContents The HTML content by page index.
+     * @return The indexes of the changed pages, including pages never saved.
+     */
+    suspend fun getChangedPages(noteId: Long, htmlContents: Map<Int, String>): Set<Int>
+
     /**
      * Update the abstract of a note.
      *
@@ -179,6 +228,43 @@ interface Repository {
     suspend fun getNoteWithTagsById(noteId: Long): NoteWithTags?
 
 
+    /**
+     * Write all queued search index updates and wait until they are committed.
+     */
+    suspend fun flushSearchIndex()
+
+    /**
+     * Import every HTML, Markdown and text file below a directory as notes.
+     *
+     * @param directory The directory to import.
+     * @return A flow of the import progress; the import runs while it is collected.
+     */
+    fun importNotes(directory: File): Flow<ImportProgress>
+
+    /**
+     * Back up the whole library (database and note files) into a single archive.
+     *
+     * @param target The archive file to write.
+     */
+    suspend fun backupLibrary(target: File)
+
+    /**
+     * Back up the changes made since the previous backup into a single archive.
+     *
+     * @param previous The last archive of the current backup chain.
+     * @param target The archive file to write.
+     */
+    suspend fun backupLibraryIncremental(previous: File, target: File)
+
+    /**
+     * Replace the whole library with a backup chain. A damaged archive or a broken chain is
+     * rejected before anything is changed.
+     *
+     * @param chain A full backup followed by the incremental backups made after it, oldest
+     * first.
+     */
+    suspend fun restoreLibrary(vararg chain: File)
+
     /**
      * Modify the order way of notes.
      *
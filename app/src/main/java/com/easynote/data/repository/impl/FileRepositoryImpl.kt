@@ -7,23 +7,24 @@ import androidx.compose.animation.defaultDecayAnimationSpec
 import androidx.room.Transaction
 import com.easynote.data.common.constants.DataExceptionConstants
 import com.easynote.data.common.exception.DataException
+import com.easynote.data.dao.NoteFtsDao
+import com.easynote.data.database.NoteDatabase
 import com.easynote.data.repository.FileRepository
+import com.easynote.data.storage.FileReclaimer
+import com.easynote.data.storage.ImageStore
+import com.easynote.data.storage.PageContent
+import com.easynote.data.storage.PageStore
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.File
-import java.io.FileOutputStream
-import java.util.UUID
+import java.io.FileNotFoundException
 
 class FileRepositoryImpl(application: Application) : FileRepository {
     private val context: Context = application.applicationContext
-
-    private fun getH5FileName(noteId: Long, pageIndex: Int): String {
-        return "${noteId}/${pageIndex}/H5.html"
-    }
-
-    private fun getTxtFileName(noteId: Long, pageIndex: Int): String {
-        return "${noteId}/${pageIndex}/content.txt"
-    }
+    private val fileReclaimer = FileReclaimer.getInstance(application)
+    private val pageStore = PageStore.getInstance(application)
+    private val imageStore = ImageStore.getInstance(application)
+    private val noteFtsDao: NoteFtsDao = NoteDatabase.getInstance(application).getNoteContentSearchDao()
 
     override suspend fun insertFile(
         noteId: Long,
@@ -33,21 +34,8 @@ class FileRepositoryImpl(application: Application) : FileRepository {
     ) = withContext(
         Dispatchers.IO
     ) {
-        File(context.filesDir, getTxtFileName(noteId, pageIndex)).apply {
-            parentFile?.mkdirs()
-            writeText(content)
-        }
-        File(context.filesDir, getH5FileName(noteId, pageIndex)).apply {
-            parentFile?.mkdirs()
-            writeText(htmlContent)
-        }
-
-        val imgDir = File(context.filesDir, "$noteId/$pageIndex/img")
-        if (!imgDir.exists()) {
-            imgDir.mkdirs()
-        }
-
-        return@withContext
+        settleOrder(noteId)
+        pageStore.put(noteId, pageIndex, htmlContent, content)
     }
 
     override suspend fun saveImage(
@@ -56,72 +44,81 @@ class FileRepositoryImpl(application: Application) : FileRepository {
         imgUri: Uri
     ): String = withContext(Dispatchers.IO) {
         try {
-            val imgDir = File(context.filesDir, "$noteId/$pageIndex/img")
-            if (!imgDir.exists()) {
-                imgDir.mkdirs()
-            }
-            val destFile =
-                File(imgDir, "img_${System.currentTimeMillis()}_${UUID.randomUUID()}.jpg")
-            context.contentResolver.openInputStream(imgUri)?.use { input ->
-                FileOutputStream(destFile).use { output ->
-                    input.copyTo(output)
-                }
-            }
-            destFile.absolutePath
+            // A stored page, so its id stays with it. The index must be a stored one: the
+            // editor applies the page deletes it queued before saving an image.
+            settleOrder(noteId)
+            val pageId = pageStore.reservePage(noteId, pageIndex)
+            val input = context.contentResolver.openInputStream(imgUri)
+                ?: throw FileNotFoundException(imgUri.toString())
+            // Stored once by content; the page only adds a ref.
+            imageStore.save(noteId, pageId, input).absolutePath
         } catch (e: Exception) {
             throw DataException(e, DataExceptionConstants.FILE_SAVE_IMAGE_FAILED)
         }
 
     }
 
-    override suspend fun deletePage(noteId: Long, pageIndex: Int) =
+    override suspend fun getPageId(noteId: Long, pageIndex: Int): Int =
         withContext(Dispatchers.IO) {
-            var dir = File(context.filesDir, "${noteId}/${pageIndex}")
-            if (!dir.exists() || !dir.isDirectory) {
-                return@withContext
-            }
-            if (dir.exists()) {
-                dir.delete()
-            }
-            dir = File(context.filesDir, noteId.toString())
-            val dirsToShift = dir.listFiles { file ->
-                file.isDirectory
-            }?.mapNotNull { subDir ->
-                val index = subDir.name.toIntOrNull()
-                index?.let { it to subDir }
-            }?.filter { (index, _) ->
-                index > pageIndex
-            }?.sortedBy { (index, _) ->
-                index
-            } ?: emptyList()
+            pageStore.pageId(noteId, pageIndex)
+        }
 
-            for ((index, subDir) in dirsToShift) {
-                val newIndex = index - 1
-                val newDir = File(dir, newIndex.toString())
-                if (!newDir.exists()) {
-                    subDir.renameTo(newDir)
-                }
+    /**
+     * Delete a page from [PageStore], its refs to [ImageStore] images and the images saved
+     * in its directory before the image store. Later pages keep their ids and with them
+     * their image directories.
+     */
+    override suspend fun deletePage(noteId: Long, pageIndex: Int): Int? =
+        withContext(Dispatchers.IO) {
+            settleOrder(noteId)
+            pageStore.removePage(noteId, pageIndex)?.also { pageId ->
+                imageStore.releasePage(noteId, pageId)
+                File(context.filesDir, "$noteId/$pageId").deleteRecursively()
             }
         }
 
+    /**
+     * The image refs of the note went with its row already; only the images left unused are
+     * deleted here.
+     */
     override suspend fun deleteFile(noteId: Long) =
         withContext(Dispatchers.IO) {
-            val dir = File(context.filesDir, noteId.toString())
-            if (dir.exists() && dir.isDirectory) {
-                dir.deleteRecursively()
-            }
+            pageStore.deleteNotes(listOf(noteId))
+            bury(noteId)
+            imageStore.sweep()
+            Unit
         }
 
-    @Transaction
     override suspend fun deleteFile(noteIds: Set<Long>) =
         withContext(Dispatchers.IO) {
-            noteIds.forEach { id ->
-                val dir = File(context.filesDir, id.toString())
-                if (dir.exists() && dir.isDirectory) {
-                    dir.deleteRecursively()
-                }
-            }
+            pageStore.deleteNotes(noteIds)
+            noteIds.forEach { id -> bury(id) }
+            imageStore.sweep()
+            Unit
+        }
+
+    /**
+     * Before the first order of a note stored before order records is written: page deletes
+     * then renumbered the page directories but not the search rows, so rows past its last
+     * page are stale, and new pages would get their ids. They are deleted first; a crash
+     * in between only repeats the delete.
+     */
+    private suspend fun settleOrder(noteId: Long) {
+        val pageIds = pageStore.unorderedPageIds(noteId) ?: return
+        noteFtsDao.deletePagesExcept(noteId, pageIds)
+        pageStore.writeOrder(noteId)
+    }
+
+    /**
+     * Hand the note directory to [FileReclaimer]; only if it can not be moved is it deleted
+     * here.
+     */
+    private fun bury(noteId: Long) {
+        val dir = File(context.filesDir, noteId.toString())
+        if (dir.exists() && dir.isDirectory && !fileReclaimer.bury(dir)) {
+            dir.deleteRecursively()
         }
+    }
 
     @Transaction
     override suspend fun updateFile(
@@ -130,26 +127,23 @@ class FileRepositoryImpl(application: Application) : FileRepository {
         content: String,
         htmlContent: String,
     ) = withContext(Dispatchers.IO) {
-        File(context.filesDir, getTxtFileName(noteId, pageIndex)).apply {
-            parentFile?.mkdirs()
-            writeText(content)
-        }
-        File(context.filesDir, getH5FileName(noteId, pageIndex)).apply {
-            parentFile?.mkdirs()
-            writeText(htmlContent)
-        }
+        settleOrder(noteId)
+        pageStore.put(noteId, pageIndex, htmlContent, content)
+    }
 
+    override suspend fun updateFiles(noteId: Long, pages: List<PageContent>) =
+        withContext(Dispatchers.IO) {
+            settleOrder(noteId)
+            pageStore.putAll(noteId, pages)
+        }
 
-        return@withContext
-    }
+    override suspend fun getChangedPages(noteId: Long, htmlContents: Map<Int, String>): Set<Int> =
+        withContext(Dispatchers.IO) {
+            pageStore.changedPages(noteId, htmlContents)
+        }
 
     override suspend fun readH5File(noteId: Long, pageIndex: Int): String? =
         withContext(Dispatchers.IO) {
-            val file = File(context.filesDir, getH5FileName(noteId, pageIndex))
-            return@withContext if (file.exists()) {
-                file.readText()
-            } else {
-                null
-            }
+            pageStore.readHtml(noteId, pageIndex)
         }
 }
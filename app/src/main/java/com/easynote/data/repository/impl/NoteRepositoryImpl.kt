@@ -6,7 +6,9 @@ import androidx.paging.Pager
 import androidx.paging.PagingConfig
 import androidx.paging.PagingData
 import androidx.paging.liveData
+import androidx.paging.map
 import androidx.room.Transaction
+import androidx.room.withTransaction
 import com.easynote.data.common.exception.DataException
 import com.easynote.data.common.constants.DataExceptionConstants
 import com.easynote.data.annotation.NoteOrderWay
@@ -19,12 +21,18 @@ import com.easynote.data.dao.TagEntityDao
 import com.easynote.data.database.NoteDatabase
 import com.easynote.data.entity.NoteEntity
 import com.easynote.data.entity.TagEntity
+import com.easynote.data.indexer.SearchIndexer
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.indexer.TagIndex
+import com.easynote.data.pagingsource.NoteKeysetPagingSource
+import com.easynote.data.relation.NoteWithTagIds
 import com.easynote.data.relation.NoteWithTags
 import com.easynote.data.repository.FileRepository
 import com.easynote.data.repository.NoteRepository
 import com.github.promeg.pinyinhelper.Pinyin.toPinyin
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.withContext
 
 class NoteRepositoryImpl(application: Application) : NoteRepository {
@@ -33,17 +41,24 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
     private val fileRepository: FileRepository
     private val noteTagRefDao: NoteTagCrossRefDao
     private val noteFtsDao: NoteFtsDao
+    private val searchIndexer: SearchIndexer
+    private val tagIndex: TagIndex
+    private val tagDictionary: TagDictionary
 
+    private val noteDatabase: NoteDatabase
     private val pinYinConverter: ToPinyin
 
     init {
-        val noteDatabase = NoteDatabase.getInstance(application)
+        this.noteDatabase = NoteDatabase.getInstance(application)
         this.noteEntityDao = noteDatabase.getNoteEntityDao()
         this.tagEntityDao = noteDatabase.getTagEntityDao()
         this.noteTagRefDao = noteDatabase.getNoteTagCrossRefDao()
         this.fileRepository = FileRepositoryImpl(application)
         this.noteFtsDao = noteDatabase.getNoteContentSearchDao()
         this.pinYinConverter = ToPinyin(application.applicationContext)
+        this.searchIndexer = SearchIndexer.getInstance(application)
+        this.tagIndex = TagIndex.getInstance(application)
+        this.tagDictionary = TagDictionary.getInstance(application)
     }
 
     @Transaction
@@ -57,10 +72,9 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
                 if (noteEntity.isFavorite == null) {
                     noteEntity.isFavorite = false
                 }
+                normalizeSortColumns(noteEntity)
 
-                val id = noteEntityDao.insert(noteEntity)
-                noteFtsDao.insert(id, 1)
-                id
+                noteEntityDao.insert(noteEntity)
             } catch (e: Exception) {
                 throw DataException(e, DataExceptionConstants.DB_INSERT_DATA_FAILED)
             }
@@ -77,15 +91,19 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
             noteWithTags.noteEntity?.isFavorite = false
         }
         val id = noteEntityDao.insert(
-            noteWithTags.noteEntity ?: NoteEntity(
-                createTime = now,
-                updateTime = now
+            normalizeSortColumns(
+                noteWithTags.noteEntity ?: NoteEntity(
+                    createTime = now,
+                    updateTime = now,
+                    isFavorite = false
+                )
             )
         )
         noteTagRefDao.insertNoteWithTags(
             id,
             noteWithTags.tags?.mapNotNull { it.id } ?: emptyList()
         )
+        tagIndex.invalidate()
 
         return@withContext id
     }
@@ -99,29 +117,61 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
             }
         }
 
-    @Transaction
+    /**
+     * Tag refs go with the note through their foreign key and search rows through the
+     * note_search_cleanup trigger, so the single delete is atomic. The note directory is
+     * left to [com.easynote.data.repository.FileRepository.deleteFile].
+     */
     override suspend fun deleteNoteById(id: Long) =
         withContext(Dispatchers.IO) {
             try {
+                searchIndexer.discard(setOf(id))
                 noteEntityDao.deleteById(id)
-                noteTagRefDao.deleteCrossRefsByNoteId(id)
-                noteFtsDao.deleteByNoteId(id)
-                fileRepository.deleteFile(id)
             } catch (e: Exception) {
                 throw DataException(e, DataExceptionConstants.DB_DELETE_DATA_FAILED)
             }
         }
 
-    @Transaction
     override suspend fun deleteNoteById(id: Set<Long>) =
         withContext(Dispatchers.IO) {
-            noteEntityDao.deleteById(id)
-            noteTagRefDao.deleteCrossRefsByNoteId(id)
-            noteFtsDao.deleteByNoteId(id)
+            try {
+                searchIndexer.discard(id)
+                noteDatabase.withTransaction {
+                    id.chunked(MAX_BIND_ARGS).forEach { chunk -> noteEntityDao.deleteById(chunk.toSet()) }
+                }
+            } catch (e: Exception) {
+                throw DataException(e, DataExceptionConstants.DB_DELETE_DATA_FAILED)
+            }
         }
 
-    override suspend fun deleteNotePage(noteId: Long, pageIndex: Int) {
-        noteFtsDao.deleteByNoteIdAndPageIndex(noteId, pageIndex)
+    override suspend fun moveNotesToTrash(id: Set<Long>) =
+        withContext(Dispatchers.IO) {
+            try {
+                val now = System.currentTimeMillis()
+                noteDatabase.withTransaction {
+                    id.chunked(MAX_BIND_ARGS).forEach { chunk -> noteEntityDao.moveToTrash(chunk.toSet(), now) }
+                }
+                tagIndex.invalidate()
+            } catch (e: Exception) {
+                throw DataException(e, DataExceptionConstants.DB_UPDATE_DATA_FAILED)
+            }
+        }
+
+    override suspend fun restoreNotesFromTrash(id: Set<Long>) =
+        withContext(Dispatchers.IO) {
+            try {
+                noteDatabase.withTransaction {
+                    id.chunked(MAX_BIND_ARGS).forEach { chunk -> noteEntityDao.restoreFromTrash(chunk.toSet()) }
+                }
+                tagIndex.invalidate()
+            } catch (e: Exception) {
+                throw DataException(e, DataExceptionConstants.DB_UPDATE_DATA_FAILED)
+            }
+        }
+
+    override suspend fun deleteNotePage(noteId: Long, pageId: Int) {
+        searchIndexer.discard(noteId, pageId)
+        noteFtsDao.deleteByNoteIdAndPageId(noteId, pageId)
     }
 
     override suspend fun updateNote(vararg noteEntity: NoteEntity) {
@@ -137,7 +187,7 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
 
     override suspend fun updateNoteFavor(id: Long, isFavor: Boolean) {
         try {
-            noteEntityDao.updateFavor(id, isFavor)
+            noteEntityDao.updateFavor(id, isFavor, System.currentTimeMillis())
         } catch (e: Exception) {
             throw DataException(e, DataExceptionConstants.DB_UPDATE_DATA_FAILED)
         }
@@ -147,7 +197,7 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
         id: Set<Long>,
         isFavor: Boolean
     ) = withContext(Dispatchers.IO) {
-        noteEntityDao.updateFavor(id, isFavor)
+        noteEntityDao.updateFavor(id, isFavor, System.currentTimeMillis())
     }
 
     override suspend fun updateNoteTags(
@@ -162,6 +212,7 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
         }
 
         noteTagRefDao.updateNoteTags(id, list)
+        tagIndex.invalidate()
     }
 
     override suspend fun updateTitleOrSummary(noteId: Long, title: String?, summary: String?) =
@@ -169,6 +220,19 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
             noteEntityDao.updateTitleOrSummary(noteId, title, summary, System.currentTimeMillis())
         }
 
+    /**
+     * Fill the columns the home list sorts on, see [NoteDatabase.NORMALIZE_NOTE_SORT_COLUMNS].
+     */
+    private fun normalizeSortColumns(noteEntity: NoteEntity): NoteEntity {
+        if (noteEntity.isFavorite != true || noteEntity.favoriteTime == null) {
+            noteEntity.favoriteTime = 0
+        }
+        if (noteEntity.title == null) {
+            noteEntity.title = ""
+        }
+        return noteEntity
+    }
+
     override suspend fun getAllNotes(): List<NoteEntity> =
         withContext(Dispatchers.IO) {
             try {
@@ -229,30 +293,50 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
         endTime: Long?,
         @NoteOrderWay orderWay: String?
     ): Flow<PagingData<NoteWithTags>> {
-        val pager: Pager<Int, NoteWithTags> = Pager(
-            PagingConfig(
-                pageSize = pageSize,
-                prefetchDistance = pageSize,
-                enablePlaceholders = false,
-                initialLoadSize = pageSize * 2
-            )
-        ) {
-            noteEntityDao.getAllWithTagsPaging(
-                tagIds,
-                pinYinConverter.convertToPinyin(query),
-                startTime,
-                endTime,
-                orderWay ?: UPDATE_TIME_DESC,
-                tagIds?.size ?: 0
+        val matchQuery = pinYinConverter.convertToMatchQuery(query)
+        val initialsQuery = pinYinConverter.convertToInitialsQuery(query?.trim())
+        val config = PagingConfig(
+            pageSize = pageSize,
+            prefetchDistance = pageSize,
+            enablePlaceholders = false,
+            initialLoadSize = pageSize * 2
+        )
+        if (matchQuery == null) {
+            return Pager(config) {
+                NoteKeysetPagingSource(
+                    noteDatabase,
+                    tagIds,
+                    startTime,
+                    endTime,
+                    orderWay ?: UPDATE_TIME_DESC,
+                    tagDictionary,
+                    tagIndex
+                )
+            }.flow
+        }
+        val pager: Pager<Int, NoteWithTagIds> = Pager(config) {
+            tagDictionary.invalidateOnTagChange(
+                noteEntityDao.searchWithTagsPaging(
+                    tagIds,
+                    matchQuery,
+                    initialsQuery,
+                    startTime,
+                    endTime,
+                    orderWay ?: UPDATE_TIME_DESC,
+                    tagIds?.size ?: 0
+                )
             )
         }
-        return pager.flow
+        return pager.flow.map { pagingData ->
+            pagingData.map { note -> tagDictionary.toNoteWithTags(note) }
+        }
     }
 
     override fun searchNotesByQueryFlow(
         query: String,
         pageSize: Int
     ): Flow<PagingData<NoteWithTags>> {
+        val matchQuery = pinYinConverter.convertToMatchQuery(query)
         val pager: Pager<Int, NoteWithTags> = Pager(
             PagingConfig(
                 pageSize,
@@ -261,7 +345,26 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
                 pageSize * 2
             )
         ) {
-            noteEntityDao.searchNotesByAbstractFlow(query)
+            // A blank query matches every note, as the LIKE search did; an empty MATCH matches none.
+            if (matchQuery == null) {
+                noteEntityDao.getAllWithTagsPaging(null, null, null)
+            } else {
+                noteEntityDao.searchNotesByAbstractFlow(matchQuery)
+            }
+        }
+        return pager.flow
+    }
+
+    override fun getTrashedNotesPagingFlow(pageSize: Int): Flow<PagingData<NoteWithTags>> {
+        val pager: Pager<Int, NoteWithTags> = Pager(
+            PagingConfig(
+                pageSize,
+                pageSize,
+                false,
+                pageSize * 2
+            )
+        ) {
+            noteEntityDao.getTrashPaging()
         }
         return pager.flow
     }
@@ -272,34 +375,21 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
 
     override suspend fun getNoteCountByTags(tagIds: Set<Long>): Int =
         withContext(Dispatchers.IO) {
-            noteEntityDao.getCountByTagIds(tagIds)
+            tagIndex.countWithAnyTag(tagIds) ?: noteEntityDao.getCountByTagIds(tagIds)
         }
 
-    @Transaction
     override suspend fun updateSearchTable(
         noteId: Long,
-        pageIndex: Int?,
+        pageId: Int?,
         title: String?,
         summary: String?,
         content: String?
-    ) = withContext(Dispatchers.IO) {
-        if (noteFtsDao.getNoteFtsId(noteId, pageIndex) == null) {
-            noteFtsDao.insert(
-                noteId,
-                pageIndex,
-                pinYinConverter.convertToPinyin(title),
-                pinYinConverter.convertToPinyin(summary),
-                pinYinConverter.convertToPinyin(content),
-            )
-        } else {
-            noteFtsDao.update(
-                noteId,
-                pageIndex,
-                title = pinYinConverter.convertToPinyin(title),
-                summary = pinYinConverter.convertToPinyin(summary),
-                content = pinYinConverter.convertToPinyin(content),
-            )
-        }
+    ) {
+        searchIndexer.enqueue(noteId, pageId, title, summary, content)
+    }
+
+    override suspend fun flushSearchIndex() {
+        searchIndexer.flush()
     }
 
     override fun getAllNoteFlow(
@@ -310,8 +400,18 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
         orderWay: String?
     ): Flow<List<NoteWithTags>> {
         try {
-            return noteEntityDao.getAllWithTags(
-                query,
+            val matchQuery = pinYinConverter.convertToMatchQuery(query)
+            if (matchQuery == null) {
+                return noteEntityDao.getAllWithTags(
+                    tagIds,
+                    startTime,
+                    endTime,
+                    tagIds?.size ?: 0
+                )
+            }
+            return noteEntityDao.searchAllWithTags(
+                matchQuery,
+                pinYinConverter.convertToInitialsQuery(query?.trim()),
                 tagIds,
                 startTime,
                 endTime,
@@ -321,4 +421,9 @@ class NoteRepositoryImpl(application: Application) : NoteRepository {
             throw DataException(e, DataExceptionConstants.DB_QUERY_DATA_FAILED)
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        /** Stays below SQLite's default limit of 999 bound variables before 3.32. */
+        private const val MAX_BIND_ARGS = 900
+    }
+}
@@ -6,12 +6,19 @@ import android.net.Uri
 import android.util.Log
 import androidx.paging.PagingData
 import androidx.room.Transaction
+import com.easynote.data.backup.ChangeJournal
+import com.easynote.data.backup.NoteBackup
 import com.easynote.data.entity.TagEntity
+import com.easynote.data.importer.ImportProgress
+import com.easynote.data.importer.NoteImporter
 import com.easynote.data.relation.NoteWithTags
 import com.easynote.data.repository.FileRepository
 import com.easynote.data.repository.NoteRepository
 import com.easynote.data.repository.Repository
 import com.easynote.data.repository.TagRepository
+import com.easynote.data.storage.PageContent
+import com.easynote.data.trash.TrashPurgeJobService
+import com.easynote.data.trash.TrashPurger
 import kotlinx.coroutines.flow.Flow
 import androidx.core.content.edit
 import com.easynote.data.annotation.NoteOrderWay
@@ -21,45 +28,81 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import com.github.promeg.pinyinhelper.Pinyin
 import com.github.promeg.tinypinyin.lexicons.android.cncity.CnCityDict
+import java.io.File
 
 
 class RepositoryImpl(application: Application) : Repository {
     private val noteRepository: NoteRepository
     private val fileRepository: FileRepository
     private val tagRepository: TagRepository
+    private val noteImporter: NoteImporter
+    private val noteBackup: NoteBackup
+    private val changeJournal: ChangeJournal
+    private val trashPurger: TrashPurger
 
     init {
         this.noteRepository = NoteRepositoryImpl(application)
         this.fileRepository = FileRepositoryImpl(application)
         this.tagRepository = TagRepositoryImpl(application)
+        this.noteImporter = NoteImporter.getInstance(application)
+        this.noteBackup = NoteBackup.getInstance(application)
+        this.changeJournal = ChangeJournal.getInstance(application)
+        this.trashPurger = TrashPurger.getInstance(application)
+        TrashPurgeJobService.schedule(application)
 
     }
 
 
     override suspend fun createNewNote(noteWithTags: NoteWithTags?): Long {
-        return noteRepository.insertNoteWithTags(noteWithTags ?: NoteWithTags())
+        val noteId = noteRepository.insertNoteWithTags(noteWithTags ?: NoteWithTags())
+        changeJournal.noteChanged(listOf(noteId))
+        return noteId
     }
 
     override suspend fun createNewTag(tagEntity: TagEntity): Long {
         return tagRepository.insertTag(tagEntity)
     }
 
-    @Transaction
+    /**
+     * The rows are deleted in one statement; the note directory is only moved to the
+     * tombstone area, so this returns before its files are gone.
+     */
     override suspend fun deleteNoteById(noteId: Long) {
         noteRepository.deleteNoteById(noteId)
         fileRepository.deleteFile(noteId)
+        changeJournal.notesDeleted(listOf(noteId))
     }
 
-    @Transaction
     override suspend fun deleteNoteById(noteId: Set<Long>) {
         noteRepository.deleteNoteById(noteId)
         fileRepository.deleteFile(noteId)
+        changeJournal.notesDeleted(noteId)
+    }
+
+    override suspend fun moveNotesToTrash(noteId: Set<Long>) {
+        noteRepository.moveNotesToTrash(noteId)
+        changeJournal.noteChanged(noteId)
+    }
+
+    override suspend fun restoreNotes(noteId: Set<Long>) {
+        noteRepository.restoreNotesFromTrash(noteId)
+        changeJournal.noteChanged(noteId)
+    }
+
+    override fun getTrashedNotesPagingFlow(pageSize: Int): Flow<PagingData<NoteWithTags>> {
+        return noteRepository.getTrashedNotesPagingFlow(pageSize)
+    }
+
+    override suspend fun emptyTrash(): Int {
+        return trashPurger.purgeAll()
     }
 
     @Transaction
     override suspend fun deleteNotePage(noteId: Long, pageIndex: Int) {
-        noteRepository.deleteNotePage(noteId, pageIndex)
-        fileRepository.deletePage(noteId, pageIndex)
+        val pageId = fileRepository.deletePage(noteId, pageIndex) ?: return
+        noteRepository.deleteNotePage(noteId, pageId)
+        // The page order changed, which backups only carry with the whole note.
+        changeJournal.filesChanged(noteId)
     }
 
     @Transaction
@@ -78,7 +121,9 @@ class RepositoryImpl(application: Application) : Repository {
         pageIndex: Int,
         imgUri: Uri
     ): String {
-        return fileRepository.saveImage(noteId, pageIndex, imgUri)
+        val path = fileRepository.saveImage(noteId, pageIndex, imgUri)
+        changeJournal.imageSaved(noteId, fileRepository.getPageId(noteId, pageIndex), path)
+        return path
     }
 
     @Transaction
@@ -88,18 +133,31 @@ class RepositoryImpl(application: Application) : Repository {
         newContent: String,
         newHTMLContent: String
     ) {
-        fileRepository.updateFile(noteId, pageIndex, newContent, newHTMLContent)
+        val pageId = fileRepository.updateFile(noteId, pageIndex, newContent, newHTMLContent)
         Log.d(
             "RepositoryImpl",
             "更新笔记内容: noteId=$noteId, pageIndex=$pageIndex,newContent=$newContent"
         )
-        noteRepository.updateSearchTable(noteId, pageIndex, content = newContent)
+        noteRepository.updateSearchTable(noteId, pageId, content = newContent)
+        changeJournal.pageChanged(noteId, pageId)
+    }
+
+    override suspend fun getChangedPages(noteId: Long, htmlContents: Map<Int, String>): Set<Int> =
+        fileRepository.getChangedPages(noteId, htmlContents)
+
+    override suspend fun updateNoteContents(noteId: Long, pages: List<PageContent>) {
+        val pageIds = fileRepository.updateFiles(noteId, pages)
+        pages.forEachIndexed { i, page ->
+            noteRepository.updateSearchTable(noteId, pageIds[i], content = page.content)
+        }
+        changeJournal.pagesChanged(noteId, pageIds)
     }
 
     @Transaction
     override suspend fun updateTitleOrSummary(noteId: Long, title: String?, summary: String?) {
         noteRepository.updateTitleOrSummary(noteId, title, summary)
         noteRepository.updateSearchTable(noteId, title = title, summary = summary)
+        changeJournal.noteChanged(listOf(noteId))
     }
 
     override suspend fun updateNoteTags(
@@ -107,6 +165,7 @@ class RepositoryImpl(application: Application) : Repository {
         vararg tagEntities: TagEntity
     ) {
         noteRepository.updateNoteTags(noteId, *tagEntities)
+        changeJournal.noteChanged(listOf(noteId))
     }
 
     override fun getAllNoteWithTagsPagingFlow(
@@ -156,6 +215,26 @@ class RepositoryImpl(application: Application) : Repository {
         return noteRepository.getNoteById(noteId)
     }
 
+    override suspend fun flushSearchIndex() {
+        noteRepository.flushSearchIndex()
+    }
+
+    override fun importNotes(directory: File): Flow<ImportProgress> {
+        return noteImporter.import(directory)
+    }
+
+    override suspend fun backupLibrary(target: File) {
+        noteBackup.backup(target)
+    }
+
+    override suspend fun backupLibraryIncremental(previous: File, target: File) {
+        noteBackup.backupIncremental(previous, target)
+    }
+
+    override suspend fun restoreLibrary(vararg chain: File) {
+        noteBackup.restore(*chain)
+    }
+
     override suspend fun modifyOrderWay(context: Context, way: String) =
         withContext(Dispatchers.IO) {
             context.getSharedPreferences("settings", Context.MODE_PRIVATE)
@@ -172,6 +251,7 @@ class RepositoryImpl(application: Application) : Repository {
 
     override suspend fun updateNoteFavorite(noteId: Long, isFavour: Boolean) {
         noteRepository.updateNoteFavor(noteId, isFavour)
+        changeJournal.noteChanged(listOf(noteId))
     }
 
     override suspend fun updateNoteFavorite(
@@ -179,6 +259,7 @@ class RepositoryImpl(application: Application) : Repository {
         isFavour: Boolean
     ) {
         noteRepository.updateNoteFavor(noteIds, isFavour)
+        changeJournal.noteChanged(noteIds)
     }
 
     override suspend fun updateTag(tagEntity: TagEntity) =
@@ -10,6 +10,7 @@ import com.easynote.data.common.constants.DataExceptionConstants
 import com.easynote.data.dao.TagEntityDao
 import com.easynote.data.database.NoteDatabase
 import com.easynote.data.entity.TagEntity
+import com.easynote.data.indexer.TagIndex
 import com.easynote.data.relation.TagWithNotes
 import com.easynote.data.repository.TagRepository
 import kotlinx.coroutines.Dispatchers
@@ -18,10 +19,12 @@ import kotlinx.coroutines.withContext
 
 class TagRepositoryImpl(application: Application) : TagRepository {
     private val tagEntityDao: TagEntityDao
+    private val tagIndex: TagIndex
 
     init {
         val noteDatabase = NoteDatabase.getInstance(application)
         this.tagEntityDao = noteDatabase.getTagEntityDao()
+        this.tagIndex = TagIndex.getInstance(application)
     }
 
     override fun getPagingTagsFlow(pageSize: Int): Flow<PagingData<TagEntity>> {
@@ -52,6 +55,8 @@ class TagRepositoryImpl(application: Application) : TagRepository {
     override suspend fun deleteTag(vararg tagEntity: TagEntity) = withContext(Dispatchers.IO) {
         try {
             tagEntityDao.delete(*tagEntity)
+            // The refs of the tags went with them through the foreign key.
+            tagIndex.invalidate()
         } catch (e: Exception) {
             throw DataException(e, DataExceptionConstants.DB_DELETE_DATA_FAILED)
         }
@@ -60,6 +65,7 @@ class TagRepositoryImpl(application: Application) : TagRepository {
     override suspend fun deleteTagById(id: Long) = withContext(Dispatchers.IO) {
         try {
             tagEntityDao.deleteById(id)
+            tagIndex.invalidate()
         } catch (e: Exception) {
             throw DataException(e, DataExceptionConstants.DB_DELETE_DATA_FAILED)
         }
@@ -0,0 +1,104 @@
+package com.easynote.data.storage
+
+import android.app.Application
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.UUID
+
+/**
+ * Background deletion of note directories.
+ *
+ * Deleting a note only renames its directory into a tombstone area below filesDir, which is
+ * one metadata operation however many pages and images it holds. The trees are then deleted
+ * here in batches of [batchSize] files, pausing between batches so a large deletion does not
+ * hog the disk while the user keeps working. Tombstones left by a killed process are
+ * reclaimed on the next start.
+ */
+class FileReclaimer internal constructor(
+    filesDir: File,
+    private val batchSize: Int = BATCH_SIZE,
+    private val batchDelayMs: Long = BATCH_DELAY_MS
+) {
+    private val tombstoneDir = File(filesDir, TOMBSTONE_DIR)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val reclaimMutex = Mutex()
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        scope.launch {
+            signal.trySend(Unit)
+            for (ignored in signal) {
+                try {
+                    reclaim()
+                } catch (e: Exception) {
+                    Log.e(TAG, "清理已删除文件失败", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * Move [dir] out of the way for deletion in the background.
+     *
+     * @return false when it could not be moved; the caller then deletes it itself.
+     */
+    fun bury(dir: File): Boolean {
+        if (!dir.exists()) {
+            return true
+        }
+        tombstoneDir.mkdirs()
+        val buried = dir.renameTo(File(tombstoneDir, "${dir.name}-${UUID.randomUUID()}"))
+        if (buried) {
+            signal.trySend(Unit)
+        }
+        return buried
+    }
+
+    /**
+     * Delete every tombstone now and wait until they are gone.
+     */
+    suspend fun flush() = withContext(Dispatchers.IO) {
+        reclaim(throttle = false)
+    }
+
+    private suspend fun reclaim(throttle: Boolean = true) = reclaimMutex.withLock {
+        val tombstones = tombstoneDir.listFiles() ?: return@withLock
+        var deleted = 0
+        for (tombstone in tombstones) {
+            // Children come before their directory, so each delete succeeds in turn.
+            for (file in tombstone.walkBottomUp()) {
+                if (!file.delete() && file.exists()) {
+                    Log.w(TAG, "删除文件失败: ${file.path}")
+                }
+                if (++deleted % batchSize == 0 && throttle) {
+                    delay(batchDelayMs)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "FileReclaimer"
+        private const val TOMBSTONE_DIR = ".tombstones"
+        private const val BATCH_SIZE = 200
+        private const val BATCH_DELAY_MS = 50L
+
+        @Volatile
+        private var instance: FileReclaimer? = null
+
+        fun getInstance(application: Application): FileReclaimer =
+            instance ?: synchronized(this) {
+                instance ?: FileReclaimer(application.filesDir).also { instance = it }
+            }
+    }
+}
@@ -0,0 +1,138 @@
+package com.easynote.data.storage
+
+import android.app.Application
+import android.util.Log
+import androidx.room.withTransaction
+import com.easynote.data.dao.ImageDao
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.entity.ImageRefEntity
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.UUID
+
+/**
+ * Content addressed store of the images inserted into notes.
+ *
+ * An image is stored once, under the SHA-256 of its bytes (filesDir/images/<ab>/<hash>.jpg),
+ * however many pages it is inserted into, and its path follows from the hash without a
+ * lookup. Each page that uses an image has a row in image_ref; triggers count them into
+ * image.ref_count and the refs of a note go with it through their foreign key. Images whose
+ * count dropped to 0 are deleted by [sweep].
+ *
+ * An image is hashed in the same pass that copies it into a temp file, which is then renamed
+ * to its hash, or dropped when that image is stored already.
+ */
+class ImageStore internal constructor(
+    private val noteDatabase: NoteDatabase,
+    filesDir: File
+) {
+    private val imageDao: ImageDao = noteDatabase.getImageDao()
+    private val imageDir = File(filesDir, IMAGE_DIR)
+
+    /**
+     * Orders storing a ref against deleting an unreferenced image, so a sweep never deletes
+     * an image that was just stored again.
+     */
+    private val mutex = Mutex()
+
+    init {
+        // Temp files of copies a killed process left behind.
+        imageDir.listFiles { file -> file.name.endsWith(TEMP_SUFFIX) }?.forEach { it.delete() }
+    }
+
+    /**
+     * Store the image read from [input] for a page.
+     *
+     * @return The file of the image.
+     */
+    suspend fun save(noteId: Long, pageId: Int, input: InputStream): File = withContext(Dispatchers.IO) {
+        imageDir.mkdirs()
+        val temp = File(imageDir, "${UUID.randomUUID()}$TEMP_SUFFIX")
+        try {
+            val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+            DigestInputStream(input, digest).use { hashed ->
+                temp.outputStream().use { output -> hashed.copyTo(output) }
+            }
+            val hash = digest.digest().joinToString("") { "%02x".format(it) }
+            val file = file(hash)
+            mutex.withLock {
+                if (!file.exists()) {
+                    file.parentFile?.mkdirs()
+                    if (!temp.renameTo(file)) {
+                        throw IOException("无法保存图片: ${file.path}")
+                    }
+                }
+                imageDao.insertRef(ImageRefEntity(noteId, pageId, hash))
+            }
+            file
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * The file of the image with [hash], whether stored or not.
+     */
+    fun file(hash: String): File = File(imageDir, "${hash.take(2)}/$hash$EXTENSION")
+
+    /**
+     * The number of pages using the image with [hash].
+     */
+    suspend fun refCount(hash: String): Int = imageDao.getRefCount(hash) ?: 0
+
+    /**
+     * Drop the refs of a deleted page and delete the images no page uses any more.
+     */
+    suspend fun releasePage(noteId: Long, pageId: Int) {
+        imageDao.deleteRefs(noteId, pageId)
+        sweep()
+    }
+
+    /**
+     * Delete the images no page uses any more, like those of notes deleted since the last
+     * sweep.
+     *
+     * @return The number of deleted images.
+     */
+    suspend fun sweep() = withContext(Dispatchers.IO) {
+        val hashes = mutex.withLock {
+            noteDatabase.withTransaction {
+                imageDao.getUnreferenced().also { hashes ->
+                    if (hashes.isNotEmpty()) imageDao.deleteUnreferenced()
+                }
+            }.onEach { hash ->
+                val file = file(hash)
+                if (!file.delete() && file.exists()) {
+                    Log.w(TAG, "删除图片失败: ${file.path}")
+                }
+            }
+        }
+        hashes.size
+    }
+
+    companion object {
+        private const val TAG = "ImageStore"
+        const val IMAGE_DIR = "images"
+        private const val EXTENSION = ".jpg"
+        private const val TEMP_SUFFIX = ".tmp"
+        private const val HASH_ALGORITHM = "SHA-256"
+
+        @Volatile
+        private var instance: ImageStore? = null
+
+        fun getInstance(application: Application): ImageStore =
+            instance ?: synchronized(this) {
+                instance ?: ImageStore(
+                    NoteDatabase.getInstance(application),
+                    application.filesDir
+                ).also { instance = it }
+            }
+    }
+}
@@ -0,0 +1,10 @@
+package com.easynote.data.storage
+
+/**
+ * The plain text and HTML of one page of a note.
+ */
+data class PageContent(
+    val pageIndex: Int,
+    val content: String,
+    val htmlContent: String
+)
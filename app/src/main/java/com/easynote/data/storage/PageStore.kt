@@ -0,0 +1,1157 @@
+package com.easynote.data.storage
+
+import android.app.Application
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.InputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.TreeMap
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.InflaterInputStream
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Append-only store of note pages, in place of a content.txt and H5.html file (and an img
+ * directory) per page.
+ *
+ * Every save appends one record holding the HTML and plain text of a page to the active
+ * segment file below [root]; deletes append small tombstones. An in-memory index maps
+ * (noteId, pageId) to the latest record and is rebuilt by scanning the segments on first
+ * use. Records carry a sequence number, so the latest record of a page wins whatever
+ * segment it is in.
+ *
+ * A page keeps its id for life; its index (1 based position in the note) comes from the
+ * note's order record, the list of its page ids. Adding, removing or moving a page only
+ * writes a new order record, the other pages are never written again. Notes stored before
+ * order records have the ids of their page indexes, in ascending order.
+ *
+ * Records written together, like the pages of one save or a removed page and the new order,
+ * form a group that ends in a commit record and goes to disk with one write and one fsync.
+ * On open a group without its commit record is ignored and, at the end of the last segment
+ * where a crash leaves it, cut off, so a save lands completely or not at all.
+ *
+ * Superseded records stay in their segment until compaction copies the live records of a
+ * mostly dead segment forward and deletes the file. It runs in the background in small
+ * batches, each under the write lock, so saves and reads only ever wait for one batch.
+ *
+ * With [compress] the HTML and text of a page are deflated, each on its own so reading one
+ * never inflates the other, unless that would not make the record smaller. Pages with at
+ * least [MAPPED_HTML_SIZE] bytes of HTML are always stored uncompressed, so [mapHtml] can
+ * map them. Other records stored uncompressed, like those written before compression, are
+ * compressed when a save or compaction writes them again.
+ *
+ * Page files of the old layout found below [legacyDir] are imported once, on first use.
+ */
+class PageStore internal constructor(
+    private val root: File,
+    private val legacyDir: File? = null,
+    private val segmentSize: Long = SEGMENT_SIZE,
+    private val compress: Boolean = true
+) {
+    private class Location(
+        val segment: Int,
+        val offset: Long,
+        val seq: Long,
+        val htmlLength: Int,
+        val textLength: Int,
+        val compressed: Boolean
+    ) {
+        val length get() = HEADER_SIZE + htmlLength + textLength
+
+        /** Hash of the HTML, [NO_HASH] until a save or comparison needs it. */
+        @Volatile
+        var htmlHash = NO_HASH
+    }
+
+    /**
+     * The page ids of a note in page order, and the id its next new page gets. [location] is
+     * the order record, null for a note whose order was never written.
+     */
+    private class PageOrder(val ids: IntArray, val nextId: Int, val location: Location?)
+
+    private class Segment(val id: Int, val file: File) {
+        val channel: FileChannel = RandomAccessFile(file, "rw").channel
+
+        /** Bytes of the records the index points to. */
+        var live = 0L
+    }
+
+    private class Record(
+        val type: Byte,
+        val seq: Long,
+        val noteId: Long,
+        val pageId: Int,
+        val html: ByteArray = EMPTY,
+        val text: ByteArray = EMPTY
+    ) {
+        val kind get() = (type.toInt() and KIND_MASK).toByte()
+        val compressed get() = type.toInt() and COMPRESSED != 0
+        val length get() = HEADER_SIZE + html.size + text.size
+    }
+
+    private class Header(
+        val type: Byte,
+        val seq: Long,
+        val noteId: Long,
+        val pageId: Int,
+        val htmlLength: Int,
+        val textLength: Int
+    ) {
+        val kind get() = (type.toInt() and KIND_MASK).toByte()
+        val grouped get() = type.toInt() and GROUPED != 0
+        val compressed get() = type.toInt() and COMPRESSED != 0
+        val length get() = HEADER_SIZE + htmlLength + textLength
+    }
+
+    private val lock = ReentrantReadWriteLock()
+    private val pages = HashMap<Long, TreeMap<Int, Location>>()
+    private val orders = HashMap<Long, PageOrder>()
+    private val segments = TreeMap<Int, Segment>()
+    private var active: Segment? = null
+    private var seq = 0L
+
+    // Tombstones seen while opening, so a put replayed from an older segment stays deleted.
+    private val pageDeletes = HashMap<Pair<Long, Int>, Long>()
+    private val noteDeletes = HashMap<Long, Long>()
+
+    @Volatile
+    private var opened = false
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        scope.launch {
+            for (ignored in signal) {
+                delay(COMPACT_DELAY_MS)
+                try {
+                    compact()
+                } catch (e: Exception) {
+                    Log.e(TAG, "整理页面存储失败", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * Save a page, replacing its previous content. An index past the last page adds a page.
+     *
+     * @return The id of the page.
+     */
+    fun put(noteId: Long, pageIndex: Int, html: String, text: String): Int =
+        putAll(noteId, listOf(PageContent(pageIndex, text, html))).single()
+
+    /**
+     * Save several pages of a note as one group: after a crash either all of them or none
+     * are there. Pages whose HTML is already stored are not written again. Indexes past the
+     * last page add pages at the end, in index order.
+     *
+     * @return The ids of the pages, in the order of [contents].
+     */
+    fun putAll(noteId: Long, contents: List<PageContent>): List<Int> {
+        if (contents.isEmpty()) return emptyList()
+        require(contents.all { it.pageIndex >= FIRST_PAGE }) { "Page indexes start at $FIRST_PAGE" }
+        ensureOpen()
+        val ids = lock.write {
+            val order = orders[noteId]
+            val pageIds = order?.ids?.toMutableList() ?: mutableListOf()
+            var nextId = order?.nextId ?: FIRST_PAGE
+            val stored = pageIds.size
+            val added = HashMap<Int, Int>()
+            contents.map { it.pageIndex }.filter { it > stored }.distinct().sorted().forEach { pageIndex ->
+                added[pageIndex] = nextId
+                pageIds.add(nextId++)
+            }
+            val ids = contents.map { added[it.pageIndex] ?: pageIds[it.pageIndex - FIRST_PAGE] }
+
+            val hashes = ArrayList<Long>(contents.size)
+            val records = ArrayList<Record>(contents.size + 1)
+            contents.forEachIndexed { i, page ->
+                val html = page.htmlContent.toByteArray()
+                val hash = hash(html)
+                if (hash == storedHash(noteId, ids[i])) return@forEachIndexed
+                hashes.add(hash)
+                records.add(putRecord(noteId, ids[i], html, page.content.toByteArray()))
+            }
+            if (added.isNotEmpty()) {
+                records.add(orderRecord(noteId, pageIds, nextId))
+            }
+            if (records.isEmpty()) return@write ids
+            append(records).forEachIndexed { i, location ->
+                if (records[i].kind == ORDER) {
+                    setOrder(noteId, PageOrder(pageIds.toIntArray(), nextId, location))
+                } else {
+                    location.htmlHash = hashes[i]
+                    setLocation(noteId, records[i].pageId, location)
+                }
+            }
+            ids
+        }
+        scheduleCompaction()
+        return ids
+    }
+
+    /**
+     * The indexes of the pages in [htmlContents] whose HTML differs from the stored one,
+     * including pages not stored yet. Comparing costs a hash of the new HTML; the stored
+     * side is hashed once per page and kept in the index.
+     */
+    fun changedPages(noteId: Long, htmlContents: Map<Int, String>): Set<Int> {
+        ensureOpen()
+        val hashes = htmlContents.mapValues { (_, html) -> hash(html.toByteArray()) }
+        return lock.read {
+            hashes.filter { (pageIndex, hash) ->
+                val pageId = idAt(noteId, pageIndex)
+                pageId == null || hash != storedHash(noteId, pageId)
+            }.keys
+        }
+    }
+
+    /**
+     * The id of the page at [pageIndex]. Past the last page it is the id a save at that
+     * index would give the new page, provided the pages before it are saved first.
+     */
+    fun pageId(noteId: Long, pageIndex: Int): Int {
+        ensureOpen()
+        return lock.read {
+            val order = orders[noteId]
+            val stored = order?.ids?.size ?: 0
+            if (pageIndex <= stored) {
+                order!!.ids[pageIndex - FIRST_PAGE]
+            } else {
+                (order?.nextId ?: FIRST_PAGE) + pageIndex - stored - 1
+            }
+        }
+    }
+
+    /**
+     * The id of the page at [pageIndex], saving the missing pages up to it empty first, so
+     * the id is that of a stored page and no later save or removal can give it to another.
+     * Saving content at the index afterwards keeps the id.
+     */
+    fun reservePage(noteId: Long, pageIndex: Int): Int {
+        require(pageIndex >= FIRST_PAGE) { "Page indexes start at $FIRST_PAGE" }
+        ensureOpen()
+        return lock.write {
+            val stored = orders[noteId]?.ids?.size ?: 0
+            if (pageIndex > stored) {
+                putAll(noteId, (stored + 1..pageIndex).map { PageContent(it, "", "") })
+            }
+            orders.getValue(noteId).ids[pageIndex - FIRST_PAGE]
+        }
+    }
+
+    /**
+     * The page ids of a note stored before order records, or null when its order was
+     * written already or it has no pages. Those ids are its page indexes until
+     * [writeOrder] is called.
+     */
+    fun unorderedPageIds(noteId: Long): List<Int>? {
+        ensureOpen()
+        return lock.read {
+            orders[noteId]?.takeIf { it.location == null }?.ids?.toList()
+        }
+    }
+
+    /**
+     * Write the order of a note stored before order records, as the first change of its
+     * pages would. Does nothing when its order was written already.
+     */
+    fun writeOrder(noteId: Long) {
+        ensureOpen()
+        lock.write {
+            val order = orders[noteId]?.takeIf { it.location == null } ?: return
+            val location = append(listOf(orderRecord(noteId, order.ids.toList(), order.nextId))).single()
+            setOrder(noteId, PageOrder(order.ids, order.nextId, location))
+        }
+    }
+
+    /**
+     * The page ids of a note in page order.
+     */
+    fun pageIds(noteId: Long): List<Int> {
+        ensureOpen()
+        return lock.read { orders[noteId]?.ids?.toList() ?: emptyList() }
+    }
+
+    /**
+     * The HTML of a page, or null when the store has no such page.
+     */
+    fun readHtml(noteId: Long, pageIndex: Int): String? = read(noteId, pageIndex, text = false)
+
+    /**
+     * A stream of the HTML of a page, read from the segment and inflated as it is consumed,
+     * or null when the store has no such page. It holds no lock, so a slow reader never
+     * blocks saves or compaction, and it keeps reading the page as it was when opened. The
+     * caller closes it.
+     */
+    fun openHtml(noteId: Long, pageIndex: Int): InputStream? = open(noteId, pageIndex, text = false)
+
+    /**
+     * The HTML bytes of a page as a read-only buffer, or null when the store has no such
+     * page. Pages of [MAPPED_HTML_SIZE] and more are stored uncompressed and mapped straight
+     * from their segment, so nothing is read until the buffer is; a smaller compressed one
+     * is inflated into memory. The mapping, like a stream from [openHtml], stays valid after
+     * compaction deletes the segment.
+     */
+    fun mapHtml(noteId: Long, pageIndex: Int): ByteBuffer? {
+        val (channel, location) = locate(noteId, pageIndex) ?: return null
+        if (location.compressed) {
+            return stream(channel, location, text = false).use { ByteBuffer.wrap(it.readBytes()) }
+        }
+        return channel.use {
+            it.map(FileChannel.MapMode.READ_ONLY, location.offset + HEADER_SIZE, location.htmlLength.toLong())
+        }
+    }
+
+    /**
+     * The plain text of a page, or null when the store has no such page.
+     */
+    fun readText(noteId: Long, pageIndex: Int): String? = read(noteId, pageIndex, text = true)
+
+    /**
+     * The ids of the notes with at least one page.
+     */
+    fun noteIds(): Set<Long> {
+        ensureOpen()
+        return lock.read { orders.filterValues { it.ids.isNotEmpty() }.keys.toSet() }
+    }
+
+    /**
+     * The page indexes of a note, ascending.
+     */
+    fun pageIndexes(noteId: Long): List<Int> {
+        ensureOpen()
+        return lock.read { (FIRST_PAGE until FIRST_PAGE + (orders[noteId]?.ids?.size ?: 0)).toList() }
+    }
+
+    /**
+     * Delete a page; the pages after it move down one index. Only a tombstone and the new
+     * order are written, whatever the number of pages.
+     *
+     * @return The id of the deleted page, or null when there is no such page.
+     */
+    fun removePage(noteId: Long, pageIndex: Int): Int? {
+        ensureOpen()
+        val pageId = lock.write {
+            val order = orders[noteId] ?: return null
+            val pageId = order.ids.getOrNull(pageIndex - FIRST_PAGE) ?: return null
+            val pageIds = order.ids.filter { it != pageId }
+            // One group, so a crash can not leave the order pointing at a deleted page.
+            val locations = append(listOf(record(DELETE_PAGE, noteId, pageId), orderRecord(noteId, pageIds, order.nextId)))
+            setLocation(noteId, pageId, null)
+            setOrder(noteId, PageOrder(pageIds.toIntArray(), order.nextId, locations[1]))
+            pageId
+        }
+        scheduleCompaction()
+        return pageId
+    }
+
+    /**
+     * Move the page at [from] to [to]; the pages between shift by one. Only the new order is
+     * written.
+     */
+    fun movePage(noteId: Long, from: Int, to: Int) {
+        ensureOpen()
+        lock.write {
+            val order = orders[noteId] ?: return
+            if (from == to || from !in FIRST_PAGE..order.ids.size || to !in FIRST_PAGE..order.ids.size) return
+            val pageIds = order.ids.toMutableList()
+            pageIds.add(to - FIRST_PAGE, pageIds.removeAt(from - FIRST_PAGE))
+            val location = append(listOf(orderRecord(noteId, pageIds, order.nextId))).single()
+            setOrder(noteId, PageOrder(pageIds.toIntArray(), order.nextId, location))
+        }
+        scheduleCompaction()
+    }
+
+    /**
+     * Delete every page of the notes.
+     */
+    fun deleteNotes(noteIds: Collection<Long>) {
+        ensureOpen()
+        lock.write {
+            val deleted = noteIds.filter { it in orders }
+            if (deleted.isEmpty()) return
+            append(deleted.map { record(DELETE_NOTE, it, 0) })
+            for (noteId in deleted) {
+                pages[noteId]?.keys?.toList()?.forEach { setLocation(noteId, it, null) }
+                setOrder(noteId, null)
+            }
+        }
+        scheduleCompaction()
+    }
+
+    /**
+     * Delete every page of every note.
+     */
+    fun clear() {
+        ensureOpen()
+        lock.write {
+            segments.values.forEach { segment ->
+                segment.channel.close()
+                segment.file.delete()
+            }
+            segments.clear()
+            pages.clear()
+            orders.clear()
+            active = null
+        }
+    }
+
+    /**
+     * Move the page files below a note directory (<noteId>/<pageId>/H5.html and content.txt,
+     * the old layout and that of backups) into the store. The page order comes from the
+     * [ORDER_FILE] when there is one; otherwise pages not stored yet follow the stored ones
+     * in id order, which for the old layout, where ids are page indexes, is page order.
+     * The files are deleted once their pages are on disk, and so are the page directories
+     * left empty.
+     */
+    fun importLegacy(noteDir: File) {
+        val noteId = noteDir.name.toLongOrNull() ?: return
+        val imported = mutableListOf<File>()
+        val contents = HashMap<Int, PageContent>()
+        noteDir.listFiles { file -> file.isDirectory }?.forEach { pageDir ->
+            val pageId = pageDir.name.toIntOrNull()?.takeIf { it >= FIRST_PAGE } ?: return@forEach
+            val html = File(pageDir, LEGACY_HTML)
+            val text = File(pageDir, LEGACY_TEXT)
+            if (!html.exists() && !text.exists()) return@forEach
+            contents[pageId] = PageContent(
+                pageId,
+                if (text.exists()) text.readText() else "",
+                if (html.exists()) html.readText() else ""
+            )
+            imported.add(pageDir)
+        }
+        val orderFile = File(noteDir, ORDER_FILE)
+        val order = if (orderFile.exists()) {
+            orderFile.readText().split(',').mapNotNull { it.trim().toIntOrNull() }
+        } else {
+            null
+        }
+        if (imported.isEmpty() && order == null) return
+        importPages(noteId, contents, order)
+        imported.forEach { pageDir ->
+            File(pageDir, LEGACY_HTML).delete()
+            File(pageDir, LEGACY_TEXT).delete()
+            // Only succeed while empty, images stay where they are.
+            File(pageDir, LEGACY_IMAGE_DIR).delete()
+            pageDir.delete()
+        }
+        orderFile.delete()
+        noteDir.delete()
+    }
+
+    /**
+     * Compact every sealed segment that is mostly superseded records.
+     */
+    internal fun compact() {
+        ensureOpen()
+        val candidates = lock.read {
+            segments.values
+                .filter { it !== active && it.live < it.channel.size() * COMPACT_RATIO }
+                .map { it.id }
+        }
+        candidates.forEach { compactSegment(it) }
+    }
+
+    /**
+     * Stop background compaction and close the segment files.
+     */
+    fun close() {
+        scope.cancel()
+        lock.write {
+            segments.values.forEach { it.channel.close() }
+            segments.clear()
+            pages.clear()
+            orders.clear()
+            active = null
+            opened = false
+        }
+    }
+
+    /**
+     * Save pages under their ids as one group. With [order] the note gets exactly those
+     * pages, stored pages missing from it are deleted. A new note without [order] is left
+     * like those stored before order records, its order written on its first change.
+     */
+    private fun importPages(noteId: Long, contents: Map<Int, PageContent>, order: List<Int>?) {
+        ensureOpen()
+        lock.write {
+            val current = orders[noteId]
+            val storedIds = current?.ids?.toList() ?: emptyList()
+            val pageIds = order?.filter { it in contents || it in storedIds }?.distinct()
+                ?: (storedIds + contents.keys.filter { it !in storedIds }.sorted())
+            val nextId = maxOf(current?.nextId ?: FIRST_PAGE, (pageIds.maxOrNull() ?: 0) + 1)
+
+            val hashes = ArrayList<Long>(contents.size)
+            val records = ArrayList<Record>()
+            contents.values.filter { it.pageIndex in pageIds }.forEach { page ->
+                val html = page.htmlContent.toByteArray()
+                val hash = hash(html)
+                if (hash == storedHash(noteId, page.pageIndex)) return@forEach
+                hashes.add(hash)
+                records.add(putRecord(noteId, page.pageIndex, html, page.content.toByteArray()))
+            }
+            val dropped = storedIds.filter { it !in pageIds }
+            dropped.forEach { records.add(record(DELETE_PAGE, noteId, it)) }
+            val unordered = current == null && order == null
+            if (!unordered && (pageIds != storedIds || nextId != current?.nextId)) {
+                records.add(orderRecord(noteId, pageIds, nextId))
+            }
+            if (records.isEmpty()) return
+            append(records).forEachIndexed { i, location ->
+                when (records[i].kind) {
+                    PUT -> {
+                        location.htmlHash = hashes[i]
+                        setLocation(noteId, records[i].pageId, location)
+                    }
+
+                    ORDER -> setOrder(noteId, PageOrder(pageIds.toIntArray(), nextId, location))
+                }
+            }
+            dropped.forEach { setLocation(noteId, it, null) }
+            if (unordered) {
+                setOrder(noteId, PageOrder(pageIds.toIntArray(), nextId, null))
+            }
+        }
+        scheduleCompaction()
+    }
+
+    private fun read(noteId: Long, pageIndex: Int, text: Boolean): String? =
+        open(noteId, pageIndex, text)?.use { it.reader(Charsets.UTF_8).readText() }
+
+    /**
+     * Only the segment file is opened under the lock, on a descriptor of the stream's own;
+     * the bytes are read as the stream is. A written record never changes, and the
+     * descriptor keeps it readable after compaction moves it and deletes the file.
+     */
+    private fun open(noteId: Long, pageIndex: Int, text: Boolean): InputStream? {
+        val (channel, location) = locate(noteId, pageIndex) ?: return null
+        return stream(channel, location, text)
+    }
+
+    private fun stream(channel: FileChannel, location: Location, text: Boolean): InputStream {
+        val start = location.offset + HEADER_SIZE + if (text) location.htmlLength else 0
+        val length = if (text) location.textLength else location.htmlLength
+        val input = BufferedInputStream(RecordInputStream(channel, start, length.toLong()), STREAM_BUFFER_SIZE)
+        return if (location.compressed) InflaterInputStream(input) else input
+    }
+
+    /**
+     * A new read-only channel on the segment of a page and the location of its record, or
+     * null when the store has no such page.
+     */
+    private fun locate(noteId: Long, pageIndex: Int): Pair<FileChannel, Location>? {
+        ensureOpen()
+        return lock.read {
+            val pageId = idAt(noteId, pageIndex) ?: return null
+            val location = pages[noteId]?.get(pageId) ?: return null
+            RandomAccessFile(segments.getValue(location.segment).file, "r").channel to location
+        }
+    }
+
+    /**
+     * [remaining] bytes of [channel] from [position], read with positional reads. Closing it
+     * closes the channel.
+     */
+    private class RecordInputStream(
+        private val channel: FileChannel,
+        private var position: Long,
+        private var remaining: Long
+    ) : InputStream() {
+        override fun read(): Int {
+            val one = ByteArray(1)
+            return if (read(one, 0, 1) < 0) -1 else one[0].toInt() and 0xFF
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            if (remaining <= 0) return -1
+            val count = channel.read(ByteBuffer.wrap(b, off, minOf(len.toLong(), remaining).toInt()), position)
+            if (count < 0) throw EOFException("页面记录不完整")
+            position += count
+            remaining -= count
+            return count
+        }
+
+        override fun available(): Int = minOf(remaining, Int.MAX_VALUE.toLong()).toInt()
+
+        override fun close() {
+            channel.close()
+        }
+    }
+
+    private fun readStored(location: Location, text: Boolean): ByteArray {
+        val start = location.offset + HEADER_SIZE + if (text) location.htmlLength else 0
+        val data = ByteBuffer.allocate(if (text) location.textLength else location.htmlLength)
+        readFully(segments.getValue(location.segment).channel, data, start)
+        return data.array()
+    }
+
+    private fun idAt(noteId: Long, pageIndex: Int): Int? =
+        orders[noteId]?.ids?.getOrNull(pageIndex - FIRST_PAGE)
+
+    /**
+     * The hash of the stored HTML of a page, or [NO_HASH] when there is no such page.
+     */
+    private fun storedHash(noteId: Long, pageId: Int): Long {
+        val location = pages[noteId]?.get(pageId) ?: return NO_HASH
+        if (location.htmlHash == NO_HASH) {
+            val html = readStored(location, text = false)
+            location.htmlHash = hash(if (location.compressed) inflate(html) else html)
+        }
+        return location.htmlHash
+    }
+
+    private fun ensureOpen() {
+        // The legacy import in open() saves through the public methods.
+        if (opened || lock.isWriteLockedByCurrentThread) return
+        lock.write {
+            if (opened) return
+            open()
+        }
+    }
+
+    /**
+     * Rebuild the index from the segments. Only the last segment can end in a torn record,
+     * so it alone is read in full and checked; the others are read header by header.
+     */
+    private fun open() {
+        root.mkdirs()
+        root.listFiles { file -> file.name.endsWith(SEGMENT_SUFFIX) }?.forEach { file ->
+            val id = file.name.removeSuffix(SEGMENT_SUFFIX).toIntOrNull() ?: return@forEach
+            segments[id] = Segment(id, file)
+        }
+        for (segment in segments.values) {
+            val last = segment === segments.lastEntry()?.value
+            val end = scan(segment, verify = last)
+            if (end < segment.channel.size()) {
+                Log.w(TAG, "页面存储段不完整: ${segment.file.name} $end/${segment.channel.size()}")
+                if (last) {
+                    segment.channel.truncate(end)
+                    segment.channel.force(false)
+                }
+            }
+        }
+        pageDeletes.clear()
+        noteDeletes.clear()
+        active = segments.lastEntry()?.value
+
+        for ((noteId, notePages) in pages.entries.toList()) {
+            val order = orders[noteId]
+            if (order == null) {
+                // Stored before order records: the page ids are the page indexes.
+                setOrder(noteId, PageOrder(notePages.keys.toIntArray(), notePages.lastKey() + 1, null))
+            } else {
+                notePages.keys.filter { it !in order.ids }.forEach { setLocation(noteId, it, null) }
+            }
+        }
+
+        val marker = File(root, LEGACY_MARKER)
+        if (legacyDir != null && !marker.exists()) {
+            legacyDir.listFiles { file -> file.isDirectory && file.name.toLongOrNull() != null }
+                ?.forEach { importLegacy(it) }
+            marker.createNewFile()
+        }
+        opened = true
+    }
+
+    /**
+     * Apply the records of a segment to the index. The records of a group are held back
+     * until its commit record.
+     *
+     * @return The end of the last valid record outside an unfinished group.
+     */
+    private fun scan(segment: Segment, verify: Boolean): Long {
+        val channel = segment.channel
+        val size = channel.size()
+        val group = ArrayList<Pair<Header, Long>>()
+        var groupStart = 0L
+        var position = 0L
+        while (true) {
+            val header = readHeader(channel, position, size) ?: break
+            if (verify && readRecord(channel, position) == null) {
+                break
+            }
+            seq = maxOf(seq, header.seq)
+            when {
+                header.kind == COMMIT -> {
+                    group.forEach { (member, offset) -> apply(segment, member, offset) }
+                    group.clear()
+                }
+
+                header.grouped -> {
+                    if (group.isEmpty()) {
+                        groupStart = position
+                    }
+                    group.add(header to position)
+                }
+
+                else -> {
+                    // A group followed by a single record was never committed.
+                    group.clear()
+                    apply(segment, header, position)
+                }
+            }
+            position += header.length
+        }
+        return if (group.isEmpty()) position else groupStart
+    }
+
+    private fun apply(segment: Segment, header: Header, position: Long) {
+        val noteId = header.noteId
+        val pageId = header.pageId
+        val location = Location(
+            segment.id, position, header.seq, header.htmlLength, header.textLength, header.compressed
+        )
+        when (header.kind) {
+            PUT -> {
+                val current = pages[noteId]?.get(pageId)
+                val deleted = maxOf(pageDeletes[noteId to pageId] ?: 0, noteDeletes[noteId] ?: 0)
+                if ((current == null || current.seq < header.seq) && header.seq > deleted) {
+                    setLocation(noteId, pageId, location, segment)
+                }
+            }
+
+            ORDER -> {
+                val current = orders[noteId]?.location
+                if ((current == null || current.seq < header.seq) && header.seq > (noteDeletes[noteId] ?: 0)) {
+                    val record = readRecord(segment.channel, position) ?: return
+                    setOrder(noteId, decodeOrder(record.html, location), segment)
+                }
+            }
+
+            DELETE_PAGE -> {
+                pageDeletes.merge(noteId to pageId, header.seq, ::maxOf)
+                val current = pages[noteId]?.get(pageId)
+                if (current != null && current.seq < header.seq) {
+                    setLocation(noteId, pageId, null)
+                }
+            }
+
+            DELETE_NOTE -> {
+                noteDeletes.merge(noteId, header.seq, ::maxOf)
+                pages[noteId]?.filterValues { it.seq < header.seq }?.keys?.toList()
+                    ?.forEach { setLocation(noteId, it, null) }
+                val order = orders[noteId]
+                if (order?.location != null && order.location.seq < header.seq) {
+                    setOrder(noteId, null)
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the live records of a segment forward and delete it. Tombstones are copied too
+     * unless no older segment is left for them to hide records in. Copies are single records:
+     * the groups they came from were committed.
+     */
+    private fun compactSegment(id: Int) {
+        val segment = lock.read { segments[id] } ?: return
+        val size = segment.channel.size()
+        var position = 0L
+        while (position < size) {
+            lock.write {
+                if (segments[id] !== segment) return
+                var copied = 0
+                while (position < size && copied < COMPACT_BATCH) {
+                    val record = readRecord(segment.channel, position) ?: break
+                    val oldest = segments.firstKey() == id
+                    val noteId = record.noteId
+                    val pageId = record.pageId
+                    when (record.kind) {
+                        PUT -> {
+                            val current = pages[noteId]?.get(pageId)
+                            if (current != null && current.segment == id && current.offset == position) {
+                                val location = append(listOf(copiedPut(record)), force = false).single()
+                                location.htmlHash = current.htmlHash
+                                setLocation(noteId, pageId, location)
+                            }
+                        }
+
+                        ORDER -> {
+                            val current = orders[noteId]
+                            if (current?.location != null && current.location.segment == id &&
+                                current.location.offset == position
+                            ) {
+                                val copy = Record(ORDER, record.seq, noteId, 0, record.html)
+                                val location = append(listOf(copy), force = false).single()
+                                setOrder(noteId, PageOrder(current.ids, current.nextId, location))
+                            }
+                        }
+
+                        DELETE_PAGE -> if (!oldest && pages[noteId]?.get(pageId) == null) {
+                            append(listOf(Record(DELETE_PAGE, record.seq, noteId, pageId)), force = false)
+                        }
+
+                        DELETE_NOTE -> if (!oldest) {
+                            append(listOf(Record(DELETE_NOTE, record.seq, noteId, 0)), force = false)
+                        }
+                    }
+                    position += record.length
+                    copied++
+                }
+                if (copied < COMPACT_BATCH && position < size) {
+                    Log.w(TAG, "页面存储段损坏，停止整理: ${segment.file.name}")
+                    return
+                }
+            }
+        }
+        // The copies must be on disk before the only other copy is deleted.
+        sync()
+        lock.write {
+            segments.remove(id)
+            segment.channel.close()
+            segment.file.delete()
+        }
+    }
+
+    /**
+     * A put record for the raw bytes of a page, compressed when that is on and pays off and
+     * the HTML is small enough to be read whole.
+     */
+    private fun putRecord(
+        noteId: Long,
+        pageId: Int,
+        html: ByteArray,
+        text: ByteArray,
+        recordSeq: Long = ++seq
+    ): Record {
+        if (compress && html.size < MAPPED_HTML_SIZE) {
+            val deflatedHtml = deflate(html)
+            val deflatedText = deflate(text)
+            if (deflatedHtml.size + deflatedText.size < html.size + text.size) {
+                val type = (PUT.toInt() or COMPRESSED).toByte()
+                return Record(type, recordSeq, noteId, pageId, deflatedHtml, deflatedText)
+            }
+        }
+        return Record(PUT, recordSeq, noteId, pageId, html, text)
+    }
+
+    /**
+     * A stored put record to write again as is, compressing it if it was stored raw.
+     */
+    private fun copiedPut(stored: Record): Record =
+        if (stored.compressed || !compress) {
+            val type = (stored.type.toInt() and (KIND_MASK or COMPRESSED)).toByte()
+            Record(type, stored.seq, stored.noteId, stored.pageId, stored.html, stored.text)
+        } else {
+            putRecord(stored.noteId, stored.pageId, stored.html, stored.text, stored.seq)
+        }
+
+    /**
+     * An order record: the id the next new page gets, then the page ids in page order.
+     */
+    private fun orderRecord(noteId: Long, pageIds: List<Int>, nextId: Int): Record {
+        val payload = ByteBuffer.allocate(4 * (pageIds.size + 1)).putInt(nextId)
+        pageIds.forEach { payload.putInt(it) }
+        return record(ORDER, noteId, 0, payload.array())
+    }
+
+    private fun decodeOrder(payload: ByteArray, location: Location): PageOrder {
+        val buffer = ByteBuffer.wrap(payload)
+        val nextId = buffer.int
+        return PageOrder(IntArray(buffer.remaining() / 4) { buffer.int }, nextId, location)
+    }
+
+    private fun record(
+        type: Byte,
+        noteId: Long,
+        pageId: Int,
+        html: ByteArray = EMPTY,
+        text: ByteArray = EMPTY
+    ) = Record(type, ++seq, noteId, pageId, html, text)
+
+    /**
+     * Write [records] with one write call and, with [force], one fsync. More than one record
+     * form a group closed by a commit record. A failed write is cut off again before the
+     * error is rethrown, so the segment still ends at a record boundary.
+     *
+     * @return The locations of the records.
+     */
+    private fun append(records: List<Record>, force: Boolean = true): List<Location> {
+        val grouped = records.size > 1
+        val commit = if (grouped) Record(COMMIT, ++seq, 0, records.size) else null
+        val all = if (commit != null) records + commit else records
+        val segment = activeSegment(all.sumOf { it.length })
+        val buffer = ByteBuffer.allocate(all.sumOf { it.length })
+        val offset = segment.channel.size()
+        val locations = ArrayList<Location>(records.size)
+        for (record in all) {
+            if (record !== commit) {
+                locations.add(
+                    Location(
+                        segment.id,
+                        offset + buffer.position(),
+                        record.seq,
+                        record.html.size,
+                        record.text.size,
+                        record.compressed
+                    )
+                )
+            }
+            val start = buffer.position()
+            val type = if (grouped && record !== commit) record.type.toInt() or GROUPED else record.type.toInt()
+            buffer.put(type.toByte())
+                .putLong(record.seq)
+                .putLong(record.noteId)
+                .putInt(record.pageId)
+                .putInt(record.html.size)
+                .putInt(record.text.size)
+                .putInt(0)
+                .put(record.html)
+                .put(record.text)
+            buffer.putInt(start + CRC_OFFSET, checksum(buffer.array(), start, record.length))
+        }
+        buffer.flip()
+        var position = offset
+        try {
+            while (buffer.hasRemaining()) {
+                position += segment.channel.write(buffer, position)
+            }
+            if (force) {
+                segment.channel.force(false)
+            }
+        } catch (e: IOException) {
+            // A partial write left in place would sit before the next append and end the
+            // scan there on open, dropping every record written after it.
+            try {
+                segment.channel.truncate(offset)
+            } catch (t: IOException) {
+                e.addSuppressed(t)
+            }
+            throw e
+        }
+        return locations
+    }
+
+    /**
+     * The segment to append [length] bytes to, starting a new one when the active one is full.
+     * A group never spans two segments.
+     */
+    private fun activeSegment(length: Int): Segment {
+        val current = active
+        if (current != null && (current.channel.size() == 0L || current.channel.size() + length <= segmentSize)) {
+            return current
+        }
+        val id = (segments.lastEntry()?.key ?: 0) + 1
+        return Segment(id, File(root, "%08d%s".format(id, SEGMENT_SUFFIX))).also {
+            // The new file's directory entry must survive a crash like the records in it.
+            syncDirectory()
+            segments[id] = it
+            active = it
+        }
+    }
+
+    private fun setLocation(noteId: Long, pageId: Int, location: Location?, segment: Segment? = null) {
+        val notePages = pages.getOrPut(noteId) { TreeMap() }
+        val previous = if (location == null) notePages.remove(pageId) else notePages.put(pageId, location)
+        previous?.let { segments[it.segment]?.let { old -> old.live -= it.length } }
+        location?.let { (segment ?: segments.getValue(it.segment)).live += it.length }
+        if (notePages.isEmpty()) {
+            pages.remove(noteId)
+        }
+    }
+
+    private fun setOrder(noteId: Long, order: PageOrder?, segment: Segment? = null) {
+        val previous = if (order == null) orders.remove(noteId) else orders.put(noteId, order)
+        previous?.location?.let { segments[it.segment]?.let { old -> old.live -= it.length } }
+        order?.location?.let { (segment ?: segments.getValue(it.segment)).live += it.length }
+    }
+
+    private fun readRecord(location: Location): Record? =
+        segments[location.segment]?.let { readRecord(it.channel, location.offset) }
+
+    /**
+     * The header of the record at [position], or null when it is not a valid one that fits
+     * in [size].
+     */
+    private fun readHeader(channel: FileChannel, position: Long, size: Long): Header? {
+        if (position + HEADER_SIZE > size) return null
+        val buffer = ByteBuffer.allocate(HEADER_SIZE)
+        readFully(channel, buffer, position)
+        buffer.flip()
+        val header = Header(buffer.get(), buffer.long, buffer.long, buffer.int, buffer.int, buffer.int)
+        if (header.kind !in PUT..ORDER || header.htmlLength < 0 || header.textLength < 0 ||
+            position + header.length.toLong() > size
+        ) {
+            return null
+        }
+        return header
+    }
+
+    /**
+     * The record at [position], or null when it is cut off or fails its checksum.
+     */
+    private fun readRecord(channel: FileChannel, position: Long): Record? {
+        val header = readHeader(channel, position, channel.size()) ?: return null
+        val record = ByteBuffer.allocate(header.length)
+        readFully(channel, record, position)
+        val bytes = record.array()
+        val htmlLength = header.htmlLength
+        if (record.getInt(CRC_OFFSET) != checksum(bytes, 0, bytes.size)) return null
+        return Record(
+            type = record.get(0),
+            seq = record.getLong(1),
+            noteId = record.getLong(9),
+            pageId = record.getInt(17),
+            html = bytes.copyOfRange(HEADER_SIZE, HEADER_SIZE + htmlLength),
+            text = bytes.copyOfRange(HEADER_SIZE + htmlLength, bytes.size)
+        )
+    }
+
+    private fun sync() {
+        lock.read { active?.channel?.force(false) }
+    }
+
+    private fun syncDirectory() {
+        try {
+            val fd = Os.open(root.path, OsConstants.O_RDONLY, 0)
+            try {
+                Os.fsync(fd)
+            } finally {
+                Os.close(fd)
+            }
+        } catch (e: ErrnoException) {
+            Log.w(TAG, "同步页面存储目录失败", e)
+        }
+    }
+
+    private fun scheduleCompaction() {
+        val garbage = lock.read {
+            segments.values.sumOf { if (it === active) 0L else it.channel.size() - it.live }
+        }
+        if (garbage >= COMPACT_MIN_GARBAGE) {
+            signal.trySend(Unit)
+        }
+    }
+
+    companion object {
+        private const val TAG = "PageStore"
+        private const val SEGMENT_SUFFIX = ".seg"
+        private const val SEGMENT_SIZE = 4L * 1024 * 1024
+        private const val LEGACY_HTML = "H5.html"
+        private const val LEGACY_TEXT = "content.txt"
+        private const val LEGACY_IMAGE_DIR = "img"
+        private const val LEGACY_MARKER = "legacy-imported"
+
+        private const val PUT: Byte = 1
+        private const val DELETE_PAGE: Byte = 2
+        private const val DELETE_NOTE: Byte = 3
+        private const val COMMIT: Byte = 4
+        private const val ORDER: Byte = 5
+        private const val FIRST_PAGE = 1
+
+        // Set in the type of the records of a group.
+        private const val GROUPED = 0x40
+
+        // Set in the type of a put whose HTML and text are deflated.
+        private const val COMPRESSED = 0x20
+        private const val KIND_MASK = 0x1F
+        private val EMPTY = ByteArray(0)
+        private const val NO_HASH = 0L
+
+        // type (1), seq (8), note id (8), page id (4), HTML length (4), text length (4), crc32 (4)
+        private const val HEADER_SIZE = 33
+        private const val CRC_OFFSET = 29
+
+        // A sealed segment below this share of live bytes is compacted.
+        private const val COMPACT_RATIO = 0.5
+        private const val COMPACT_MIN_GARBAGE = 1024L * 1024
+        private const val COMPACT_BATCH = 64
+        private const val COMPACT_DELAY_MS = 5_000L
+        private const val STREAM_BUFFER_SIZE = 8192
+
+        @Volatile
+        private var instance: PageStore? = null
+
+        fun getInstance(application: Application): PageStore =
+            instance ?: synchronized(this) {
+                instance ?: PageStore(
+                    File(application.filesDir, PAGE_DIR),
+                    application.filesDir
+                ).also { instance = it }
+            }
+
+        internal const val PAGE_DIR = "pages"
+
+        /**
+         * HTML of at least this many bytes is stored uncompressed, so [mapHtml] maps it instead
+         * of inflating the whole page onto the heap. Smaller pages are read whole anyway.
+         */
+        internal const val MAPPED_HTML_SIZE = 64 * 1024
+
+        /** Page ids of a note in page order, comma separated, next to its page directories. */
+        const val ORDER_FILE = "pages.order"
+
+        /**
+         * The checksum of the record at [start] of [buffer], over everything but its checksum
+         * field.
+         */
+        private fun checksum(buffer: ByteArray, start: Int, length: Int): Int {
+            val crc = CRC32()
+            crc.update(buffer, start, CRC_OFFSET)
+            crc.update(buffer, start + HEADER_SIZE, length - HEADER_SIZE)
+            return crc.value.toInt()
+        }
+
+        /**
+         * A 64 bit content hash (the head of SHA-256). Collisions are practically impossible,
+         * which matters because equal hashes skip a save.
+         */
+        private fun hash(bytes: ByteArray): Long {
+            val hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes)).long
+            // NO_HASH marks an unknown hash.
+            return if (hash == NO_HASH) 1L else hash
+        }
+
+        private fun deflate(bytes: ByteArray): ByteArray {
+            val deflater = Deflater(Deflater.BEST_SPEED)
+            try {
+                deflater.setInput(bytes)
+                deflater.finish()
+                val output = ByteArrayOutputStream(bytes.size / 2 + 64)
+                val buffer = ByteArray(8192)
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer))
+                }
+                return output.toByteArray()
+            } finally {
+                deflater.end()
+            }
+        }
+
+        private fun inflate(bytes: ByteArray): ByteArray =
+            InflaterInputStream(ByteArrayInputStream(bytes)).use { it.readBytes() }
+
+        private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+            var offset = position
+            while (buffer.hasRemaining()) {
+                val count = channel.read(buffer, offset)
+                if (count < 0) break
+                offset += count
+            }
+        }
+    }
+}
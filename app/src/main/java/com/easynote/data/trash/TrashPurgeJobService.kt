@@ -0,0 +1,75 @@
+package com.easynote.data.trash
+
+import android.app.job.JobInfo
+import android.app.job.JobParameters
+import android.app.job.JobScheduler
+import android.app.job.JobService
+import android.content.ComponentName
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs [TrashPurger.purgeExpired] once a day while the device is idle. When the system
+ * stops the job because the device is in use again, the purge is cancelled between batches
+ * and continues on the next run.
+ */
+class TrashPurgeJobService : JobService() {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var job: Job? = null
+
+    override fun onStartJob(params: JobParameters): Boolean {
+        job = scope.launch {
+            var retry = false
+            try {
+                val purged = TrashPurger.getInstance(application).purgeExpired()
+                Log.d(TAG, "回收站已清理 $purged 条笔记")
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "清理回收站失败", e)
+                retry = true
+            }
+            jobFinished(params, retry)
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean {
+        job?.cancel()
+        return true
+    }
+
+    override fun onDestroy() {
+        scope.cancel()
+        super.onDestroy()
+    }
+
+    companion object {
+        private const val TAG = "TrashPurgeJobService"
+        private const val JOB_ID = 0x7472 // "tr"
+
+        /**
+         * Schedule the daily purge unless it is already pending.
+         */
+        fun schedule(context: Context) {
+            val scheduler = context.getSystemService(JobScheduler::class.java) ?: return
+            if (scheduler.getPendingJob(JOB_ID) != null) {
+                return
+            }
+            scheduler.schedule(
+                JobInfo.Builder(JOB_ID, ComponentName(context, TrashPurgeJobService::class.java))
+                    .setRequiresDeviceIdle(true)
+                    .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                    .build()
+            )
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.easynote.data.trash
+
+import android.app.Application
+import androidx.room.withTransaction
+import com.easynote.data.backup.ChangeJournal
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.indexer.SearchIndexer
+import com.easynote.data.indexer.TagIndex
+import com.easynote.data.repository.FileRepository
+import com.easynote.data.repository.impl.FileRepositoryImpl
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.withContext
+import java.util.concurrent.TimeUnit
+
+/**
+ * Hard deletes notes that have been in the trash longer than [RETENTION_MS].
+ *
+ * Notes go in batches of [batchSize], each selected and deleted in one transaction so a note
+ * restored meanwhile is never purged, with a pause between batches so a large trash does not
+ * hold the database for long. Tag refs and search rows follow the note rows through their
+ * foreign key and trigger; the note directories go to the background reclaimer.
+ */
+class TrashPurger internal constructor(
+    private val noteDatabase: NoteDatabase,
+    private val fileRepository: FileRepository,
+    private val searchIndexer: SearchIndexer,
+    private val tagIndex: TagIndex,
+    private val changeJournal: ChangeJournal,
+    private val batchSize: Int = BATCH_SIZE,
+    private val batchDelayMs: Long = BATCH_DELAY_MS
+) {
+    private val noteEntityDao = noteDatabase.getNoteEntityDao()
+
+    /**
+     * Purge the notes whose retention ran out by [now].
+     *
+     * @return The number of purged notes.
+     */
+    suspend fun purgeExpired(now: Long = System.currentTimeMillis()): Int = purge(now - RETENTION_MS)
+
+    /**
+     * Purge every note in the trash.
+     *
+     * @return The number of purged notes.
+     */
+    suspend fun purgeAll(): Int = purge(Long.MAX_VALUE)
+
+    private suspend fun purge(before: Long): Int = withContext(Dispatchers.IO) {
+        var purged = 0
+        while (true) {
+            val ids = noteDatabase.withTransaction {
+                noteEntityDao.getTrashedBefore(before, batchSize).toSet().also { ids ->
+                    if (ids.isNotEmpty()) noteEntityDao.deleteById(ids)
+                }
+            }
+            if (ids.isEmpty()) break
+            searchIndexer.discard(ids)
+            tagIndex.invalidate()
+            fileRepository.deleteFile(ids)
+            changeJournal.notesDeleted(ids)
+            purged += ids.size
+            if (ids.size < batchSize) break
+            delay(batchDelayMs)
+        }
+        purged
+    }
+
+    companion object {
+        val RETENTION_MS = TimeUnit.DAYS.toMillis(30)
+        private const val BATCH_SIZE = 100
+        private const val BATCH_DELAY_MS = 200L
+
+        @Volatile
+        private var instance: TrashPurger? = null
+
+        fun getInstance(application: Application): TrashPurger =
+            instance ?: synchronized(this) {
+                instance ?: TrashPurger(
+                    NoteDatabase.getInstance(application),
+                    FileRepositoryImpl(application),
+                    SearchIndexer.getInstance(application),
+                    TagIndex.getInstance(application),
+                    ChangeJournal.getInstance(application)
+                ).also { instance = it }
+            }
+    }
+}
@@ -50,6 +50,9 @@ class NoteDetailActivity : AppCompatActivity() {
 
     private var isDataChanged = false
 
+    // 自上次保存后删除的页码（按删除顺序），保存时只作为页码变化处理，不重写后面的页面
+    private val removedPages = mutableListOf<Int>()
+
     private var pendingImageCallback: ((Uri) -> Unit)? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -128,7 +131,8 @@ class NoteDetailActivity : AppCompatActivity() {
             save = { position, html ->
                 val currentPageIndex = pageList[position].pageNumber
 
-                viewModel.saveNotePage(currentNoteId, currentPageIndex, html)
+                // 排队的删除先生效，页码才对得上存储中的页面
+                viewModel.saveNotePage(currentNoteId, currentPageIndex, html, takeRemovedPages(), ::requeueRemovedPages)
 
                 Toast.makeText(this, "第 ${position + 1} 页正在保存...", Toast.LENGTH_SHORT).show()
             },
@@ -214,7 +218,8 @@ class NoteDetailActivity : AppCompatActivity() {
 
     private fun addNewPage() {
         val newIndex = pageList.size + 1
-        val newPage = NotePage(System.currentTimeMillis(), newIndex, "")
+        // 新页面还没有保存过，需要写入
+        val newPage = NotePage(System.currentTimeMillis(), newIndex, "", isDirty = true)
         pageList.add(newPage)
 
         pagerAdapter.notifyItemInserted(pageList.size - 1)
@@ -384,8 +389,8 @@ class NoteDetailActivity : AppCompatActivity() {
             // 获取当前页码
             val currentPageIndex = pageList[viewPager.currentItem].pageNumber
 
-            // ViewModel保存图片
-            viewModel.saveImage(currentNoteId, currentPageIndex, srcUri) { localUri ->
+            // ViewModel保存图片；排队的删除先生效，否则图片会记在存储中即将删除的页面下
+            viewModel.saveImage(currentNoteId, currentPageIndex, srcUri, takeRemovedPages(), ::requeueRemovedPages) { localUri ->
 
                 // 1. ViewModel 保存成功，回调返回本地路径 (file://...)
                 // 2. 将这个本地路径传给 RichTextView 进行显示
@@ -402,16 +407,37 @@ class NoteDetailActivity : AppCompatActivity() {
     private fun saveData() {
         if (currentNoteId == -1L) return
 
-        if (!isDataChanged) {
+        currentFocus?.clearFocus()
+
+        val dirtyPages = pageList.filter { it.isDirty }
+        if (!isDataChanged && dirtyPages.isEmpty() && removedPages.isEmpty()) {
             Log.d("NoteDetailActivity", "数据未修改，跳过保存")
             return
         }
 
-        currentFocus?.clearFocus()
-
         val tagsToList = currentTags.toList()
 
-        viewModel.saveNote(currentNoteId, pageList, tagsToList)
+        // 传入副本，保存过程中继续编辑不会影响这次保存的内容
+        viewModel.saveNote(currentNoteId, dirtyPages.map { it.copy() }, takeRemovedPages(), tagsToList) { unremoved ->
+            // 保存失败：页面重新标记为已修改，没删掉的页码下次保存时重试
+            dirtyPages.forEach { it.isDirty = true }
+            requeueRemovedPages(unremoved)
+            isDataChanged = true
+        }
+        // 先清除标记，保存过程中的新编辑会重新标记
+        dirtyPages.forEach { it.isDirty = false }
+        isDataChanged = false
+    }
+
+    // 取出排队的删除，交给下一次写入先执行
+    private fun takeRemovedPages(): List<Int> = removedPages.toList().also { removedPages.clear() }
+
+    // 没删掉的页码排在之后的删除前面，下次写入时重试
+    private fun requeueRemovedPages(unremoved: List<Int>) {
+        removedPages.addAll(0, unremoved)
+        if (unremoved.isNotEmpty()) {
+            isDataChanged = true
+        }
     }
 
     private fun showPageManageMenu() {
@@ -445,11 +471,17 @@ class NoteDetailActivity : AppCompatActivity() {
 
         val currentPosition = viewPager.currentItem
 
-        pageList.removeAt(currentPosition)
+        val removed = pageList.removeAt(currentPosition)
+        removedPages.add(removed.pageNumber)
 
+        // 后面的页面只是页码减一，内容不变，不需要标记为已修改
         pageList.forEachIndexed { index, page ->
             page.pageNumber = index + 1
         }
+        if (currentPosition == 0) {
+            // 第一页决定摘要
+            pageList[0].isDirty = true
+        }
 
         pagerAdapter.notifyItemRemoved(currentPosition)
         pagerAdapter.notifyItemRangeChanged(currentPosition, pageList.size)
@@ -59,6 +59,7 @@ class NotePagerAdapter(
 
             override fun onContentChanged(html: String) {
                 page.content = html
+                page.isDirty = true
             }
 
             override fun onAIRequest(text: String, taskType: TaskType, context: String?, onResult: (String) -> Unit) {
@@ -5,9 +5,11 @@ package com.easynote.detail.data.model
  * @param id 页面的唯一标识
  * @param pageNumber 页码
  * @param content 这一页写的文字内容
+ * @param isDirty 内容自上次保存后是否被修改，保存时只处理被修改的页面
  */
 data class NotePage(
     val id: Long,
     var pageNumber: Int,
-    var content: String
+    var content: String,
+    var isDirty: Boolean = false
 )
\ No newline at end of file
@@ -12,8 +12,12 @@ import com.easynote.detail.data.model.NotePage
 import com.easynote.ai.core.AIProvider
 import com.easynote.ai.core.TaskType
 import com.easynote.data.entity.TagEntity
+import com.easynote.data.storage.PageContent
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import androidx.paging.PagingData
 import androidx.paging.cachedIn
@@ -34,6 +38,16 @@ class NoteDetailViewModel(application: Application) : AndroidViewModel(applicati
 
 
     var currentTitle: String = ""
+
+    // 最近一次保存（或加载）的标题，标题未变时不再写数据库
+    private var savedTitle: String? = null
+
+    // 删除页面、保存页面和插入图片按调用顺序执行，页码都以之前的删除已经生效为准
+    private val pageMutex = Mutex()
+
+    // 插图时已经删除了第一页，下次保存时更新摘要
+    private var firstPageRemoved = false
+
     fun loadNoteContent(noteId: Long) {
         isLoading.value = true
         viewModelScope.launch {
@@ -41,6 +55,7 @@ class NoteDetailViewModel(application: Application) : AndroidViewModel(applicati
 
             if (noteWithTags != null) {
                 val title = noteWithTags.noteEntity?.title
+                savedTitle = title
                 if (!title.isNullOrEmpty()) {
                     noteTitle.value = title!!
                 }
@@ -91,42 +106,96 @@ class NoteDetailViewModel(application: Application) : AndroidViewModel(applicati
 
 
 
-    fun saveNotePage(noteId: Long, pageIndex: Int, htmlContent: String) {
+    /**
+     * 保存单页
+     *
+     * @param removedPages 尚未生效的页面删除，先于保存执行，[pageIndex] 才是存储中的页码
+     * @param onFailure 删除失败时回调，参数为还没有删除的页码
+     */
+    fun saveNotePage(
+        noteId: Long,
+        pageIndex: Int,
+        htmlContent: String,
+        removedPages: List<Int>,
+        onFailure: (List<Int>) -> Unit
+    ) {
         viewModelScope.launch {
-            try {
-                // 提取纯文本用于搜索预览（可选，简单正则去标签）
-                val plainText = Html.fromHtml(htmlContent,Html.FROM_HTML_MODE_LEGACY).toString()
-
-                // 调用 Repository 保存
-                repository.updateNoteContent(
-                    noteId = noteId,
-                    pageIndex = pageIndex,
-                    newContent = plainText,
-                    newHTMLContent = htmlContent
-                )
-                repository.updateTitleOrSummary(noteId, currentTitle, null)
-                Log.d("NoteDetailViewModel", "第 $pageIndex 页保存成功,标题已更新: $currentTitle")
+            pageMutex.withLock {
+                var removed = 0
+                try {
+                    removedPages.forEach { removedIndex ->
+                        removePage(noteId, removedIndex)
+                        removed++
+                    }
+                    // 内容没有变化的页面不提取文本、不写入、不重建索引
+                    val pageChanged = pageIndex in repository.getChangedPages(noteId, mapOf(pageIndex to htmlContent))
+                    if (pageChanged) {
+                        // 提取纯文本用于搜索预览（可选，简单正则去标签）
+                        val plainText = Html.fromHtml(htmlContent,Html.FROM_HTML_MODE_LEGACY).toString()
+
+                        // 调用 Repository 保存
+                        repository.updateNoteContent(
+                            noteId = noteId,
+                            pageIndex = pageIndex,
+                            newContent = plainText,
+                            newHTMLContent = htmlContent
+                        )
+                    }
+                    if (pageChanged || currentTitle != savedTitle) {
+                        repository.updateTitleOrSummary(noteId, currentTitle, null)
+                        savedTitle = currentTitle
+                    }
+                    Log.d("NoteDetailViewModel", "第 $pageIndex 页保存成功,内容变化: $pageChanged, 标题: $currentTitle")
 
 
-            } catch (e: Exception) {
-                e.printStackTrace()
-                // 通知 Activity "保存失败"
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                    // 通知 Activity "保存失败"
+                    onFailure(removedPages.drop(removed))
+                }
             }
         }
     }
 
-    // 图片保存
-    fun saveImage(noteId: Long, pageIndex: Int, sourceUri: Uri, onResult: (Uri) -> Unit) {
-        viewModelScope.launch {
+    /**
+     * 图片保存
+     *
+     * 图片记在它所在的页面下，所以先执行尚未生效的页面删除 [removedPages]，否则 [pageIndex]
+     * 指向的可能是存储中即将删除的页面，删除时图片会随之被清理。
+     *
+     * @param onFailure 删除失败时回调，参数为还没有删除的页码
+     */
+    fun saveImage(
+        noteId: Long,
+        pageIndex: Int,
+        sourceUri: Uri,
+        removedPages: List<Int>,
+        onFailure: (List<Int>) -> Unit,
+        onResult: (Uri) -> Unit
+    ): Job = viewModelScope.launch {
+        pageMutex.withLock {
+            var removed = 0
             try {
+                removedPages.forEach { removedIndex ->
+                    removePage(noteId, removedIndex)
+                    removed++
+                }
                 val localPath = repository.saveImage(noteId, pageIndex, sourceUri)
                 onResult(Uri.fromFile(File(localPath)))
             } catch (e: Exception) {
                 e.printStackTrace()
+                onFailure(removedPages.drop(removed))
             }
         }
     }
 
+    private suspend fun removePage(noteId: Long, pageIndex: Int) {
+        repository.deleteNotePage(noteId, pageIndex)
+        if (pageIndex == FIRST_PAGE) {
+            firstPageRemoved = true
+        }
+    }
+
     // 更新笔记摘要
     fun updateAbstract(noteId: Long, abstract: String) {
         viewModelScope.launch {
@@ -166,35 +235,81 @@ class NoteDetailViewModel(application: Application) : AndroidViewModel(applicati
         })
     }
 
-    fun saveNote(noteId: Long, pages: List<NotePage>, tags: List<TagEntity>) {
-        viewModelScope.launch {
+    /**
+     * 保存笔记：只处理修改过的页面
+     *
+     * @param dirtyPages 自上次保存后修改过的页面
+     * @param removedPages 自上次保存后删除的页码，按删除顺序；删除只改变后面页面的页码，不重写它们
+     * @param onFailure 保存失败时回调，参数为还没有删除的页码，调用方据此重新标记待保存的内容
+     */
+    fun saveNote(
+        noteId: Long,
+        dirtyPages: List<NotePage>,
+        removedPages: List<Int>,
+        tags: List<TagEntity>,
+        onFailure: (List<Int>) -> Unit
+    ): Job = viewModelScope.launch {
+        pageMutex.withLock {
+            var removed = 0
             try {
                 val titleToSave = if (currentTitle.isBlank()) "无标题笔记" else currentTitle
 
-                val firstPageHtml = pages.firstOrNull()?.content ?: ""
-                val summary = Html.fromHtml(firstPageHtml,Html.FROM_HTML_MODE_LEGACY).toString().take(100)
+                // 按删除时的页码依次删除，存储中后面的页面随之前移
+                removedPages.forEach { pageIndex ->
+                    removePage(noteId, pageIndex)
+                    removed++
+                }
 
-                repository.updateTitleOrSummary(noteId, titleToSave, summary)
+                // 修改过的页面里 HTML 真正变化的才提取文本、写入、重建索引
+                val changed = repository.getChangedPages(
+                    noteId,
+                    dirtyPages.associate { it.pageNumber to it.content }
+                )
+                // 所有页面作为一组提交，崩溃时要么全部保存要么都不保存
+                val contents = dirtyPages.filter { it.pageNumber in changed }.map { page ->
+                    val plainText = Html.fromHtml(page.content,Html.FROM_HTML_MODE_LEGACY).toString()
+                    PageContent(page.pageNumber, plainText, page.content)
+                }
+
+                // 摘要取自第一页，第一页未变化时沿用原摘要
+                val firstPage = dirtyPages.firstOrNull { it.pageNumber == FIRST_PAGE }
+                val summary = when {
+                    firstPage == null -> null
+                    FIRST_PAGE in changed -> contents.first { it.pageIndex == FIRST_PAGE }.content.take(100)
+                    // 原第一页被删除（包括插图前已删除的），新的第一页内容未变但摘要要更新
+                    firstPageRemoved ->
+                        Html.fromHtml(firstPage.content,Html.FROM_HTML_MODE_LEGACY).toString().take(100)
+                    else -> null
+                }
+                if (contents.isNotEmpty() || removedPages.isNotEmpty() || summary != null || titleToSave != savedTitle) {
+                    repository.updateTitleOrSummary(noteId, titleToSave, summary)
+                    savedTitle = titleToSave
+                    if (summary != null) {
+                        firstPageRemoved = false
+                    }
+                }
 
                 repository.updateNoteTags(noteId, *tags.toTypedArray())
 
-                pages.forEach { page ->
-                    val plainText = Html.fromHtml(page.content,Html.FROM_HTML_MODE_LEGACY).toString()
-                    repository.updateNoteContent(
-                        noteId = noteId,
-                        pageIndex = page.pageNumber,
-                        newContent = plainText,
-                        newHTMLContent = page.content
-                    )
+                if (contents.isNotEmpty()) {
+                    repository.updateNoteContents(noteId, contents)
                 }
 
-                Log.d("NoteDetailViewModel", "笔记(ID=$noteId) 已全部保存/更新")
+                Log.d(
+                    "NoteDetailViewModel",
+                    "笔记(ID=$noteId) 已保存，写入 ${contents.size} 页，删除 ${removedPages.size} 页"
+                )
 
             } catch (e: Exception) {
                 e.printStackTrace()
                 Log.e("NoteDetailViewModel", "保存失败: ${e.message}")
+                onFailure(removedPages.drop(removed))
             }
         }
     }
 
+    companion object {
+        private const val FIRST_PAGE = 1
+    }
+
 }
\ No newline at end of file
@@ -128,6 +128,11 @@ class HomeActivity : AppCompatActivity() {
                 startActivity(Intent(this, TagManagementActivity::class.java))
                 true
             }
+            // 跳转到回收站页面
+            R.id.action_trash -> {
+                startActivity(Intent(this, TrashActivity::class.java))
+                true
+            }
             R.id.action_menu -> {
                 binding.drawerLayout.openDrawer(GravityCompat.END)
                 true // 返回 true 表示事件已处理
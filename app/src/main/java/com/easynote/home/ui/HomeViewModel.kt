@@ -80,6 +80,7 @@ enum class PinActionState {
 // 定义一次性事件
 sealed interface HomeUiEvent {
     data class NavigateToDetail(val noteId: Long) : HomeUiEvent
+    data class NotesTrashed(val noteIds: Set<Long>) : HomeUiEvent // 笔记已移入回收站，可撤销
 }
 class HomeViewModel(
     application: Application,
@@ -403,19 +404,29 @@ class HomeViewModel(
     }
 
     /**
-     * 执行批量删除操作。
+     * 执行批量删除操作：选中的笔记移入回收站，到期后由后台任务彻底删除。
      */
     fun deleteSelectedNotes() {
         val currentMode = _uiMode.value
         if (currentMode is HomeUiMode.Managing && !currentMode.isSelectionEmpty) {
             val idsToDelete = currentMode.allSelectedIds
             viewModelScope.launch {
-                // 调用删除接口，传入要删除笔记的id
-                repository.deleteNoteById(idsToDelete)
+                // 只更新一次 deleted_at，笔记文件保留，撤销时直接恢复
+                repository.moveNotesToTrash(idsToDelete)
                 exitManagementMode()//退出管理模式
+                _uiEvent.send(HomeUiEvent.NotesTrashed(idsToDelete))
             }
         }
     }
+
+    /**
+     * 撤销刚才的批量删除，把笔记从回收站恢复。
+     */
+    fun undoDelete(noteIds: Set<Long>) {
+        viewModelScope.launch {
+            repository.restoreNotes(noteIds)
+        }
+    }
     /**
      * 根据当前的 PinActionState 执行置顶或取消置顶操作。
      */
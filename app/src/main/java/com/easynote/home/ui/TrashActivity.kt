@@ -0,0 +1,120 @@
+package com.easynote.home.ui
+
+import android.os.Bundle
+import android.view.Menu
+import android.view.MenuItem
+import android.widget.Toast
+import androidx.activity.viewModels
+import androidx.appcompat.app.AppCompatActivity
+import androidx.core.view.ViewCompat
+import androidx.core.view.WindowInsetsCompat
+import androidx.lifecycle.ViewModel
+import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.LinearLayoutManager
+import com.easynote.R
+import com.easynote.data.repository.impl.RepositoryImpl
+import com.easynote.databinding.ActivityTrashBinding
+import com.easynote.home.domain.model.NotePreviewModel
+import com.easynote.home.ui.Adapter.NotePreviewPagingAdapter
+import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
+
+/**
+ * 回收站页面：点击笔记可恢复，右上角菜单可清空回收站。
+ */
+class TrashActivity : AppCompatActivity() {
+
+    private lateinit var binding: ActivityTrashBinding
+
+    private val viewModel: TrashViewModel by viewModels {
+        object : ViewModelProvider.Factory {
+            override fun <T : ViewModel> create(modelClass: Class<T>): T {
+                val repo = RepositoryImpl(application)
+                @Suppress("UNCHECKED_CAST")
+                return TrashViewModel(application, repo) as T
+            }
+        }
+    }
+
+    // 回收站中不进入管理模式，长按不处理
+    private val adapter = NotePreviewPagingAdapter(
+        onItemClick = { note -> showRestoreDialog(note) },
+        onItemLongClick = { false }
+    )
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        binding = ActivityTrashBinding.inflate(layoutInflater)
+        setContentView(binding.root)
+        ViewCompat.setOnApplyWindowInsetsListener(binding.root) { v, insets ->
+            val systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars())
+            // 设置 Padding，避免内容被状态栏(top)和导航栏(bottom)遮挡
+            v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom)
+            insets
+        }
+        // Toolbar
+        setSupportActionBar(binding.toolbar)
+        supportActionBar?.setDisplayHomeAsUpEnabled(true)
+
+        // RecyclerView
+        binding.recyclerViewTrash.layoutManager = LinearLayoutManager(this)
+        binding.recyclerViewTrash.adapter = adapter
+
+        // 数据观察
+        lifecycleScope.launch {
+            viewModel.trashedNotes.collectLatest { pagingData ->
+                adapter.submitData(pagingData)
+            }
+        }
+
+        // 事件观察
+        lifecycleScope.launch {
+            viewModel.uiEvent.collect { event ->
+                when (event) {
+                    is TrashUiEvent.ShowToast -> {
+                        Toast.makeText(this@TrashActivity, event.message, Toast.LENGTH_SHORT).show()
+                    }
+                }
+            }
+        }
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu?): Boolean {
+        menuInflater.inflate(R.menu.trash_menu, menu)
+        return true
+    }
+
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        return when (item.itemId) {
+            android.R.id.home -> {
+                finish()
+                true
+            }
+            R.id.action_empty_trash -> {
+                showEmptyTrashDialog()
+                true
+            }
+            else -> super.onOptionsItemSelected(item)
+        }
+    }
+
+    private fun showRestoreDialog(note: NotePreviewModel) {
+        MaterialAlertDialogBuilder(this)
+            .setTitle("恢复笔记")
+            .setMessage("将“${note.title.ifEmpty { "无标题" }}”恢复到笔记列表？")
+            .setPositiveButton("恢复") { _, _ -> viewModel.restoreNote(note) }
+            .setNegativeButton("取消", null)
+            .show()
+    }
+
+    private fun showEmptyTrashDialog() {
+        MaterialAlertDialogBuilder(this)
+            .setTitle("清空回收站")
+            .setMessage("回收站中的笔记将被永久删除，无法恢复。")
+            .setPositiveButton("清空") { _, _ -> viewModel.emptyTrash() }
+            .setNegativeButton("取消", null)
+            .show()
+    }
+}
@@ -0,0 +1,60 @@
+package com.easynote.home.ui
+
+import android.app.Application
+import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.viewModelScope
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import androidx.paging.map
+import com.easynote.data.repository.Repository
+import com.easynote.home.domain.model.NotePreviewModel
+import com.easynote.home.mapper.toNotePreviewModel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.launch
+
+// UI 事件，用于通知 Activity 弹 Toast
+sealed class TrashUiEvent {
+    data class ShowToast(val message: String) : TrashUiEvent()
+}
+
+/**
+ * 回收站页面的 ViewModel：列出回收站中的笔记，恢复单条笔记，或清空回收站。
+ */
+class TrashViewModel(
+    application: Application,
+    private val repository: Repository
+) : AndroidViewModel(application) {
+
+    // 1. 回收站笔记列表，最近删除的在前
+    val trashedNotes: Flow<PagingData<NotePreviewModel>> =
+        repository.getTrashedNotesPagingFlow(PAGE_SIZE).map { pagingData ->
+            pagingData.map { noteWithTags -> noteWithTags.toNotePreviewModel() }
+        }.cachedIn(viewModelScope)
+
+    // 2. UI 事件通道
+    private val _uiEvent = Channel<TrashUiEvent>()
+    val uiEvent = _uiEvent.receiveAsFlow()
+
+    // 3. 恢复笔记，列表由 Paging 自动刷新
+    fun restoreNote(note: NotePreviewModel) {
+        viewModelScope.launch {
+            repository.restoreNotes(setOf(note.noteId))
+            _uiEvent.send(TrashUiEvent.ShowToast("笔记已恢复"))
+        }
+    }
+
+    // 4. 清空回收站，连同笔记文件一起永久删除
+    fun emptyTrash() {
+        viewModelScope.launch {
+            val count = repository.emptyTrash()
+            _uiEvent.send(TrashUiEvent.ShowToast("已永久删除 $count 条笔记"))
+        }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 20
+    }
+}
@@ -18,6 +18,7 @@ import com.easynote.home.ui.Adapter.CalendarAdapter
 import com.easynote.home.ui.Adapter.NotePreviewListAdapter
 import com.easynote.home.ui.HomeViewModel
 import com.google.android.material.bottomsheet.BottomSheetBehavior
+import com.google.android.material.snackbar.Snackbar
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.launch
 import com.easynote.util.DateUtils
@@ -247,7 +248,12 @@ class CalendarFragment : Fragment() {
                     is HomeUiEvent.NavigateToDetail -> {
                         navigateToDetailScreen(event.noteId, "未命名笔记") // 标题为空
                     }
-
+                    // 与首页共用一个事件通道，这里收到时同样提供撤销
+                    is HomeUiEvent.NotesTrashed -> {
+                        Snackbar.make(binding.root, "已将 ${event.noteIds.size} 条笔记移入回收站", Snackbar.LENGTH_LONG)
+                            .setAction("撤销") { viewModel.undoDelete(event.noteIds) }
+                            .show()
+                    }
                 }
             }
         }
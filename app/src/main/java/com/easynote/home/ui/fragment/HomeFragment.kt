@@ -14,6 +14,7 @@ import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.StaggeredGridLayoutManager
 import com.easynote.databinding.FragmentHomeBinding
+import com.google.android.material.snackbar.Snackbar
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
 import androidx.core.widget.addTextChangedListener
@@ -208,6 +209,11 @@ class HomeFragment : Fragment() {
                     is HomeUiEvent.NavigateToDetail -> {
                         navigateToDetailScreen(event.noteId, "未命名笔记") // 标题为空
                     }
+                    is HomeUiEvent.NotesTrashed -> {
+                        Snackbar.make(binding.root, "已将 ${event.noteIds.size} 条笔记移入回收站", Snackbar.LENGTH_LONG)
+                            .setAction("撤销") { viewModel.undoDelete(event.noteIds) }
+                            .show()
+                    }
                 }
             }
         }
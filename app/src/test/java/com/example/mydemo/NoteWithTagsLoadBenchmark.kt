@@ -0,0 +1,120 @@
+package com.example.mydemo
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.easynote.data.database.NoteDatabase
+import com.easynote.data.indexer.TagDictionary
+import com.easynote.data.relation.NoteWithTagIds
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.shadows.ShadowLog
+import kotlin.random.Random
+
+/**
+ * Cost of one page of NoteWithTags: Room @Relation (note query plus junction query) against
+ * a single statement with group_concat tag ids resolved through the tag dictionary.
+ */
+@RunWith(AndroidJUnit4::class)
+class NoteWithTagsLoadBenchmark {
+    private lateinit var noteDatabase: NoteDatabase
+    private lateinit var tagDictionary: TagDictionary
+
+    @Before
+    fun createDb() {
+        // Robolectric keeps Log output to itself unless given a stream.
+        ShadowLog.stream = System.out
+        val appContext = ApplicationProvider.getApplicationContext<Context>()
+        noteDatabase = Room.inMemoryDatabaseBuilder(appContext, NoteDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        tagDictionary = TagDictionary(noteDatabase)
+        val db = noteDatabase.openHelper.writableDatabase
+        val random = Random(NOTE_COUNT)
+        db.beginTransaction()
+        try {
+            for (tagId in 1..TAG_COUNT) {
+                db.execSQL("INSERT INTO tag(id, name) VALUES(?, ?)", arrayOf<Any>(tagId, "tag $tagId"))
+            }
+            for (id in 1..NOTE_COUNT) {
+                db.execSQL(
+                    "INSERT INTO note(id, title, create_time, update_time, favorite_time, is_favorite) " +
+                            "VALUES(?, ?, ?, ?, 0, 0)",
+                    arrayOf<Any>(id, "note $id", id, id)
+                )
+                for (tagId in 1..TAG_COUNT) {
+                    if (random.nextInt(4) == 0) {
+                        db.execSQL(
+                            "INSERT INTO note_tag_ref(note_id, tag_id) VALUES(?, ?)",
+                            arrayOf<Any>(id, tagId)
+                        )
+                    }
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    @After
+    fun closeDb() {
+        noteDatabase.close()
+    }
+
+    @Test
+    fun compareRelationAndSingleQuery() = runBlocking {
+        val dao = noteDatabase.getNoteEntityDao()
+        val pages = NOTE_COUNT / PAGE_SIZE
+
+        // Same notes and tags either way.
+        val relation = dao.getWithTagsByQuery(pageQuery("SELECT n.*", 0))
+        val flattened = tagDictionary.toNotesWithTags(
+            dao.getWithTagIdsByQuery(pageQuery("SELECT n.*, ${NoteWithTagIds.TAG_IDS_COLUMN}", 0))
+        )
+        assertEquals(
+            relation.map { it.noteEntity?.id to it.tags?.mapNotNull { tag -> tag.id }?.toSet() },
+            flattened.map { it.noteEntity?.id to it.tags?.mapNotNull { tag -> tag.id }?.toSet() }
+        )
+
+        var start = System.nanoTime()
+        repeat(ROUNDS) {
+            for (page in 0 until pages) {
+                dao.getWithTagsByQuery(pageQuery("SELECT n.*", page))
+            }
+        }
+        val relationNanos = (System.nanoTime() - start) / (ROUNDS * pages)
+
+        start = System.nanoTime()
+        repeat(ROUNDS) {
+            for (page in 0 until pages) {
+                tagDictionary.toNotesWithTags(
+                    dao.getWithTagIdsByQuery(pageQuery("SELECT n.*, ${NoteWithTagIds.TAG_IDS_COLUMN}", page))
+                )
+            }
+        }
+        val flattenedNanos = (System.nanoTime() - start) / (ROUNDS * pages)
+
+        Log.d(TAG, "NoteWithTags page: relation=${relationNanos / 1000}us single query=${flattenedNanos / 1000}us")
+    }
+
+    private fun pageQuery(select: String, page: Int) = SimpleSQLiteQuery(
+        "$select FROM note AS n ORDER BY n.update_time DESC, n.id DESC LIMIT ? OFFSET ?",
+        arrayOf<Any>(PAGE_SIZE, page * PAGE_SIZE)
+    )
+
+    companion object {
+        private const val TAG = "NoteWithTagsLoad"
+        private const val NOTE_COUNT = 2_000
+        private const val TAG_COUNT = 12
+        private const val PAGE_SIZE = 20
+        private const val ROUNDS = 5
+    }
+}